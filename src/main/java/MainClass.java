@@ -1,12 +1,35 @@
+import disk.DiskGeometry;
+import disk.DiskImage;
 import disk.LDisk;
 import iosystem.IOSystem;
 import shell.Shell;
 
+import javax.management.JMException;
+import java.io.File;
+import java.io.IOException;
+
 public class MainClass {
-    public static void main(String[] args) {
-        LDisk ldisk = new LDisk();
-        IOSystem ioSystem = new IOSystem(ldisk);
+    /**
+     * @param args optional disk size in bytes, block length in bytes and disk image, e.g. "4294967296 4096 disk.img";
+     *             the image is needed for disks that do not fit into memory.
+     *             The default is the 4 KiB LDisk with 64-byte blocks.
+     *             Block I/O statistics are published through JMX as iosystem:type=IOStatistics,name="disk".
+     */
+    public static void main(String[] args) throws IOException, JMException {
+        IOSystem ioSystem;
+        if (args.length >= 2) {
+            DiskGeometry geometry = DiskGeometry.ofSize(Long.parseLong(args[0]), Integer.parseInt(args[1]));
+            if (args.length == 3) {
+                ioSystem = new IOSystem(DiskImage.map(new File(args[2]), geometry), geometry);
+            } else {
+                ioSystem = new IOSystem(geometry);
+            }
+        } else {
+            LDisk ldisk = new LDisk();
+            ioSystem = new IOSystem(ldisk);
+        }
+        ioSystem.registerMBean("disk");
         Shell shell = new Shell(ioSystem);
         shell.start();
     }
-}
\ No newline at end of file
+}
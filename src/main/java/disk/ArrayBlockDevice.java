@@ -0,0 +1,111 @@
+package disk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Default block device: the whole disk lives in one contiguous byte array,
+ * block #i starts at offset i * B.
+ */
+public class ArrayBlockDevice implements BlockDevice {
+    private final byte[] bytes;
+    private final int numberOfBlocks;
+    private final int blockLengthInBytes;
+
+    public ArrayBlockDevice(int numberOfBlocks, int blockLengthInBytes) {
+        if (numberOfBlocks <= 0 || blockLengthInBytes <= 0)
+            throw new IllegalArgumentException("numberOfBlocks and blockLengthInBytes should be positive");
+        if ((long) numberOfBlocks * blockLengthInBytes > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("disk does not fit into one array, use MappedBlockDevice");
+        this.numberOfBlocks = numberOfBlocks;
+        this.blockLengthInBytes = blockLengthInBytes;
+        bytes = new byte[numberOfBlocks * blockLengthInBytes];
+    }
+
+    public ArrayBlockDevice(DiskGeometry geometry) {
+        this(geometry.getNumberOfBlocks(), geometry.getBlockLengthInBytes());
+    }
+
+    /**
+     * Copies the contents of the legacy object graph into a flat array.
+     * Sectors are laid out in cylinder -> track -> sector order, which is the logical block order.
+     */
+    public ArrayBlockDevice(LDisk ldisk) {
+        this(DiskGeometry.DEFAULT);
+        int offset = 0;
+        for (Cylinder cylinder : ldisk.cylinders) {
+            for (Track track : cylinder.tracks) {
+                for (Sector sector : track.sectors) {
+                    System.arraycopy(sector.bytes, 0, bytes, offset, Sector.numOfBytes);
+                    offset += Sector.numOfBytes;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    @Override
+    public int getBlockLengthInBytes() {
+        return blockLengthInBytes;
+    }
+
+    @Override
+    public void readBlock(int blockNumber, byte[] dst, int offset) {
+        System.arraycopy(bytes, blockNumber * blockLengthInBytes, dst, offset, blockLengthInBytes);
+    }
+
+    @Override
+    public void writeBlock(int blockNumber, byte[] src, int offset) {
+        System.arraycopy(src, offset, bytes, blockNumber * blockLengthInBytes, blockLengthInBytes);
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, byte[] dst, int offset) {
+        System.arraycopy(bytes, firstBlock * blockLengthInBytes, dst, offset, count * blockLengthInBytes);
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+        System.arraycopy(src, offset, bytes, firstBlock * blockLengthInBytes, count * blockLengthInBytes);
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+        if (dst.hasArray()) {
+            readBlocks(firstBlock, count, dst.array(), dst.arrayOffset() + dst.position());
+        } else {
+            dst.duplicate().put(bytes, firstBlock * blockLengthInBytes, count * blockLengthInBytes);
+        }
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, ByteBuffer src) {
+        if (src.hasArray()) {
+            writeBlocks(firstBlock, count, src.array(), src.arrayOffset() + src.position());
+        } else {
+            src.duplicate().get(bytes, firstBlock * blockLengthInBytes, count * blockLengthInBytes);
+        }
+    }
+
+    /**
+     * @return a copy of the disk as the legacy LDisk object graph (only for the default geometry).
+     */
+    public LDisk toLDisk() {
+        if (bytes.length != LDisk.numOfBytes || blockLengthInBytes != Sector.numOfBytes)
+            throw new IllegalStateException("LDisk view is available only for the default disk geometry");
+        LDisk ldisk = new LDisk();
+        int offset = 0;
+        for (Cylinder cylinder : ldisk.cylinders) {
+            for (Track track : cylinder.tracks) {
+                for (Sector sector : track.sectors) {
+                    System.arraycopy(bytes, offset, sector.bytes, 0, Sector.numOfBytes);
+                    offset += Sector.numOfBytes;
+                }
+            }
+        }
+        return ldisk;
+    }
+}
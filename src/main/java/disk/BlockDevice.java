@@ -0,0 +1,97 @@
+package disk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage behind the I/O system: a linear sequence of logical blocks numbered
+ * from 0 to L - 1, every block holding B bytes.
+ * <p>
+ * Implementations do not validate block numbers - that is done once by IOSystem.
+ */
+public interface BlockDevice extends Closeable {
+
+    /**
+     * @return (L) - the number of logical blocks.
+     */
+    int getNumberOfBlocks();
+
+    /**
+     * @return (B) - the number of bytes per block.
+     */
+    int getBlockLengthInBytes();
+
+    /**
+     * Copies block #blockNumber into dst starting at dst[offset].
+     */
+    void readBlock(int blockNumber, byte[] dst, int offset);
+
+    /**
+     * Copies B bytes starting at src[offset] into block #blockNumber.
+     */
+    void writeBlock(int blockNumber, byte[] src, int offset);
+
+    /**
+     * Copies count adjacent blocks starting at block #firstBlock into dst starting at dst[offset].
+     * Devices that store blocks contiguously should override this with a single copy.
+     */
+    default void readBlocks(int firstBlock, int count, byte[] dst, int offset) {
+        for (int i = 0; i < count; i++) {
+            readBlock(firstBlock + i, dst, offset + i * getBlockLengthInBytes());
+        }
+    }
+
+    /**
+     * Copies count * B bytes starting at src[offset] into count adjacent blocks starting at block #firstBlock.
+     */
+    default void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+        for (int i = 0; i < count; i++) {
+            writeBlock(firstBlock + i, src, offset + i * getBlockLengthInBytes());
+        }
+    }
+
+    /**
+     * Copies count adjacent blocks starting at block #firstBlock into dst starting at its current position.
+     * The position of dst is left unchanged; dst may be a heap or a direct buffer.
+     */
+    default void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+        if (dst.hasArray()) {
+            readBlocks(firstBlock, count, dst.array(), dst.arrayOffset() + dst.position());
+            return;
+        }
+        byte[] block = new byte[getBlockLengthInBytes()];
+        ByteBuffer view = dst.duplicate();
+        for (int i = 0; i < count; i++) {
+            readBlock(firstBlock + i, block, 0);
+            view.put(block);
+        }
+    }
+
+    /**
+     * Copies count * B bytes of src starting at its current position into count adjacent blocks
+     * starting at block #firstBlock. The position of src is left unchanged.
+     */
+    default void writeBlocks(int firstBlock, int count, ByteBuffer src) {
+        if (src.hasArray()) {
+            writeBlocks(firstBlock, count, src.array(), src.arrayOffset() + src.position());
+            return;
+        }
+        byte[] block = new byte[getBlockLengthInBytes()];
+        ByteBuffer view = src.duplicate();
+        for (int i = 0; i < count; i++) {
+            view.get(block);
+            writeBlock(firstBlock + i, block, 0);
+        }
+    }
+
+    /**
+     * Makes all written blocks durable. In-memory devices have nothing to do.
+     */
+    default void flush() throws IOException {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
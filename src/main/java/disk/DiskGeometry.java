@@ -0,0 +1,124 @@
+package disk;
+
+/**
+ * Shape of a disk: cylinders -> tracks -> sectors, one logical block per sector.
+ * Blocks are numbered cylinder by cylinder, track by track, sector by sector.
+ */
+public class DiskGeometry {
+    public static final int DEFAULT_NUM_OF_TRACKS = Cylinder.numOfTracks;
+    public static final int DEFAULT_NUM_OF_SECTORS = Track.numOfSectors;
+
+    /**
+     * Geometry of the legacy LDisk: 4 cylinders * 2 tracks * 8 sectors of 64 bytes.
+     */
+    public static final DiskGeometry DEFAULT = new DiskGeometry(LDisk.numOfCylinders,
+            Cylinder.numOfTracks, Track.numOfSectors, Sector.numOfBytes);
+
+    private final int numOfCylinders;
+    private final int numOfTracksInCylinder;
+    private final int numOfSectorsInTrack;
+    private final int blockLengthInBytes;
+    private final int numOfBlocksInOneCylinder;
+    private final int numberOfBlocks;
+
+    public DiskGeometry(int numOfCylinders, int numOfTracksInCylinder, int numOfSectorsInTrack, int blockLengthInBytes) {
+        if (numOfCylinders <= 0 || numOfTracksInCylinder <= 0 || numOfSectorsInTrack <= 0 || blockLengthInBytes <= 0)
+            throw new IllegalArgumentException("all geometry parameters should be positive");
+        long blocks = (long) numOfCylinders * numOfTracksInCylinder * numOfSectorsInTrack;
+        if (blocks > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too many blocks: " + blocks);
+
+        this.numOfCylinders = numOfCylinders;
+        this.numOfTracksInCylinder = numOfTracksInCylinder;
+        this.numOfSectorsInTrack = numOfSectorsInTrack;
+        this.blockLengthInBytes = blockLengthInBytes;
+        numOfBlocksInOneCylinder = numOfTracksInCylinder * numOfSectorsInTrack;
+        numberOfBlocks = (int) blocks;
+    }
+
+    /**
+     * Disk of diskSizeInBytes with the default number of tracks per cylinder and sectors per track.
+     *
+     * @param diskSizeInBytes    should be a multiple of one cylinder (tracks * sectors * blockLengthInBytes)
+     * @param blockLengthInBytes block (sector) length
+     */
+    public static DiskGeometry ofSize(long diskSizeInBytes, int blockLengthInBytes) {
+        if (blockLengthInBytes <= 0)
+            throw new IllegalArgumentException("blockLengthInBytes should be positive");
+        long cylinderLength = (long) DEFAULT_NUM_OF_TRACKS * DEFAULT_NUM_OF_SECTORS * blockLengthInBytes;
+        if (diskSizeInBytes <= 0 || diskSizeInBytes % cylinderLength != 0)
+            throw new IllegalArgumentException("disk size should be a positive multiple of " + cylinderLength + " bytes");
+        long cylinders = diskSizeInBytes / cylinderLength;
+        if (cylinders > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("disk is too big: " + diskSizeInBytes);
+        return new DiskGeometry((int) cylinders, DEFAULT_NUM_OF_TRACKS, DEFAULT_NUM_OF_SECTORS, blockLengthInBytes);
+    }
+
+    public int getNumOfCylinders() {
+        return numOfCylinders;
+    }
+
+    public int getNumOfTracksInCylinder() {
+        return numOfTracksInCylinder;
+    }
+
+    public int getNumOfSectorsInTrack() {
+        return numOfSectorsInTrack;
+    }
+
+    public int getBlockLengthInBytes() {
+        return blockLengthInBytes;
+    }
+
+    public int getNumOfBlocksInOneCylinder() {
+        return numOfBlocksInOneCylinder;
+    }
+
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    public long getDiskSizeInBytes() {
+        return (long) numberOfBlocks * blockLengthInBytes;
+    }
+
+    public int getCylinder(int blockNumber) {
+        return blockNumber / numOfBlocksInOneCylinder;
+    }
+
+    /**
+     * @return cylinder number, track number, sector number of the block.
+     */
+    public int[] getBlockLocation(int blockNumber) {
+        int blockInCylinder = blockNumber % numOfBlocksInOneCylinder;
+        return new int[]{
+                blockNumber / numOfBlocksInOneCylinder,
+                blockInCylinder / numOfSectorsInTrack,
+                blockInCylinder % numOfSectorsInTrack
+        };
+    }
+
+    public boolean isDefault() {
+        return equals(DEFAULT);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DiskGeometry)) return false;
+        DiskGeometry that = (DiskGeometry) o;
+        return numOfCylinders == that.numOfCylinders && numOfTracksInCylinder == that.numOfTracksInCylinder
+                && numOfSectorsInTrack == that.numOfSectorsInTrack && blockLengthInBytes == that.blockLengthInBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((numOfCylinders * 31 + numOfTracksInCylinder) * 31 + numOfSectorsInTrack) * 31 + blockLengthInBytes;
+    }
+
+    @Override
+    public String toString() {
+        return numOfCylinders + " cylinders * " + numOfTracksInCylinder + " tracks * "
+                + numOfSectorsInTrack + " sectors * " + blockLengthInBytes + " bytes";
+    }
+}
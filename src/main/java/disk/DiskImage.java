@@ -0,0 +1,382 @@
+package disk;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Raw disk image file: a header of HEADER_LENGTH bytes, then block #i at offset HEADER_LENGTH + i * B.
+ * <p>
+ * Header (big-endian ints): MAGIC, VERSION, cylinders, tracks in a cylinder, sectors in a track, B;
+ * the rest is zero. Blocks start at a page boundary, so an image can be mapped (see map).
+ * Images are loaded and saved with sequential FileChannel transfers through one large direct buffer.
+ * <p>
+ * A checkpoint may append delta records after the blocks: DELTA_MAGIC, first block, count (ints), then count blocks
+ * that replace blocks first .. first + count - 1. They are applied in order when the image is loaded, and
+ * merged into the blocks when it is mapped; a record cut short by a crash is ignored.
+ * <p>
+ * An image is never rewritten in place: save and compact write a sibling temporary file, force it and
+ * move it over the image, so a crash or an I/O error leaves the previous image whole.
+ * <p>
+ * Older images are still accepted: raw ones without a header (L * B bytes) are mapped as they are,
+ * and the serialized LDisk objects of the first version are read by readSerialized or rewritten once
+ * in this format by convert (also runnable: DiskImage &lt;serialized image&gt; &lt;raw image&gt;).
+ */
+public final class DiskImage {
+    /**
+     * "LDSK"
+     */
+    public static final int MAGIC = 0x4C44534B;
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 4096;
+    /**
+     * "DLTA"
+     */
+    public static final int DELTA_MAGIC = 0x444C5441;
+    public static final int DELTA_HEADER_LENGTH = 12;
+
+    private static final int TRANSFER_BUFFER_LENGTH = 4 << 20;
+
+    private DiskImage() {
+    }
+
+    /**
+     * @return geometry in the header of the image, null if the file has no header (a headerless raw image,
+     * a serialized LDisk or an empty file).
+     * @throws IOException if the image was written by a newer version
+     */
+    public static DiskGeometry readGeometry(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readHeader(channel);
+        }
+    }
+
+    /**
+     * Maps the image as the disk; an empty or missing file becomes a zero-filled image of the given geometry.
+     *
+     * @throws IOException if the image has another geometry
+     */
+    public static MappedBlockDevice map(File file, DiskGeometry geometry) throws IOException {
+        DiskGeometry imageGeometry = null;
+        if (file.length() > 0) {
+            imageGeometry = readGeometry(file);
+            if (imageGeometry == null) {
+                // headerless image of an older version
+                return new MappedBlockDevice(file, geometry);
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                writeHeader(channel, geometry);
+            }
+        }
+        if (imageGeometry != null && !imageGeometry.equals(geometry))
+            throw new IOException(file + " holds a disk of geometry " + imageGeometry + ", expected " + geometry);
+        if (getDeltaLength(file, geometry) > 0) compact(file, geometry);
+        return new MappedBlockDevice(file, geometry.getNumberOfBlocks(), geometry.getBlockLengthInBytes(), HEADER_LENGTH);
+    }
+
+    /**
+     * Writes all blocks of device to file (replacing it) as an image of the given geometry.
+     */
+    public static void save(BlockDevice device, DiskGeometry geometry, File file) throws IOException {
+        checkDevice(device, geometry);
+        replace(file, channel -> {
+            writeHeader(channel, geometry);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(transferBlocks(geometry) * geometry.getBlockLengthInBytes());
+            long position = HEADER_LENGTH;
+            for (int first = 0; first < geometry.getNumberOfBlocks(); ) {
+                int count = Math.min(transferBlocks(geometry), geometry.getNumberOfBlocks() - first);
+                buffer.clear();
+                device.readBlocks(first, count, buffer);
+                buffer.limit(count * geometry.getBlockLengthInBytes());
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                first += count;
+            }
+        });
+    }
+
+    /**
+     * Copies all blocks of the image into device.
+     *
+     * @throws IOException if the image has no header or another geometry
+     */
+    public static void load(File file, BlockDevice device, DiskGeometry geometry) throws IOException {
+        checkDevice(device, geometry);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DiskGeometry imageGeometry = readHeader(channel);
+            if (!geometry.equals(imageGeometry))
+                throw new IOException(file + " holds a disk of geometry " + imageGeometry + ", expected " + geometry);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(transferBlocks(geometry) * geometry.getBlockLengthInBytes());
+            long position = HEADER_LENGTH;
+            for (int first = 0; first < geometry.getNumberOfBlocks(); ) {
+                int count = Math.min(transferBlocks(geometry), geometry.getNumberOfBlocks() - first);
+                buffer.clear();
+                buffer.limit(count * geometry.getBlockLengthInBytes());
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position);
+                    if (read == -1) throw new EOFException(file + " is truncated at block " + first);
+                    position += read;
+                }
+                buffer.flip();
+                device.writeBlocks(first, count, buffer);
+                first += count;
+            }
+            replayDeltas(channel, geometry, buffer, device::writeBlocks);
+        }
+    }
+
+    /**
+     * Appends the given blocks of device to the image as delta records, one per run of adjacent blocks,
+     * with sequential writes, and forces them to the storage device.
+     *
+     * @throws IOException if the file is not an image of the given geometry
+     */
+    public static void append(BlockDevice device, DiskGeometry geometry, File file, BitSet blocks) throws IOException {
+        checkDevice(device, geometry);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            DiskGeometry imageGeometry = readHeader(channel);
+            if (!geometry.equals(imageGeometry) || channel.size() < getBaseLength(geometry))
+                throw new IOException(file + " is not a disk image of geometry " + geometry);
+
+            int blockLength = geometry.getBlockLengthInBytes();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(DELTA_HEADER_LENGTH + transferBlocks(geometry) * blockLength);
+            long position = channel.size();
+            for (int first = blocks.nextSetBit(0); first >= 0; ) {
+                int count = Math.min(transferBlocks(geometry), blocks.nextClearBit(first) - first);
+                if (buffer.remaining() < DELTA_HEADER_LENGTH + count * blockLength) {
+                    position = drain(channel, buffer, position);
+                }
+                buffer.putInt(DELTA_MAGIC);
+                buffer.putInt(first);
+                buffer.putInt(count);
+                ByteBuffer data = buffer.slice();
+                device.readBlocks(first, count, data);
+                buffer.position(buffer.position() + count * blockLength);
+                first = blocks.nextSetBit(first + count);
+            }
+            drain(channel, buffer, position);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return bytes of the delta records at the end of the image, 0 if the file is no image of the given geometry.
+     */
+    public static long getDeltaLength(File file, DiskGeometry geometry) throws IOException {
+        if (!file.exists() || !geometry.equals(readGeometry(file))) return 0;
+        return Math.max(0, file.length() - getBaseLength(geometry));
+    }
+
+    /**
+     * @return bytes the delta records of the given blocks take.
+     */
+    public static long getDeltaLength(BitSet blocks, int blockLengthInBytes) {
+        long length = 0;
+        for (int first = blocks.nextSetBit(0); first >= 0; ) {
+            int end = blocks.nextClearBit(first);
+            length += DELTA_HEADER_LENGTH + (long) (end - first) * blockLengthInBytes;
+            first = blocks.nextSetBit(end);
+        }
+        return length;
+    }
+
+    /**
+     * Merges the delta records into the blocks of the image and removes them.
+     */
+    public static void compact(File file, DiskGeometry geometry) throws IOException {
+        replace(file, channel -> {
+            try (FileChannel image = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long baseLength = getBaseLength(geometry);
+                for (long position = 0; position < baseLength; ) {
+                    long transferred = image.transferTo(position, baseLength - position, channel);
+                    if (transferred == 0) throw new EOFException(file + " is truncated at byte " + position);
+                    position += transferred;
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocateDirect(transferBlocks(geometry) * geometry.getBlockLengthInBytes());
+                replayDeltas(image, geometry, buffer, (first, count, blocks) -> {
+                    long position = HEADER_LENGTH + (long) first * geometry.getBlockLengthInBytes();
+                    while (blocks.hasRemaining()) {
+                        position += channel.write(blocks, position);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return true if the file is a serialized Java object stream (the image format of the first version).
+     */
+    public static boolean isSerialized(File file) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            return inputStream.available() >= 2 && inputStream.readShort() == ObjectStreamConstants.STREAM_MAGIC;
+        }
+    }
+
+    public static LDisk readSerialized(File file) throws IOException {
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (LDisk) objectInputStream.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException(file + " is not a serialized LDisk", e);
+        }
+    }
+
+    /**
+     * Rewrites a serialized LDisk as a raw image of the default geometry; source and target may be the same file.
+     */
+    public static void convert(File serialized, File image) throws IOException {
+        LDisk ldisk = readSerialized(serialized);
+        save(new ArrayBlockDevice(ldisk), DiskGeometry.DEFAULT, image);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: DiskImage <serialized image> <raw image>");
+            System.exit(1);
+        }
+        convert(new File(args[0]), new File(args[1]));
+        System.out.println(args[0] + " -> " + args[1]);
+    }
+
+    //*******************************************************************************************************/
+
+    private interface DeltaTarget {
+        void writeBlocks(int firstBlock, int count, ByteBuffer blocks) throws IOException;
+    }
+
+    private interface ImageWriter {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Has writer write the new contents of file into a temporary file next to it, forces that and atomically
+     * moves it over file; the temporary file is deleted if anything fails.
+     */
+    private static void replace(File file, ImageWriter writer) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temporary = Files.createTempFile(target.getParent(), file.getName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                writer.write(channel);
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        // the rename is durable once the directory is; not every platform can force a directory
+        try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Reads the delta records after the blocks in order and hands each to target; stops at the first one
+     * that is cut short or damaged.
+     *
+     * @param buffer room for transferBlocks(geometry) blocks
+     */
+    private static void replayDeltas(FileChannel channel, DiskGeometry geometry, ByteBuffer buffer,
+                                     DeltaTarget target) throws IOException {
+        int blockLength = geometry.getBlockLengthInBytes();
+        ByteBuffer header = ByteBuffer.allocate(DELTA_HEADER_LENGTH);
+        long position = getBaseLength(geometry);
+        while (true) {
+            header.clear();
+            if (!readFully(channel, header, position)) return;
+            header.flip();
+            int magic = header.getInt();
+            int first = header.getInt();
+            int count = header.getInt();
+            if (magic != DELTA_MAGIC || first < 0 || count <= 0 || count > transferBlocks(geometry)
+                    || first > geometry.getNumberOfBlocks() - count) return;
+            position += DELTA_HEADER_LENGTH;
+
+            buffer.clear();
+            buffer.limit(count * blockLength);
+            if (!readFully(channel, buffer, position)) return;
+            position += count * blockLength;
+            buffer.flip();
+            target.writeBlocks(first, count, buffer);
+        }
+    }
+
+    /**
+     * @return false if the file ends before dst is full.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read == -1) return false;
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * Writes what was put into buffer at position and empties it.
+     *
+     * @return the position after it.
+     */
+    private static long drain(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        return position;
+    }
+
+    private static long getBaseLength(DiskGeometry geometry) {
+        return HEADER_LENGTH + geometry.getDiskSizeInBytes();
+    }
+
+    private static DiskGeometry readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(24);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) == -1) return null;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) return null;
+        int version = header.getInt();
+        if (version > VERSION)
+            throw new IOException("disk image version " + version + " is newer than " + VERSION);
+        return new DiskGeometry(header.getInt(), header.getInt(), header.getInt(), header.getInt());
+    }
+
+    private static void writeHeader(FileChannel channel, DiskGeometry geometry) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(geometry.getNumOfCylinders());
+        header.putInt(geometry.getNumOfTracksInCylinder());
+        header.putInt(geometry.getNumOfSectorsInTrack());
+        header.putInt(geometry.getBlockLengthInBytes());
+        header.clear();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    private static int transferBlocks(DiskGeometry geometry) {
+        return Math.max(1, Math.min(geometry.getNumberOfBlocks(), TRANSFER_BUFFER_LENGTH / geometry.getBlockLengthInBytes()));
+    }
+
+    private static void checkDevice(BlockDevice device, DiskGeometry geometry) {
+        if (device.getNumberOfBlocks() != geometry.getNumberOfBlocks()
+                || device.getBlockLengthInBytes() != geometry.getBlockLengthInBytes())
+            throw new IllegalArgumentException("device does not match geometry " + geometry);
+    }
+}
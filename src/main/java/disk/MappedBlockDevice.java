@@ -0,0 +1,155 @@
+package disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Block device backed by a disk image file mapped into memory with FileChannel.map.
+ * Block #i lives at file offset dataOffset + i * B (0 for a headerless image, see DiskImage), so mounting an image costs the same
+ * regardless of its size and every write lands in the page cache immediately;
+ * flush() forces the mapping to the storage device.
+ * <p>
+ * One mapping is limited to 2 GiB, so big images are mapped as several segments
+ * of a whole number of blocks.
+ */
+public class MappedBlockDevice implements BlockDevice {
+    private static final int MAX_SEGMENT_LENGTH = 1 << 30;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final int numOfBlocksInOneSegment;
+    private final int numberOfBlocks;
+    private final int blockLengthInBytes;
+
+    public MappedBlockDevice(File file, DiskGeometry geometry) throws IOException {
+        this(file, geometry.getNumberOfBlocks(), geometry.getBlockLengthInBytes());
+    }
+
+    public MappedBlockDevice(File file, int numberOfBlocks, int blockLengthInBytes) throws IOException {
+        this(file, numberOfBlocks, blockLengthInBytes, 0);
+    }
+
+    /**
+     * Maps an existing image or creates a zero-filled one.
+     *
+     * @param dataOffset offset of block #0 in the file, a multiple of the page size
+     * @throws IOException if the file holds blocks but its size does not match dataOffset + L * B
+     */
+    public MappedBlockDevice(File file, int numberOfBlocks, int blockLengthInBytes, long dataOffset) throws IOException {
+        if (numberOfBlocks <= 0 || blockLengthInBytes <= 0)
+            throw new IllegalArgumentException("numberOfBlocks and blockLengthInBytes should be positive");
+        this.file = file.getCanonicalFile();
+        this.numberOfBlocks = numberOfBlocks;
+        this.blockLengthInBytes = blockLengthInBytes;
+
+        long imageLength = (long) numberOfBlocks * blockLengthInBytes;
+        channel = FileChannel.open(this.file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fileLength = channel.size();
+        if (fileLength > dataOffset && fileLength != dataOffset + imageLength) {
+            channel.close();
+            throw new IOException(file + " is not a disk image: size = " + fileLength + ", expected " + (dataOffset + imageLength));
+        }
+
+        numOfBlocksInOneSegment = Math.max(1, MAX_SEGMENT_LENGTH / blockLengthInBytes);
+        int numOfSegments = (numberOfBlocks + numOfBlocksInOneSegment - 1) / numOfBlocksInOneSegment;
+        segments = new MappedByteBuffer[numOfSegments];
+        for (int i = 0; i < numOfSegments; i++) {
+            long start = (long) i * numOfBlocksInOneSegment * blockLengthInBytes;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + start,
+                    Math.min(imageLength - start, (long) numOfBlocksInOneSegment * blockLengthInBytes));
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    @Override
+    public int getBlockLengthInBytes() {
+        return blockLengthInBytes;
+    }
+
+    @Override
+    public void readBlock(int blockNumber, byte[] dst, int offset) {
+        blockView(blockNumber).get(dst, offset, blockLengthInBytes);
+    }
+
+    @Override
+    public void writeBlock(int blockNumber, byte[] src, int offset) {
+        blockView(blockNumber).put(src, offset, blockLengthInBytes);
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, byte[] dst, int offset) {
+        if (isInOneSegment(firstBlock, count)) {
+            blockView(firstBlock).get(dst, offset, count * blockLengthInBytes);
+        } else {
+            BlockDevice.super.readBlocks(firstBlock, count, dst, offset);
+        }
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+        if (isInOneSegment(firstBlock, count)) {
+            blockView(firstBlock).put(src, offset, count * blockLengthInBytes);
+        } else {
+            BlockDevice.super.writeBlocks(firstBlock, count, src, offset);
+        }
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+        if (isInOneSegment(firstBlock, count)) {
+            ByteBuffer view = blockView(firstBlock);
+            view.limit(view.position() + count * blockLengthInBytes);
+            dst.duplicate().put(view);
+        } else {
+            BlockDevice.super.readBlocks(firstBlock, count, dst);
+        }
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, ByteBuffer src) {
+        if (isInOneSegment(firstBlock, count)) {
+            ByteBuffer data = src.duplicate();
+            data.limit(data.position() + count * blockLengthInBytes);
+            blockView(firstBlock).put(data);
+        } else {
+            BlockDevice.super.writeBlocks(firstBlock, count, src);
+        }
+    }
+
+    private boolean isInOneSegment(int firstBlock, int count) {
+        return firstBlock / numOfBlocksInOneSegment == (firstBlock + count - 1) / numOfBlocksInOneSegment;
+    }
+
+    private ByteBuffer blockView(int blockNumber) {
+        ByteBuffer view = segments[blockNumber / numOfBlocksInOneSegment].duplicate();
+        view.position((blockNumber % numOfBlocksInOneSegment) * blockLengthInBytes);
+        return view;
+    }
+
+    @Override
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
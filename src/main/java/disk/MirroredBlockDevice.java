@@ -0,0 +1,296 @@
+package disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * RAID-1 volume: every block is written to all attached members, each read is served by one of them.
+ * <p>
+ * A member can be detached (e.g. for maintenance); blocks written meanwhile are remembered,
+ * and resync() copies only those blocks before the member is attached again.
+ * Reads and writes may come from several threads; detaching and resync wait for them.
+ */
+public class MirroredBlockDevice implements BlockDevice {
+
+    /**
+     * How the member serving a read is chosen.
+     */
+    public enum ReadBalancing {
+        /**
+         * Member with the fewest reads in flight, ties go to the nearest head.
+         */
+        QUEUE_DEPTH,
+
+        /**
+         * Member whose head (cylinder of its last read) is nearest, ties go to the shortest queue.
+         */
+        NEAREST_CYLINDER
+    }
+
+    private final BlockDevice[] members;
+    private final DiskGeometry geometry;
+    private final ReadBalancing readBalancing;
+    private final int numberOfBlocks;
+    private final int blockLengthInBytes;
+
+    private final AtomicInteger[] readsInFlight;
+    private final AtomicIntegerArray headCylinder;
+    private final AtomicLong[] reads;
+    // null while the member is attached, otherwise blocks written since it was detached
+    private final BitSet[] dirtyBlocks;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param members  devices of the given geometry holding the same data
+     * @param geometry geometry of every member, used to find the cylinder of a block
+     */
+    public MirroredBlockDevice(BlockDevice[] members, DiskGeometry geometry, ReadBalancing readBalancing) {
+        if (members.length == 0) throw new IllegalArgumentException("at least one member is needed");
+        for (BlockDevice member : members) {
+            if (member.getNumberOfBlocks() != geometry.getNumberOfBlocks()
+                    || member.getBlockLengthInBytes() != geometry.getBlockLengthInBytes())
+                throw new IllegalArgumentException("member does not match geometry " + geometry);
+        }
+        this.members = members.clone();
+        this.geometry = geometry;
+        this.readBalancing = readBalancing;
+        numberOfBlocks = geometry.getNumberOfBlocks();
+        blockLengthInBytes = geometry.getBlockLengthInBytes();
+
+        readsInFlight = new AtomicInteger[members.length];
+        headCylinder = new AtomicIntegerArray(members.length);
+        reads = new AtomicLong[members.length];
+        dirtyBlocks = new BitSet[members.length];
+        for (int i = 0; i < members.length; i++) {
+            readsInFlight[i] = new AtomicInteger();
+            reads[i] = new AtomicLong();
+        }
+    }
+
+    public int getNumberOfMembers() {
+        return members.length;
+    }
+
+    public ReadBalancing getReadBalancing() {
+        return readBalancing;
+    }
+
+    /**
+     * @return number of reads served by member #member.
+     */
+    public long getReads(int member) {
+        return reads[member].get();
+    }
+
+    public boolean isAttached(int member) {
+        lock.readLock().lock();
+        try {
+            return dirtyBlocks[member] == null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops reading from and writing to member #member; blocks written from now on are remembered for resync().
+     * At least one member stays attached.
+     */
+    public void detach(int member) {
+        lock.writeLock().lock();
+        try {
+            if (dirtyBlocks[member] != null) return;
+            int attached = 0;
+            for (BitSet dirty : dirtyBlocks) {
+                if (dirty == null) attached++;
+            }
+            if (attached == 1) throw new IllegalStateException("the last attached member cannot be detached");
+            dirtyBlocks[member] = new BitSet(numberOfBlocks);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the blocks written while member #member was detached from an attached member
+     * (adjacent blocks in one transfer) and attaches it again.
+     *
+     * @return number of blocks copied.
+     */
+    public int resync(int member) {
+        lock.writeLock().lock();
+        try {
+            BitSet dirty = dirtyBlocks[member];
+            if (dirty == null) return 0;
+            BlockDevice source = members[firstAttachedMember()];
+            ByteBuffer buffer = ByteBuffer.allocate(0);
+
+            int copied = 0;
+            for (int first = dirty.nextSetBit(0); first >= 0; first = dirty.nextSetBit(first)) {
+                int end = dirty.nextClearBit(first);
+                int count = end - first;
+                if (buffer.capacity() < count * blockLengthInBytes) buffer = ByteBuffer.allocate(count * blockLengthInBytes);
+                source.readBlocks(first, count, buffer);
+                members[member].writeBlocks(first, count, buffer);
+                copied += count;
+                first = end;
+            }
+            dirtyBlocks[member] = null;
+            return copied;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of blocks member #member misses, 0 if it is attached.
+     */
+    public int getNumberOfDirtyBlocks(int member) {
+        lock.readLock().lock();
+        try {
+            BitSet dirty = dirtyBlocks[member];
+            if (dirty == null) return 0;
+            synchronized (dirty) {
+                return dirty.cardinality();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int firstAttachedMember() {
+        for (int i = 0; i < members.length; i++) {
+            if (dirtyBlocks[i] == null) return i;
+        }
+        throw new IllegalStateException("no attached member");
+    }
+
+    /**
+     * @return attached member that should serve a read starting at block #blockNumber.
+     */
+    private int selectReadMember(int blockNumber) {
+        int cylinder = geometry.getCylinder(blockNumber);
+        int best = -1;
+        int bestDepth = 0;
+        int bestDistance = 0;
+        for (int i = 0; i < members.length; i++) {
+            if (dirtyBlocks[i] != null) continue;
+            int depth = readsInFlight[i].get();
+            int distance = Math.abs(headCylinder.get(i) - cylinder);
+            boolean better;
+            if (best == -1) {
+                better = true;
+            } else if (readBalancing == ReadBalancing.QUEUE_DEPTH) {
+                better = depth < bestDepth || (depth == bestDepth && distance < bestDistance);
+            } else {
+                better = distance < bestDistance || (distance == bestDistance && depth < bestDepth);
+            }
+            if (better) {
+                best = i;
+                bestDepth = depth;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private void read(int firstBlock, int count, ByteBuffer dst) {
+        lock.readLock().lock();
+        try {
+            int member = selectReadMember(firstBlock);
+            readsInFlight[member].incrementAndGet();
+            headCylinder.set(member, geometry.getCylinder(firstBlock + count - 1));
+            try {
+                members[member].readBlocks(firstBlock, count, dst);
+                reads[member].incrementAndGet();
+            } finally {
+                readsInFlight[member].decrementAndGet();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(int firstBlock, int count, ByteBuffer src) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < members.length; i++) {
+                BitSet dirty = dirtyBlocks[i];
+                if (dirty == null) {
+                    members[i].writeBlocks(firstBlock, count, src);
+                } else {
+                    synchronized (dirty) {
+                        dirty.set(firstBlock, firstBlock + count);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    @Override
+    public int getBlockLengthInBytes() {
+        return blockLengthInBytes;
+    }
+
+    @Override
+    public void readBlock(int blockNumber, byte[] dst, int offset) {
+        read(blockNumber, 1, ByteBuffer.wrap(dst, offset, blockLengthInBytes));
+    }
+
+    @Override
+    public void writeBlock(int blockNumber, byte[] src, int offset) {
+        write(blockNumber, 1, ByteBuffer.wrap(src, offset, blockLengthInBytes));
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, byte[] dst, int offset) {
+        read(firstBlock, count, ByteBuffer.wrap(dst, offset, count * blockLengthInBytes));
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+        write(firstBlock, count, ByteBuffer.wrap(src, offset, count * blockLengthInBytes));
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+        read(firstBlock, count, dst);
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, ByteBuffer src) {
+        write(firstBlock, count, src);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (BlockDevice member : members) {
+            member.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (BlockDevice member : members) {
+            try {
+                member.close();
+            } catch (IOException e) {
+                if (exception == null) exception = e;
+            }
+        }
+        if (exception != null) throw exception;
+    }
+}
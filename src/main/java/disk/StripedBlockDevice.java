@@ -0,0 +1,193 @@
+package disk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * RAID-0 volume: blocks are striped across N member devices in stripe units of U blocks.
+ * <p>
+ * Stripe unit #s (blocks s * U .. s * U + U - 1) is stored on member s % N at member blocks
+ * (s / N) * U .. (s / N) * U + U - 1. A multi-block transfer that spans several members is split
+ * per member and the members are served in parallel, one thread per member.
+ */
+public class StripedBlockDevice implements BlockDevice {
+    private final BlockDevice[] members;
+    private final int stripeUnitInBlocks;
+    private final int numberOfBlocks;
+    private final int blockLengthInBytes;
+    private final ExecutorService executor;
+
+    /**
+     * @param members            devices with the same block length; capacity is limited by the smallest one
+     * @param stripeUnitInBlocks number of adjacent blocks stored on one member before moving to the next
+     */
+    public StripedBlockDevice(BlockDevice[] members, int stripeUnitInBlocks) {
+        if (members.length == 0) throw new IllegalArgumentException("at least one member is needed");
+        if (stripeUnitInBlocks <= 0) throw new IllegalArgumentException("stripe unit should be positive");
+        int smallestMember = Integer.MAX_VALUE;
+        for (BlockDevice member : members) {
+            if (member.getBlockLengthInBytes() != members[0].getBlockLengthInBytes())
+                throw new IllegalArgumentException("members should have the same block length");
+            smallestMember = Math.min(smallestMember, member.getNumberOfBlocks());
+        }
+        long unitsPerMember = smallestMember / stripeUnitInBlocks;
+        if (unitsPerMember == 0) throw new IllegalArgumentException("stripe unit is larger than a member");
+        if (unitsPerMember * stripeUnitInBlocks * members.length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("volume has too many blocks");
+
+        this.members = members.clone();
+        this.stripeUnitInBlocks = stripeUnitInBlocks;
+        numberOfBlocks = (int) (unitsPerMember * stripeUnitInBlocks * members.length);
+        blockLengthInBytes = members[0].getBlockLengthInBytes();
+        executor = Executors.newFixedThreadPool(members.length, runnable -> {
+            Thread thread = new Thread(runnable, "striped-device");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getNumberOfMembers() {
+        return members.length;
+    }
+
+    public int getStripeUnitInBlocks() {
+        return stripeUnitInBlocks;
+    }
+
+    /**
+     * @return index of the member that stores block #blockNumber.
+     */
+    public int getMember(int blockNumber) {
+        return (blockNumber / stripeUnitInBlocks) % members.length;
+    }
+
+    /**
+     * @return number of block #blockNumber on its member.
+     */
+    public int getMemberBlock(int blockNumber) {
+        int stripeUnit = blockNumber / stripeUnitInBlocks;
+        return (stripeUnit / members.length) * stripeUnitInBlocks + blockNumber % stripeUnitInBlocks;
+    }
+
+    @Override
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    @Override
+    public int getBlockLengthInBytes() {
+        return blockLengthInBytes;
+    }
+
+    @Override
+    public void readBlock(int blockNumber, byte[] dst, int offset) {
+        members[getMember(blockNumber)].readBlock(getMemberBlock(blockNumber), dst, offset);
+    }
+
+    @Override
+    public void writeBlock(int blockNumber, byte[] src, int offset) {
+        members[getMember(blockNumber)].writeBlock(getMemberBlock(blockNumber), src, offset);
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, byte[] dst, int offset) {
+        readBlocks(firstBlock, count, ByteBuffer.wrap(dst, offset, count * blockLengthInBytes));
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+        writeBlocks(firstBlock, count, ByteBuffer.wrap(src, offset, count * blockLengthInBytes));
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+        transfer(firstBlock, count, dst, false);
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, ByteBuffer src) {
+        transfer(firstBlock, count, src, true);
+    }
+
+    /**
+     * Splits the range into stripe-unit pieces, groups them by member and serves the members in parallel.
+     */
+    private void transfer(int firstBlock, int count, ByteBuffer buffer, boolean write) {
+        List<List<Runnable>> work = new ArrayList<>(members.length);
+        for (int i = 0; i < members.length; i++) {
+            work.add(new ArrayList<>());
+        }
+
+        int busyMembers = 0;
+        for (int done = 0; done < count; ) {
+            int blockNumber = firstBlock + done;
+            int pieceLength = Math.min(count - done, stripeUnitInBlocks - blockNumber % stripeUnitInBlocks);
+            BlockDevice member = members[getMember(blockNumber)];
+            int memberBlock = getMemberBlock(blockNumber);
+            ByteBuffer view = buffer.duplicate();
+            view.position(buffer.position() + done * blockLengthInBytes);
+            List<Runnable> memberWork = work.get(getMember(blockNumber));
+            if (memberWork.isEmpty()) busyMembers++;
+            memberWork.add(write ? () -> member.writeBlocks(memberBlock, pieceLength, view)
+                    : () -> member.readBlocks(memberBlock, pieceLength, view));
+            done += pieceLength;
+        }
+
+        if (busyMembers == 1) {
+            for (List<Runnable> memberWork : work) {
+                for (Runnable piece : memberWork) piece.run();
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(busyMembers);
+        for (List<Runnable> memberWork : work) {
+            if (!memberWork.isEmpty()) {
+                futures.add(executor.submit(() -> {
+                    for (Runnable piece : memberWork) piece.run();
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for a member", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (BlockDevice member : members) {
+            member.flush();
+        }
+    }
+
+    /**
+     * Stops the member threads and closes all members.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        IOException exception = null;
+        for (BlockDevice member : members) {
+            try {
+                member.close();
+            } catch (IOException e) {
+                if (exception == null) exception = e;
+            }
+        }
+        if (exception != null) throw exception;
+    }
+}
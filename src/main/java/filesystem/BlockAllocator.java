@@ -0,0 +1,197 @@
+package filesystem;
+
+import java.util.BitSet;
+
+/**
+ * Policy that picks free blocks in the bitmap of a file system (bit set = block in use).
+ * <p>
+ * Policies only search; allocate() and allocateRun() mark the blocks used and keep the metrics.
+ * Searches go through BitSet.nextClearBit / nextSetBit, which skip 64 blocks per word.
+ */
+public abstract class BlockAllocator {
+    private long allocations;
+    private long allocatedBlocks;
+    private long failedAllocations;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * @param goal block the new block should follow (the previous block of the file), -1 for the first block of a file
+     * @return a free block in from .. to - 1, or -1 if there is none.
+     */
+    protected abstract int findFreeBlock(BitSet bitmap, int from, int to, int goal);
+
+    /**
+     * @return the first block of a free run in from .. to - 1 for up to maxLength blocks, or -1 if there is no free block.
+     * By default the run starts at the block findFreeBlock() picks.
+     */
+    protected int findFreeRun(BitSet bitmap, int from, int to, int goal, int maxLength) {
+        return findFreeBlock(bitmap, from, to, goal);
+    }
+
+    /**
+     * Finds a free block in from .. to - 1 and marks it used.
+     *
+     * @return the block, or -1 if there is none.
+     */
+    public final int allocate(BitSet bitmap, int from, int to, int goal) {
+        long start = System.nanoTime();
+        int block = findFreeBlock(bitmap, from, to, goal);
+        if (block != -1) bitmap.set(block);
+        record(block == -1 ? 0 : 1, System.nanoTime() - start);
+        return block;
+    }
+
+    /**
+     * Finds up to maxLength adjacent free blocks in from .. to - 1 and marks them used.
+     *
+     * @return the run, or null if there is no free block.
+     */
+    public final BlockRun allocateRun(BitSet bitmap, int from, int to, int goal, int maxLength) {
+        long start = System.nanoTime();
+        int first = findFreeRun(bitmap, from, to, goal, maxLength);
+        BlockRun run = null;
+        if (first != -1) {
+            int end = Math.min(Math.min(nextUsedBlock(bitmap, first, to), to), first + maxLength);
+            bitmap.set(first, end);
+            run = new BlockRun(first, end - first);
+        }
+        record(run == null ? 0 : run.length, System.nanoTime() - start);
+        return run;
+    }
+
+    private synchronized void record(int blocks, long nanos) {
+        if (blocks == 0) {
+            failedAllocations++;
+        } else {
+            allocations++;
+            allocatedBlocks += blocks;
+        }
+        totalNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    /**
+     * @return first used block at or after block, or to if the rest of the range is free.
+     */
+    static int nextUsedBlock(BitSet bitmap, int block, int to) {
+        int used = bitmap.nextSetBit(block);
+        return used == -1 || used > to ? to : used;
+    }
+
+    /**
+     * @return first free block in from .. to - 1, or -1.
+     */
+    static int nextFreeBlock(BitSet bitmap, int from, int to) {
+        int free = bitmap.nextClearBit(from);
+        return free < to ? free : -1;
+    }
+
+    /**
+     * Allocation counters plus the free space fragmentation of bitmap in from .. to - 1.
+     */
+    public synchronized Statistics getStatistics(BitSet bitmap, int from, int to) {
+        int freeBlocks = 0;
+        int freeRuns = 0;
+        int largestFreeRun = 0;
+        for (int free = nextFreeBlock(bitmap, from, to); free != -1; ) {
+            int end = nextUsedBlock(bitmap, free, to);
+            freeBlocks += end - free;
+            freeRuns++;
+            largestFreeRun = Math.max(largestFreeRun, end - free);
+            free = end < to ? nextFreeBlock(bitmap, end, to) : -1;
+        }
+        return new Statistics(getClass().getSimpleName(), allocations, allocatedBlocks, failedAllocations,
+                totalNanos, maxNanos, freeBlocks, freeRuns, largestFreeRun);
+    }
+
+    public synchronized void resetStatistics() {
+        allocations = allocatedBlocks = failedAllocations = totalNanos = maxNanos = 0;
+    }
+
+    /**
+     * Adjacent blocks first .. first + length - 1.
+     */
+    public static class BlockRun {
+        public final int first;
+        public final int length;
+
+        BlockRun(int first, int length) {
+            this.first = first;
+            this.length = length;
+        }
+    }
+
+    public static class Statistics {
+        private final String allocator;
+        private final long allocations;
+        private final long allocatedBlocks;
+        private final long failedAllocations;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final int freeBlocks;
+        private final int freeRuns;
+        private final int largestFreeRun;
+
+        Statistics(String allocator, long allocations, long allocatedBlocks, long failedAllocations,
+                   long totalNanos, long maxNanos, int freeBlocks, int freeRuns, int largestFreeRun) {
+            this.allocator = allocator;
+            this.allocations = allocations;
+            this.allocatedBlocks = allocatedBlocks;
+            this.failedAllocations = failedAllocations;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.freeBlocks = freeBlocks;
+            this.freeRuns = freeRuns;
+            this.largestFreeRun = largestFreeRun;
+        }
+
+        public long getAllocations() {
+            return allocations;
+        }
+
+        public long getAllocatedBlocks() {
+            return allocatedBlocks;
+        }
+
+        public long getFailedAllocations() {
+            return failedAllocations;
+        }
+
+        public double getAverageNanos() {
+            long calls = allocations + failedAllocations;
+            return calls == 0 ? 0 : (double) totalNanos / calls;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public int getFreeBlocks() {
+            return freeBlocks;
+        }
+
+        public int getFreeRuns() {
+            return freeRuns;
+        }
+
+        public int getLargestFreeRun() {
+            return largestFreeRun;
+        }
+
+        /**
+         * @return 0 when all free space is one run, close to 1 when it is scattered in single blocks.
+         */
+        public double getFreeSpaceFragmentation() {
+            return freeBlocks == 0 ? 0 : 1 - (double) largestFreeRun / freeBlocks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d allocations (%d blocks, %d failed), %.0f ns avg, %d ns max; "
+                            + "%d free blocks in %d runs, largest %d, fragmentation %.2f",
+                    allocator, allocations, allocatedBlocks, failedAllocations, getAverageNanos(), maxNanos,
+                    freeBlocks, freeRuns, largestFreeRun, getFreeSpaceFragmentation());
+        }
+    }
+}
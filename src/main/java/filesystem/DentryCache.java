@@ -0,0 +1,102 @@
+package filesystem;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of resolved paths: normalized path ("a/b/c") -> directory entry it names.
+ * Paths that do not exist are cached too (negative entries), so repeated misses do not walk the tree either.
+ * At most capacity paths are kept; the least recently used one is evicted first.
+ * <p>
+ * The cache knows nothing about the tree: whoever adds or removes a name invalidates its path.
+ * Lookups of many threads share it (even a hit reorders the LRU list), so its methods are synchronized.
+ */
+class DentryCache {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Returned by get() for a path known not to exist.
+     */
+    static final Directory.DirEntry NEGATIVE = new Directory.DirEntry("negative", -1, false);
+
+    private final int capacity;
+    private final LinkedHashMap<String, Directory.DirEntry> entries;
+
+    private long hits;
+    private long negativeHits;
+    private long misses;
+    private long evictions;
+
+    DentryCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity should be positive");
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Directory.DirEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Directory.DirEntry> eldest) {
+                if (size() <= DentryCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return entry the path names, NEGATIVE if it is known not to exist, null if the path is not cached.
+     */
+    synchronized Directory.DirEntry get(String path) {
+        Directory.DirEntry dirEntry = entries.get(path);
+        if (dirEntry == null) {
+            misses++;
+        } else if (dirEntry == NEGATIVE) {
+            negativeHits++;
+        } else {
+            hits++;
+        }
+        return dirEntry;
+    }
+
+    /**
+     * @param dirEntry entry the path names, null if it does not exist
+     */
+    synchronized void put(String path, Directory.DirEntry dirEntry) {
+        entries.put(path, dirEntry == null ? NEGATIVE : dirEntry);
+    }
+
+    synchronized void invalidate(String path) {
+        entries.remove(path);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getNegativeHits() {
+        return negativeHits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("dentry cache: %d of %d paths, %d hits, %d negative hits, %d misses, %d evictions",
+                entries.size(), capacity, hits, negativeHits, misses, evictions);
+    }
+}
@@ -1,33 +1,221 @@
 package filesystem;
 
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-public class Directory {
-    public final static int FILE_NAME_LENGTH = 4; // 4 char = (byte) 4 bytes
+/**
+ * Entries of one directory: files and subdirectories, each with its FD index.
+ * <p>
+ * Entries are kept densely in slots, in the order they are written to disk; removing an entry
+ * moves the last one into its slot. Names are indexed by an open-addressing hash table
+ * (linear probing, deletion by backward shift), so lookup, add and remove take O(1) at any size.
+ */
+public class Directory implements Iterable<Directory.DirEntry> {
+    /**
+     * Length of names in the legacy flat root directory (4 char = (byte) 4 bytes).
+     */
+    public final static int FILE_NAME_LENGTH = 4;
+    /**
+     * Longest name, in UTF-8 bytes.
+     */
+    public final static int MAX_NAME_LENGTH = 255;
 
-    class DirEntry {
-        String file_name;
-        int FDIndex;
+    static class DirEntry {
+        final String file_name;
+        final int FDIndex;
+        final boolean isDirectory;
 
-        public DirEntry(String file_name, int FDIndex) throws IllegalArgumentException {
-            if (file_name.length() != FILE_NAME_LENGTH)
-                throw new IllegalArgumentException("file_name.length() != " + FILE_NAME_LENGTH);
+        public DirEntry(String file_name, int FDIndex, boolean isDirectory) throws IllegalArgumentException {
+            if (!isValidName(file_name))
+                throw new IllegalArgumentException("invalid file name: " + file_name);
             this.file_name = file_name;
             this.FDIndex = FDIndex;
+            this.isDirectory = isDirectory;
         }
     }
 
-    LinkedList<DirEntry> entries;
+    private DirEntry[] slots;
+    private int size;
+    // slot index + 1 of the entry whose name hashes here, 0 for an empty cell; length is a power of two
+    private int[] table;
+    private final int capacity;
+    // entries changed since the directory was read from or written to disk
+    boolean modified;
 
-    Directory() {
-        entries = new LinkedList<>();
+    Directory(int capacity) {
+        this.capacity = capacity;
+        slots = new DirEntry[Math.min(capacity, 16)];
+        table = new int[tableLengthFor(slots.length)];
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return entry in slot #slot (0 .. size() - 1).
+     */
+    DirEntry get(int slot) {
+        if (slot < 0 || slot >= size) throw new IndexOutOfBoundsException("slot " + slot);
+        return slots[slot];
+    }
+
+    /**
+     * @return entry of the named file, null if there is no such file.
+     */
+    DirEntry get(String file_name) {
+        int cell = findCell(file_name);
+        return cell == -1 ? null : slots[table[cell] - 1];
+    }
+
+    /**
+     * @return FD index of the named file, -1 if there is no such file.
+     */
+    int getFDIndex(String file_name) {
+        DirEntry dirEntry = get(file_name);
+        return dirEntry == null ? -1 : dirEntry.FDIndex;
+    }
+
+    boolean contains(String file_name) {
+        return findCell(file_name) != -1;
     }
 
     public void addEntry(String file_name, int FDIndex) throws Exception {
-        if (file_name.length() != FILE_NAME_LENGTH)
-            throw new IllegalArgumentException("file_name.length != " + FILE_NAME_LENGTH);
-        if (entries.size() == FileSystem.NUMBER_OF_FILE_DESCRIPTORS - 1)
+        addEntry(file_name, FDIndex, false);
+    }
+
+    public void addEntry(String file_name, int FDIndex, boolean isDirectory) throws Exception {
+        if (!isValidName(file_name))
+            throw new IllegalArgumentException("invalid file name: " + file_name);
+        if (size == capacity)
             throw new Exception("Directory is full");
-        entries.add(new DirEntry(file_name, FDIndex));
+        if (contains(file_name))
+            throw new IllegalArgumentException("file " + file_name + " already exists");
+
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, Math.min(capacity, slots.length * 2));
+            rehash(tableLengthFor(slots.length));
+        }
+        slots[size] = new DirEntry(file_name, FDIndex, isDirectory);
+        table[emptyCell(file_name)] = ++size;
+        modified = true;
+    }
+
+    /**
+     * Removes the named file; the last entry takes its slot.
+     *
+     * @return FD index of the removed file, -1 if there is no such file.
+     */
+    int removeEntry(String file_name) {
+        int cell = findCell(file_name);
+        if (cell == -1) return -1;
+        int slot = table[cell] - 1;
+        int FDIndex = slots[slot].FDIndex;
+        deleteCell(cell);
+
+        int last = --size;
+        if (slot != last) {
+            table[findCell(slots[last].file_name)] = slot + 1;
+            slots[slot] = slots[last];
+        }
+        slots[last] = null;
+        modified = true;
+        return FDIndex;
+    }
+
+    void clear() {
+        Arrays.fill(slots, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+        modified = true;
+    }
+
+    /**
+     * A name is 1 .. MAX_NAME_LENGTH UTF-8 bytes without '/' and '\0', other than "." and "..".
+     */
+    static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..")) return false;
+        if (name.indexOf('/') != -1 || name.indexOf('\0') != -1) return false;
+        return name.getBytes(StandardCharsets.UTF_8).length <= MAX_NAME_LENGTH;
+    }
+
+    @Override
+    public Iterator<DirEntry> iterator() {
+        return new Iterator<DirEntry>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public DirEntry next() {
+                if (next >= size) throw new NoSuchElementException();
+                return slots[next++];
+            }
+        };
+    }
+
+    //*******************************************************************************************************/
+
+    /**
+     * @return table length for up to entries entries, kept at most half full.
+     */
+    private static int tableLengthFor(int entries) {
+        return Integer.highestOneBit(Math.max(entries, 2) * 2 - 1) * 2;
+    }
+
+    private int home(String file_name) {
+        int hash = file_name.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (table.length - 1);
+    }
+
+    /**
+     * @return cell indexing the named file, -1 if there is none.
+     */
+    private int findCell(String file_name) {
+        int mask = table.length - 1;
+        for (int cell = home(file_name); table[cell] != 0; cell = (cell + 1) & mask) {
+            if (slots[table[cell] - 1].file_name.equals(file_name)) return cell;
+        }
+        return -1;
+    }
+
+    private int emptyCell(String file_name) {
+        int mask = table.length - 1;
+        int cell = home(file_name);
+        while (table[cell] != 0) cell = (cell + 1) & mask;
+        return cell;
+    }
+
+    /**
+     * Empties the cell and shifts back later cells of the probe run, so no tombstones are needed.
+     */
+    private void deleteCell(int cell) {
+        int mask = table.length - 1;
+        int hole = cell;
+        for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = home(slots[table[next] - 1].file_name);
+            // the entry may fill the hole if its home is not in the (hole, next] part of the run
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void rehash(int tableLength) {
+        table = new int[tableLength];
+        for (int slot = 0; slot < size; slot++) {
+            table[emptyCell(slots[slot].file_name)] = slot + 1;
+        }
     }
 }
@@ -0,0 +1,100 @@
+package filesystem;
+
+/**
+ * Placement of the file system metadata on a disk of L blocks of B bytes:
+ * <pre>
+ *   [superblock][bitmap][file descriptors][directory][data blocks ...]
+ * </pre>
+ * The superblock (see FileSystem) describes this layout; images written before it existed, and disks with
+ * blocks too short for it, start with the bitmap.
+ * Bitmap holds 1 bit per block, every file descriptor takes 16 bytes (4 ints),
+ * the root directory (file #0) starts in FileDescriptor.NUMBER_OF_SLOTS reserved blocks and grows into
+ * data blocks like any file; legacy images keep a flat root there, 8 bytes per entry.
+ * For the default disk (64 blocks of 64 bytes, 16 descriptors) this is
+ * block 0 - superblock, block 1 - bitmap, blocks 2-5 - descriptors, blocks 6-8 - directory.
+ */
+class DiskLayout {
+    static final int FILE_DESCRIPTOR_LENGTH_IN_BYTES = 16;
+    static final int DIRECTORY_ENTRY_LENGTH_IN_BYTES = Directory.FILE_NAME_LENGTH + 4;
+    static final int SUPERBLOCK_LENGTH_IN_BYTES = 64;
+
+    final int numberOfBlocks;
+    final int blockLengthInBytes;
+    final int numberOfFileDescriptors;
+
+    final boolean hasSuperblock;
+    final int bitmapStart;
+    final int bitmapBlocks;
+    final int fileDescriptorsStart;
+    final int fileDescriptorsBlocks;
+    final int fileDescriptorsInOneBlock;
+    final int directoryStart;
+    final int directoryBlocks;
+    final int directoryEntriesInOneBlock;
+    final int firstDataBlock;
+
+    /**
+     * Layout of a new file system: with a superblock if a block can hold it.
+     */
+    DiskLayout(int numberOfBlocks, int blockLengthInBytes, int numberOfFileDescriptors) {
+        this(numberOfBlocks, blockLengthInBytes, numberOfFileDescriptors, blockLengthInBytes >= SUPERBLOCK_LENGTH_IN_BYTES);
+    }
+
+    DiskLayout(int numberOfBlocks, int blockLengthInBytes, int numberOfFileDescriptors, boolean hasSuperblock) {
+        if (blockLengthInBytes < FILE_DESCRIPTOR_LENGTH_IN_BYTES || blockLengthInBytes % FILE_DESCRIPTOR_LENGTH_IN_BYTES != 0)
+            throw new IllegalArgumentException("block length should be a multiple of " + FILE_DESCRIPTOR_LENGTH_IN_BYTES);
+        if (numberOfFileDescriptors < 2)
+            throw new IllegalArgumentException("at least 2 file descriptors are needed (directory + 1 file)");
+
+        this.numberOfBlocks = numberOfBlocks;
+        this.blockLengthInBytes = blockLengthInBytes;
+        this.numberOfFileDescriptors = numberOfFileDescriptors;
+        if (hasSuperblock && blockLengthInBytes < SUPERBLOCK_LENGTH_IN_BYTES)
+            throw new IllegalArgumentException("blocks of " + blockLengthInBytes + " bytes cannot hold the superblock");
+        this.hasSuperblock = hasSuperblock;
+
+        bitmapStart = hasSuperblock ? 1 : 0;
+        bitmapBlocks = divideRoundingUp(numberOfBlocks, 8 * blockLengthInBytes);
+
+        fileDescriptorsStart = bitmapStart + bitmapBlocks;
+        fileDescriptorsInOneBlock = blockLengthInBytes / FILE_DESCRIPTOR_LENGTH_IN_BYTES;
+        fileDescriptorsBlocks = divideRoundingUp(numberOfFileDescriptors, fileDescriptorsInOneBlock);
+
+        directoryStart = fileDescriptorsStart + fileDescriptorsBlocks;
+        directoryBlocks = FileDescriptor.NUMBER_OF_SLOTS;
+        directoryEntriesInOneBlock = blockLengthInBytes / DIRECTORY_ENTRY_LENGTH_IN_BYTES;
+
+        firstDataBlock = directoryStart + directoryBlocks;
+        if (firstDataBlock >= numberOfBlocks)
+            throw new IllegalArgumentException("disk of " + numberOfBlocks + " blocks is too small for the metadata");
+    }
+
+    /**
+     * Directories are files and grow as needed, so a directory is only limited by the descriptors
+     * (one of them is the root).
+     */
+    int getMaxNumberOfDirectoryEntries() {
+        return numberOfFileDescriptors - 1;
+    }
+
+    /**
+     * @return number of block numbers one index block holds.
+     */
+    int getPointersInBlock() {
+        return blockLengthInBytes / 4;
+    }
+
+    /**
+     * Files are limited by what the descriptor slots can map through the indirect blocks,
+     * and by the int file length.
+     */
+    int getMaxFileLength() {
+        long maxNumberOfBlocks = Math.min(FileDescriptor.getMaxNumberOfBlocks(getPointersInBlock()),
+                Integer.MAX_VALUE / blockLengthInBytes);
+        return (int) maxNumberOfBlocks * blockLengthInBytes;
+    }
+
+    private static int divideRoundingUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -1,20 +1,112 @@
 package filesystem;
 
+import java.util.Arrays;
+
+/**
+ * On disk a descriptor is the file length followed by NUMBER_OF_SLOTS block numbers.
+ * A file of at most NUMBER_OF_SLOTS blocks (every file of the original format) keeps all of them in the slots.
+ * A longer file keeps block #0 in slot 0, slot 1 points to a single indirect block with the numbers of
+ * the next P = B / 4 blocks, and slot 2 points to a double indirect block with the numbers of up to P
+ * indirect blocks of P blocks each.
+ * <p>
+ * In memory the whole map is kept in blockNumbers, so offset-to-block translation is one array access;
+ * the index blocks the map occupies on disk are kept in indexBlocks: single indirect, double indirect,
+ * then the indirect blocks under it.
+ */
 class FileDescriptor {
+    public static final int NUMBER_OF_SLOTS = 3;
+
     int fileLengthInBytes;
-    int[] blockNumbers;
-    public static final int MAX_NUMBER_OF_BLOCKS = 3;
+    // last blocks counted in fileLengthInBytes that are written but have no disk block yet (delayed allocation)
+    int delayedBlocks;
+    private int[] blockNumbers;
+    private int numberOfBlocks;
+    private int[] indexBlocks;
+    private int numberOfIndexBlocks;
 
     /**
      * Create FD for a new empty file (length = 0)
      */
     FileDescriptor() {
         fileLengthInBytes = 0;
-        blockNumbers = new int[]{-1, -1, -1};
+        blockNumbers = new int[NUMBER_OF_SLOTS];
+        indexBlocks = new int[0];
     }
 
-    FileDescriptor(int fileLengthInBytes, int[] blockNumbers) {
+    /**
+     * @param blockNumbers disk blocks of the file, in file order
+     * @param indexBlocks  index blocks that map them on disk (empty for at most NUMBER_OF_SLOTS blocks)
+     */
+    FileDescriptor(int fileLengthInBytes, int[] blockNumbers, int[] indexBlocks) {
         this.fileLengthInBytes = fileLengthInBytes;
-        this.blockNumbers = blockNumbers;
+        this.blockNumbers = blockNumbers.clone();
+        this.indexBlocks = indexBlocks.clone();
+        numberOfBlocks = blockNumbers.length;
+        numberOfIndexBlocks = indexBlocks.length;
+    }
+
+    int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    /**
+     * @return disk block holding file block #fileBlock, -1 if the file has no such block.
+     */
+    int getBlock(int fileBlock) {
+        return fileBlock < numberOfBlocks ? blockNumbers[fileBlock] : -1;
+    }
+
+    /**
+     * @return disk blocks of file blocks first .. first + count - 1.
+     */
+    int[] getBlocks(int first, int count) {
+        return Arrays.copyOfRange(blockNumbers, first, first + count);
+    }
+
+    /**
+     * Appends a block to the file; the index blocks it needs (see getNumberOfIndexBlocks) should be added first.
+     */
+    void addBlock(int diskBlock) {
+        if (numberOfBlocks == blockNumbers.length) {
+            blockNumbers = Arrays.copyOf(blockNumbers, Math.max(NUMBER_OF_SLOTS, blockNumbers.length * 2));
+        }
+        blockNumbers[numberOfBlocks++] = diskBlock;
+    }
+
+    int getNumberOfIndexBlocks() {
+        return numberOfIndexBlocks;
+    }
+
+    int[] getIndexBlocks() {
+        return Arrays.copyOf(indexBlocks, numberOfIndexBlocks);
+    }
+
+    void addIndexBlock(int diskBlock) {
+        if (numberOfIndexBlocks == indexBlocks.length) {
+            indexBlocks = Arrays.copyOf(indexBlocks, Math.max(4, indexBlocks.length * 2));
+        }
+        indexBlocks[numberOfIndexBlocks++] = diskBlock;
+    }
+
+    boolean isIndirect() {
+        return numberOfBlocks > NUMBER_OF_SLOTS;
+    }
+
+    /**
+     * @param pointersInBlock number of block numbers one index block holds (B / 4)
+     * @return number of index blocks a file of numberOfBlocks blocks occupies.
+     */
+    static int getNumberOfIndexBlocks(int numberOfBlocks, int pointersInBlock) {
+        if (numberOfBlocks <= NUMBER_OF_SLOTS) return 0;
+        int doublyIndirectBlocks = numberOfBlocks - 1 - pointersInBlock;
+        if (doublyIndirectBlocks <= 0) return 1;
+        return 2 + (doublyIndirectBlocks + pointersInBlock - 1) / pointersInBlock;
+    }
+
+    /**
+     * @return the largest number of blocks the slots can map.
+     */
+    static long getMaxNumberOfBlocks(int pointersInBlock) {
+        return 1 + pointersInBlock + (long) pointersInBlock * pointersInBlock;
     }
 }
@@ -1,31 +1,101 @@
 package filesystem;
 
-import disk.LDisk;
+import disk.DiskImage;
 import iosystem.IOSystem;
 
 import java.io.*;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.BitSet;
-
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * File system over the blocks of an I/O system; safe for concurrent use.
+ * <p>
+ * Locks are taken in this order: directoryLock, then the lock of a file, then bitmapLock.
+ * <ul>
+ * <li>directoryLock - the directory tree and descriptor slots; path lookups (open included) share it,
+ * create, destroy and save hold it exclusively</li>
+ * <li>fileLocks[FD] - descriptor and open handle of file #FD; read, write, lseek, flush and pwrite change
+ * the cursor, buffers or blocks of the file, so they hold it exclusively, pread and queries share it</li>
+ * <li>bitmapLock - bitmap, free block counters and the allocator</li>
+ * <li>descriptorsLock - loading of descriptor blocks, taken last</li>
+ * </ul>
+ * Operations on different files only meet at the bitmap lock, for as long as blocks are reserved or allocated.
+ * <p>
+ * Once the file system is saved to or restored from an image, its metadata changes are journaled in the image
+ * name + JOURNAL_SUFFIX until the next save (see MetadataJournal) and replayed when it is restored.
+ * An operation waits for its records to be durable after it has released its locks.
+ * <p>
+ * A restored file system reads its superblock and bitmap; descriptors are read a block at a time
+ * and directories as a whole when they are first used, so mounting does not depend on the number of files.
+ */
 public class FileSystem {
 
-    final static int NUMBER_OF_FILE_DESCRIPTORS = 16;
+    public final static int DEFAULT_NUMBER_OF_FILE_DESCRIPTORS = 16;
     public final static int STATUS_SUCCESS = 1;
     public final static int STATUS_ERROR = -3;
-    private final static int END_OF_FILE = 3 * IOSystem.getBlockLengthInBytes();
+
+    public final static String JOURNAL_SUFFIX = ".journal";
+
+    // first int of a directory file, "DIR1"
+    private final static int DIRECTORY_MAGIC = 0x44495231;
+    // first int of the superblock, "FSSB"; the first byte of a legacy bitmap always has its high bit set
+    private final static int SUPERBLOCK_MAGIC = 0x46535342;
+    private final static int SUPERBLOCK_VERSION = 1;
+    // slot of a descriptor whose block is not read yet
+    private final static FileDescriptor NOT_LOADED = new FileDescriptor();
 
     private IOSystem ioSystem;
+    private final DiskLayout layout;
+    private final int blockLengthInBytes;
+    private final int endOfFile;
 
     OpenFileTable OFT;
+    private final ReadWriteLock directoryLock = new ReentrantReadWriteLock();
+    private ReadWriteLock[] fileLocks;
+    private final Lock bitmapLock = new ReentrantLock();
     private BitSet bitmap;
-    private Directory directory;
-    private FileDescriptor[] fileDescriptors;
+    // clear bits of the data area
+    private int freeBlocks;
+    // free blocks promised to the delayed blocks of open files (index blocks included)
+    private int reservedBlocks;
+    private BlockAllocator allocator;
+    // directories read so far by FD index, the root (file #0) included
+    private Map<Integer, Directory> directories;
+    private volatile DentryCache dentryCache;
+    // null for a free descriptor, NOT_LOADED until the block of the descriptor is read
+    private AtomicReferenceArray<FileDescriptor> fileDescriptors;
+    private final Lock descriptorsLock = new ReentrantLock();
+    // guarded by directoryLock; no free descriptor has an index below firstFreeDescriptor
+    private int freeFileDescriptors;
+    private int firstFreeDescriptor;
+    // null until the file system is saved or restored
+    private volatile MetadataJournal journal;
 
 
     public FileSystem(IOSystem ioSystem) {
+        this(ioSystem, DEFAULT_NUMBER_OF_FILE_DESCRIPTORS);
+    }
+
+    /**
+     * Creates an empty file system; the metadata layout is computed from the disk geometry
+     * of ioSystem and the number of file descriptors.
+     */
+    public FileSystem(IOSystem ioSystem, int numberOfFileDescriptors) {
         if (ioSystem == null) throw new IllegalArgumentException("IOSystem should NOT be NULL");
         this.ioSystem = ioSystem;
+        layout = new DiskLayout(ioSystem.getNumberOfBlocks(), ioSystem.getBlockLengthInBytes(), numberOfFileDescriptors);
+        blockLengthInBytes = layout.blockLengthInBytes;
+        endOfFile = layout.getMaxFileLength();
 
         initBasicStructures();
 
@@ -33,157 +103,282 @@ public class FileSystem {
     }
 
     public FileSystem(IOSystem ioSystem, String fileName) {
+        this(ioSystem, fileName, DEFAULT_NUMBER_OF_FILE_DESCRIPTORS);
+    }
+
+    /**
+     * Restores a file system saved to fileName. Its superblock gives the layout; images saved before
+     * there was one need numberOfFileDescriptors to be the same as when they were created.
+     */
+    public FileSystem(IOSystem ioSystem, String fileName, int numberOfFileDescriptors) {
         if (ioSystem == null) throw new IllegalArgumentException("IOSystem should NOT be NULL");
         this.ioSystem = ioSystem;
+        initDiskFromFile(fileName);
+        Superblock superblock = readSuperblock();
+        layout = readLayout(superblock, numberOfFileDescriptors);
+        blockLengthInBytes = layout.blockLengthInBytes;
+        endOfFile = layout.getMaxFileLength();
 
         initBasicStructures();
 
-        initFileSystemFromFile(fileName);
+        initFileSystemFromDisk(superblock);
+        checkFreeBlocks(superblock);
+        replayJournal(fileName);
     }
 
 
     private void initBasicStructures() {
+        allocator = new GoalDirectedAllocator(ioSystem.getGeometry().getNumOfBlocksInOneCylinder());
+        // I/O statistics tell metadata from data blocks by the layout
+        ioSystem.getStatistics().setFirstDataBlock(layout.firstDataBlock);
 
         // create open file table
-        OFT = new OpenFileTable();
-        OFT.entries[0] = new OpenFileTable.OFTEntry();
+        OFT = new OpenFileTable(layout.numberOfFileDescriptors);
+        OFT.entries[0] = new OpenFileTable.OFTEntry(blockLengthInBytes);
 
         // add first file (directory) as open file to OFT
         OFT.entries[0].FDIndex = 0;
 
-        // create bitmap, set 1 bit for it + 4 for file descriptors + 3 for directory
-        bitmap = new BitSet(64);
-        bitmap.set(0, 8, true);
+        // create bitmap, set bits for itself + file descriptors + directory
+        bitmap = new BitSet(layout.numberOfBlocks);
+        bitmap.set(0, layout.firstDataBlock, true);
+        freeBlocks = layout.numberOfBlocks - layout.firstDataBlock;
 
         // create file descriptors and directory
-        fileDescriptors = new FileDescriptor[NUMBER_OF_FILE_DESCRIPTORS];
-        directory = new Directory();
+        fileDescriptors = new AtomicReferenceArray<>(layout.numberOfFileDescriptors);
+        fileLocks = new ReadWriteLock[layout.numberOfFileDescriptors];
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new ReentrantReadWriteLock();
+        }
+        directories = new ConcurrentHashMap<>();
+        dentryCache = new DentryCache(DentryCache.DEFAULT_CAPACITY);
     }
 
     private void initEmptyDisk() {
-        int fdsPerBlock = 16 * NUMBER_OF_FILE_DESCRIPTORS / IOSystem.getBlockLengthInBytes();
         // init directory
-        fileDescriptors[0] = new FileDescriptor(0, new int[]{fdsPerBlock + 1, fdsPerBlock + 2, fdsPerBlock + 3});
+        int[] directoryBlocks = new int[layout.directoryBlocks];
+        for (int i = 0; i < directoryBlocks.length; i++) {
+            directoryBlocks[i] = layout.directoryStart + i;
+        }
+        fileDescriptors.set(0, new FileDescriptor(0, directoryBlocks, new int[0]));
+        freeFileDescriptors = layout.numberOfFileDescriptors - 1;
+        directories.put(0, new Directory(layout.getMaxNumberOfDirectoryEntries()));
     }
 
     //*******************************************************************************************************/
 
     /**
-     * Creates a new file with the specified name.
+     * Creates a new file with the specified path ("name" in the root directory, or "dir/.../name").
      *
-     * @param symbolicFileName name of the file to be created.
+     * @param symbolicFileName path of the file to be created.
      * @return int              status.
      */
     public int create(final String symbolicFileName) {
-        if (symbolicFileName.length() != Directory.FILE_NAME_LENGTH) {
-            return STATUS_ERROR;
-        } else if (directory.entries.size() == FileSystem.NUMBER_OF_FILE_DESCRIPTORS - 1) {
+        return createEntry(symbolicFileName, false);
+    }
+
+    /**
+     * Creates a new empty directory with the specified path.
+     *
+     * @param path path of the directory to be created.
+     * @return int  status.
+     */
+    public int mkdir(String path) {
+        return createEntry(path, true);
+    }
+
+    private int createEntry(String path, boolean isDirectory) {
+        String[] names = splitPath(path);
+        if (names == null) {
             return STATUS_ERROR;
         }
 
-        int FDIndex = getFreeDescriptorIndex();
-        if (FDIndex == -1) {
-            return STATUS_ERROR;
+        long journalSequence;
+        directoryLock.writeLock().lock();
+        try {
+            journalSequence = createEntry(names, isDirectory);
+        } finally {
+            directoryLock.writeLock().unlock();
         }
+        return journalSequence == -1 ? STATUS_ERROR : awaitJournal(journalSequence, STATUS_SUCCESS);
+    }
 
-        boolean doFileExist = false;
-        for (Directory.DirEntry dirEntry : directory.entries) {
-            if (dirEntry.file_name.equals(symbolicFileName)) doFileExist = true;
+    /**
+     * @return sequence number of its journal record (0 if there is no journal), -1 if it could not be created.
+     */
+    private long createEntry(String[] names, boolean isDirectory) {
+        Directory parent = getParentDirectory(names);
+        String name = names[names.length - 1];
+        if (parent == null || parent.size() == parent.getCapacity() || parent.contains(name)) {
+            return -1;
         }
-        if (doFileExist) {
-            return STATUS_ERROR;
+
+        int FDIndex = getFreeDescriptorIndex();
+        if (FDIndex == -1) {
+            return -1;
         }
 
         try {
-            directory.addEntry(symbolicFileName, FDIndex);
+            parent.addEntry(name, FDIndex, isDirectory);
         } catch (Exception e) {
             e.printStackTrace();
+            return -1;
+        }
+        setFileDescriptor(FDIndex, new FileDescriptor());
+        freeFileDescriptors--;
+        if (isDirectory) {
+            Directory newDirectory = new Directory(layout.getMaxNumberOfDirectoryEntries());
+            newDirectory.modified = true;
+            directories.put(FDIndex, newDirectory);
         }
-        fileDescriptors[FDIndex] = new FileDescriptor();
+        dentryCache.invalidate(joinPath(names, names.length));
 
-        return STATUS_SUCCESS;
+        MetadataJournal journal = this.journal;
+        return journal == null ? 0 : journal.logCreate(getParentFDIndex(names), name, FDIndex, isDirectory);
     }
 
     /**
-     * Destroys the named file.
+     * Destroys the named file or empty directory.
      *
-     * @param symbolicFileName name of the file to be destroyed.
+     * @param symbolicFileName path of the file to be destroyed.
      * @return int              status.
      */
     public int destroy(String symbolicFileName) {
-        int FDIndex = getFileDescriptorIndex(symbolicFileName);
-        if (FDIndex == -1) {
+        String[] names = splitPath(symbolicFileName);
+        if (names == null) {
             return STATUS_ERROR;
         }
 
-        // close file if it is open
-        int OFTEntryIndex = getOFTEntryIndex(FDIndex);
-        if (OFTEntryIndex != -1) {
-            close(OFTEntryIndex);
+        long journalSequence;
+        directoryLock.writeLock().lock();
+        try {
+            journalSequence = destroy(names);
+        } finally {
+            directoryLock.writeLock().unlock();
+        }
+        return journalSequence == -1 ? STATUS_ERROR : awaitJournal(journalSequence, STATUS_SUCCESS);
+    }
+
+    /**
+     * @return sequence number of its journal record (0 if there is no journal), -1 if it could not be destroyed.
+     */
+    private long destroy(String[] names) {
+        Directory.DirEntry dirEntry = lookup(names, names.length);
+        if (dirEntry == null) {
+            return -1;
+        }
+        int FDIndex = dirEntry.FDIndex;
+        if (dirEntry.isDirectory) {
+            if (getDirectory(dirEntry).size() > 0) {
+                return -1;
+            }
+            directories.remove(FDIndex);
         }
 
-        // clear file blocks on disk
-        int[] fileBlocks = fileDescriptors[FDIndex].blockNumbers;
-        for (int block : fileBlocks) {
-            if (block != -1) {
+        // handles of the file go away with it, so nobody may use the file meanwhile
+        long journalSequence = 0;
+        Lock fileLock = fileLocks[FDIndex].writeLock();
+        fileLock.lock();
+        try {
+            // close file if it is open, its unwritten blocks are dropped rather than allocated
+            FileDescriptor fileDescriptor = getFileDescriptor(FDIndex);
+            int OFTEntryIndex = getOFTEntryIndex(FDIndex);
+            if (OFTEntryIndex != -1) {
+                discardDirtyBlocks(OFT.get(OFTEntryIndex), fileDescriptor);
+                close(OFTEntryIndex);
+            }
+
+            // clear file blocks on disk
+            byte[] emptyBlock = new byte[blockLengthInBytes];
+            for (int i = 0; i < fileDescriptor.getNumberOfBlocks(); i++) {
                 try {
-                    ioSystem.write_block(block, new byte[64]);
+                    ioSystem.write_block(fileDescriptor.getBlock(i), emptyBlock);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-                // clear bits of bitmap for now empty blocks
-                bitmap.set(block, false);
             }
-        }
 
-        // remove file from directory
-        int dirEntryIndex = getDirectoryEntryIndex(FDIndex);
-        directory.entries.remove(dirEntryIndex);
+            // the removal is journaled before its blocks can be allocated again: a BLOCKS record of another file
+            // taking them always follows it, so a replay never gives them to both files
+            MetadataJournal journal = this.journal;
+            if (journal != null) journalSequence = journal.logRemove(getParentFDIndex(names), names[names.length - 1], FDIndex);
+
+            // clear bits of bitmap for now empty blocks; index blocks only map the file, they are just freed
+            bitmapLock.lock();
+            try {
+                for (int i = 0; i < fileDescriptor.getNumberOfBlocks(); i++) {
+                    freeBlock(fileDescriptor.getBlock(i));
+                }
+                for (int block : fileDescriptor.getIndexBlocks()) {
+                    freeBlock(block);
+                }
+            } finally {
+                bitmapLock.unlock();
+            }
 
-        // clear file descriptor
-        fileDescriptors[FDIndex] = null;
+            // clear file descriptor
+            setFileDescriptor(FDIndex, null);
+            freeFileDescriptors++;
+            firstFreeDescriptor = Math.min(firstFreeDescriptor, FDIndex);
+        } finally {
+            fileLock.unlock();
+        }
 
-        return STATUS_SUCCESS;
+        // remove file from directory
+        getParentDirectory(names).removeEntry(names[names.length - 1]);
+        dentryCache.invalidate(joinPath(names, names.length));
+        return journalSequence;
     }
 
     /**
      * Opens the named file for reading and writing.
      *
-     * @param symbolicFileName name of the file to be opened.
+     * @param symbolicFileName path of the file to be opened.
      * @return int                  OFT index.
      */
     public int open(String symbolicFileName) {
+        // the file cannot be destroyed before its handle is in OFT
+        directoryLock.readLock().lock();
+        try {
+            int FDIndex = getFileDescriptorIndex(symbolicFileName);
+            if (FDIndex == -1) {
+                return STATUS_ERROR;
+            }
 
-        int FDIndex = getFileDescriptorIndex(symbolicFileName);
-        if (FDIndex == -1) {
-            return STATUS_ERROR;
+            Lock fileLock = fileLocks[FDIndex].writeLock();
+            fileLock.lock();
+            try {
+                return open(FDIndex);
+            } finally {
+                fileLock.unlock();
+            }
+        } finally {
+            directoryLock.readLock().unlock();
         }
+    }
 
+    private int open(int FDIndex) {
         if (getOFTEntryIndex(FDIndex) != -1) {
             System.out.println("File has been already opened.");
             return getOFTEntryIndex(FDIndex);
         }
 
-        int OFTEntryIndex = getFreeOFTEntryIndex();
+        OpenFileTable.OFTEntry OFTEntry = new OpenFileTable.OFTEntry(blockLengthInBytes);
+        OFTEntry.FDIndex = FDIndex;
+        OFTEntry.currentPosition = 0;
+
+        int OFTEntryIndex = OFT.add(OFTEntry);
         if (OFTEntryIndex == -1) {
             return STATUS_ERROR;
         }
 
-
-        OFT.entries[OFTEntryIndex] = new OpenFileTable.OFTEntry();
-        OFT.entries[OFTEntryIndex].FDIndex = FDIndex;
-        OFT.entries[OFTEntryIndex].currentPosition = 0;
-
         // if file is not empty - read first block of file to the buffer in OFT
-        if (fileDescriptors[FDIndex].fileLengthInBytes > 0) {
-            ByteBuffer temp = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
+        if (getFileDescriptor(FDIndex).fileLengthInBytes > 0) {
             try {
-                ioSystem.read_block(fileDescriptors[FDIndex].blockNumbers[0], temp);
-                OFT.entries[OFTEntryIndex].fileBlockInBuffer = 0;
+                loadBlock(OFTEntry, getFileDescriptor(FDIndex), 0);
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            OFT.entries[OFTEntryIndex].RWBuffer = temp.array();
         }
 
         return OFTEntryIndex;
@@ -201,31 +396,44 @@ public class FileSystem {
             return STATUS_ERROR;
         }
 
-        if (checkOFTIndex(OFTEntryIndex) == STATUS_ERROR) return STATUS_ERROR;
-
-        OpenFileTable.OFTEntry OFTEntry = OFT.entries[OFTEntryIndex];
-
-        if (fileDescriptors[OFTEntry.FDIndex].fileLengthInBytes > 0 && OFTEntry.bufferModified) {
-            // write buffer to disk
+        OpenFileTable.OFTEntry OFTEntry = lockHandle(OFTEntryIndex);
+        if (OFTEntry == null) return STATUS_ERROR;
+        try {
+            // allocate and write the blocks modified since the last flush
+            flushDirtyBlocks(OFTEntry, getFileDescriptor(OFTEntry.FDIndex));
 
-            FileDescriptor fileDescriptor = fileDescriptors[OFTEntry.FDIndex];
+            OFTEntry.readAhead.await();
+            OFT.remove(OFTEntryIndex);
+        } finally {
+            unlockHandle(OFTEntry);
+        }
+        // the blocks stay in the write-back cache: the journal and saves flush it
+        return awaitJournal(OFTEntry.journalSequence, STATUS_SUCCESS);
+    }
 
-            // determine current block by block in buffer
-            int currentFileBlock = OFTEntry.fileBlockInBuffer;
-            if (isPointedToByteAfterLastByte(OFTEntry.FDIndex)) {
-                currentFileBlock--;
+    /**
+     * Closes all open files and stops journaling: the committer thread of the journal ends and its file
+     * is closed. The file system should not be used afterwards; it is not saved.
+     */
+    public void close() {
+        directoryLock.writeLock().lock();
+        try {
+            for (int i = 1; i < OFT.getMaxNumberOfEntries(); i++) {
+                if (OFT.get(i) != null)
+                    close(i);
             }
-            int currentDiskBlock = fileDescriptor.blockNumbers[currentFileBlock];
+        } finally {
+            directoryLock.writeLock().unlock();
+        }
 
+        MetadataJournal journal = this.journal;
+        if (journal != null) {
             try {
-                ioSystem.write_block(currentDiskBlock, OFT.entries[OFTEntryIndex].RWBuffer);
-            } catch (Exception e) {
+                journal.close();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-
-        OFT.entries[OFTEntryIndex] = null;
-        return STATUS_SUCCESS;
     }
 
     /**
@@ -233,55 +441,84 @@ public class FileSystem {
      * Reading begins with the current position in the file.
      *
      * @param OFTEntryIndex index of file in OFT.
-     * @param memArea       starting main memory address.
+     * @param memArea       starting main memory address: bytes are stored from its current position
+     *                      (heap or direct buffer, its position is left unchanged).
      * @param count         number of bytes to be read.
      * @return int    number of bytes read.
      */
     public int read(int OFTEntryIndex, ByteBuffer memArea, int count) {
-        if (checkOFTIndex(OFTEntryIndex) == STATUS_ERROR || count < 0)
-            return STATUS_ERROR;
+        if (count < 0) return STATUS_ERROR;
 
-        if (count == 0) {
-            return 0;
+        OpenFileTable.OFTEntry OFTEntry = lockHandle(OFTEntryIndex);
+        if (OFTEntry == null) return STATUS_ERROR;
+        int readCount;
+        try {
+            readCount = count == 0 ? 0 : read(OFTEntry, memArea, count);
+        } finally {
+            unlockHandle(OFTEntry);
         }
+        return awaitJournal(OFTEntry.journalSequence, readCount);
+    }
 
-        OpenFileTable.OFTEntry OFTEntry = OFT.entries[OFTEntryIndex];
-        FileDescriptor fileDescriptor = fileDescriptors[OFTEntry.FDIndex];
+    private int read(OpenFileTable.OFTEntry OFTEntry, ByteBuffer memArea, int count) {
+        FileDescriptor fileDescriptor = getFileDescriptor(OFTEntry.FDIndex);
 
-        if (isPointedToByteAfterLastByte(OFTEntry.FDIndex) || fileDescriptor.fileLengthInBytes == 0) {
+        if (isPointedToByteAfterLastByte(OFTEntry) || fileDescriptor.fileLengthInBytes == 0) {
             return STATUS_ERROR;
         }
 
+        // stop at the end of file
+        int toRead = Math.min(Math.min(count, memArea.remaining()), fileDescriptor.fileLengthInBytes - OFTEntry.currentPosition);
+
         if (writeOldBuffer(OFTEntry, fileDescriptor) == STATUS_ERROR) return STATUS_ERROR;
 
+        // whole blocks are read straight from disk, so blocks written through this handle that they cover go there first;
+        // the buffer holds the current block now, every other modified block is in dirtyBlocks
+        if (toRead > 0) {
+            Integer dirtyBlock = OFTEntry.dirtyBlocks.higherKey(OFTEntry.currentPosition / blockLengthInBytes);
+            if (dirtyBlock != null && dirtyBlock <= (OFTEntry.currentPosition + toRead - 1) / blockLengthInBytes
+                    && flushDirtyBlocks(OFTEntry, fileDescriptor) == STATUS_ERROR) {
+                return STATUS_ERROR;
+            }
+        }
+
         // find current position inside RWBuffer
-        int currentBufferPosition = OFTEntry.currentPosition % IOSystem.getBlockLengthInBytes();
-        int currentMemoryPosition = 0;
+        int currentBufferPosition = OFTEntry.currentPosition % blockLengthInBytes;
+        int currentMemoryPosition = memArea.position();
 
         int readCount = 0;
 
-        // read count bytes starting at RWBuffer[currentBufferPosition] to memArea
-        for (int i = 0; i < count && i < memArea.array().length; i++) {
-            // if end of file -> return number of bytes read
-            if (OFTEntry.currentPosition == fileDescriptor.fileLengthInBytes) {
-                break;
-            } else {
-                // if end of block -> write buffer to the disk, then read next block to RWBuffer
-                if (currentBufferPosition == IOSystem.getBlockLengthInBytes()) {
-
-                    writeOldBuffer(OFTEntry, fileDescriptor);
-
-                    currentBufferPosition = 0;
+        // read toRead bytes starting at RWBuffer[currentBufferPosition] to memArea
+        ByteBuffer memory = memArea.duplicate();
+        while (readCount < toRead) {
+            // if end of block -> whole blocks go straight from disk to memArea,
+            // then write buffer to the disk and read next block to RWBuffer
+            if (currentBufferPosition == blockLengthInBytes) {
+                int wholeBlocks = (toRead - readCount) / blockLengthInBytes;
+                if (wholeBlocks > 0) {
+                    int bytesRead = readWholeBlocks(fileDescriptor, OFTEntry.currentPosition / blockLengthInBytes,
+                            wholeBlocks, memArea, currentMemoryPosition);
+                    OFTEntry.readAhead.skipTo(OFTEntry.currentPosition / blockLengthInBytes + wholeBlocks - 1);
+                    readCount += bytesRead;
+                    currentMemoryPosition += bytesRead;
+                    OFTEntry.currentPosition += bytesRead;
+                    if (readCount == toRead) break;
                 }
 
-                // read 1 byte to memory
-                memArea.put(currentMemoryPosition, OFTEntry.RWBuffer[currentBufferPosition]);
-                // update positions, readCount
-                readCount++;
-                currentBufferPosition++;
-                currentMemoryPosition++;
-                OFTEntry.currentPosition++;
+                writeOldBuffer(OFTEntry, fileDescriptor);
+
+                currentBufferPosition = 0;
             }
+
+            // copy the rest of the request that lies in this block at once
+            int chunk = Math.min(blockLengthInBytes - currentBufferPosition, toRead - readCount);
+            memory.position(currentMemoryPosition);
+            memory.put(OFTEntry.RWBuffer, currentBufferPosition, chunk);
+            // update positions, readCount
+            readCount += chunk;
+            currentBufferPosition += chunk;
+            currentMemoryPosition += chunk;
+            OFTEntry.currentPosition += chunk;
         }
 
         // OFTEntry.currentPosition - points to first byte after last accessed
@@ -298,58 +535,64 @@ public class FileSystem {
      * @return int    number of bytes written to file.
      */
     public int write(int OFTEntryIndex, byte[] memArea, int count) {
-        if (checkOFTIndex(OFTEntryIndex) == STATUS_ERROR || count < 0) return STATUS_ERROR;
+        if (count < 0) return STATUS_ERROR;
 
-        if (count == 0) {
-            return 0;
+        OpenFileTable.OFTEntry OFTEntry = lockHandle(OFTEntryIndex);
+        if (OFTEntry == null) return STATUS_ERROR;
+        int writtenCount;
+        try {
+            writtenCount = count == 0 ? 0 : write(OFTEntry, memArea, count);
+        } finally {
+            unlockHandle(OFTEntry);
         }
+        return awaitJournal(OFTEntry.journalSequence, writtenCount);
+    }
 
-        OpenFileTable.OFTEntry OFTEntry = OFT.entries[OFTEntryIndex];
-        FileDescriptor fileDescriptor = fileDescriptors[OFTEntry.FDIndex];
-
+    private int write(OpenFileTable.OFTEntry OFTEntry, byte[] memArea, int count) {
+        FileDescriptor fileDescriptor = getFileDescriptor(OFTEntry.FDIndex);
 
-        if (OFTEntry.currentPosition == END_OF_FILE) {
+        if (OFTEntry.currentPosition == endOfFile) {
             return 0;
         }
 
         if (writeOldBuffer(OFTEntry, fileDescriptor) == STATUS_ERROR) return STATUS_ERROR;
 
         // find current position inside RWBffer
-        int currentBufferPosition = OFTEntry.currentPosition % IOSystem.getBlockLengthInBytes();
+        int currentBufferPosition = OFTEntry.currentPosition % blockLengthInBytes;
         int currentMemoryPosition = 0;
 
         int writtenCount = 0;
 
         if (fileDescriptor.fileLengthInBytes == 0) {
-            int newBlock = getFreeDataBlockNumber();
+            if (!reserveBlock(fileDescriptor)) return STATUS_ERROR;
+            Arrays.fill(OFTEntry.RWBuffer, (byte) 0);
             OFTEntry.fileBlockInBuffer = 0;
-            fileDescriptor.blockNumbers[OFTEntry.fileBlockInBuffer] = newBlock;
-            fileDescriptor.fileLengthInBytes += IOSystem.getBlockLengthInBytes();
-            bitmap.set(newBlock, true);
         }
 
         // write count bytes from memArea to RWBuffer starting at currentBufferPosition
-        for (int i = 0; i < count && i < memArea.length; i++) {
+        int toWrite = Math.min(count, memArea.length);
+        while (writtenCount < toWrite) {
 
             // if end of buffer, check if we can load next block (allocate or read, but previously write that buffer to the disk)
-            if (currentBufferPosition == IOSystem.getBlockLengthInBytes()) {
-                if (OFTEntry.fileBlockInBuffer < 2) {
+            if (currentBufferPosition == blockLengthInBytes) {
+                if (OFTEntry.currentPosition < endOfFile) {
+                    if (writeOldBuffer(OFTEntry, fileDescriptor) == STATUS_ERROR) break;
                     currentBufferPosition = 0;
-                    writeOldBuffer(OFTEntry, fileDescriptor);
                 } else {
                     break;
                 }
             }
 
-            // write 1 byte to file
-            OFTEntry.RWBuffer[currentBufferPosition] = memArea[currentMemoryPosition];
+            // copy the part of the request that fits into this block at once
+            int chunk = Math.min(blockLengthInBytes - currentBufferPosition, toWrite - writtenCount);
+            System.arraycopy(memArea, currentMemoryPosition, OFTEntry.RWBuffer, currentBufferPosition, chunk);
             OFTEntry.bufferModified = true;
 
             // update positions, writtenCount
-            writtenCount++;
-            currentBufferPosition++;
-            currentMemoryPosition++;
-            OFTEntry.currentPosition++;
+            writtenCount += chunk;
+            currentBufferPosition += chunk;
+            currentMemoryPosition += chunk;
+            OFTEntry.currentPosition += chunk;
         }
 
         // OFTEntry.currentPosition - points to first byte after last accessed
@@ -371,371 +614,1454 @@ public class FileSystem {
      * @return int    status.
      */
     public int lseek(int OFTEntryIndex, int pos) {
-        if (checkOFTIndex(OFTEntryIndex) == STATUS_ERROR) return STATUS_ERROR;
-
-        FileDescriptor fileDescriptor = fileDescriptors[OFT.entries[OFTEntryIndex].FDIndex];
+        OpenFileTable.OFTEntry OFTEntry = lockHandle(OFTEntryIndex);
+        if (OFTEntry == null) return STATUS_ERROR;
+        try {
+            FileDescriptor fileDescriptor = getFileDescriptor(OFTEntry.FDIndex);
 
-        if (pos > fileDescriptor.fileLengthInBytes || pos < 0) {
-            return STATUS_ERROR;
-        }
+            if (pos > fileDescriptor.fileLengthInBytes || pos < 0) {
+                return STATUS_ERROR;
+            }
 
-        OFT.entries[OFTEntryIndex].currentPosition = pos;
+            OFTEntry.currentPosition = pos;
 
-        return STATUS_SUCCESS;
+            return STATUS_SUCCESS;
+        } finally {
+            unlockHandle(OFTEntry);
+        }
     }
 
     /**
-     * Lists the names of all files and their lengths.
+     * Allocates disk blocks for the data written to the specified file and writes it to disk;
+     * close and save do this as well.
+     *
+     * @param OFTEntryIndex index of file in OFT.
+     * @return int    status.
      */
-    public void directory() {
-        for (Directory.DirEntry dirEntry : directory.entries) {
-            String fileName = dirEntry.file_name;
-            int fileLength = fileDescriptors[dirEntry.FDIndex].fileLengthInBytes;
-
-            System.out.println(fileName + " " + fileLength);
+    public int flush(int OFTEntryIndex) {
+        OpenFileTable.OFTEntry OFTEntry = lockHandle(OFTEntryIndex);
+        if (OFTEntry == null) return STATUS_ERROR;
+        int status;
+        try {
+            status = flushDirtyBlocks(OFTEntry, getFileDescriptor(OFTEntry.FDIndex));
+        } finally {
+            unlockHandle(OFTEntry);
         }
+        return awaitJournal(OFTEntry.journalSequence, status);
     }
 
-    //*******************************************************************************************************/
+    /**
+     * Reads bytes of the specified file starting at offset into main memory, leaving the current position
+     * and buffers of the handle as they are; positional reads of one file run in parallel.
+     *
+     * @param OFTEntryIndex index of file in OFT.
+     * @param dst           bytes are stored from its current position up to its limit or the end of file
+     *                      (heap or direct buffer, its position is left unchanged).
+     * @param offset        number of bytes from the beginning of the file.
+     * @return int    number of bytes read.
+     */
+    public int pread(int OFTEntryIndex, ByteBuffer dst, int offset) {
+        OpenFileTable.OFTEntry OFTEntry = lockHandle(OFTEntryIndex, false);
+        if (OFTEntry == null) return STATUS_ERROR;
+        ReadWriteLock fileLock = fileLocks[OFTEntry.FDIndex];
+
+        if (OFTEntry.bufferModified || !OFTEntry.dirtyBlocks.isEmpty()) {
+            // data written through the handle goes to disk first, then the exclusive lock is downgraded
+            fileLock.readLock().unlock();
+            OpenFileTable.OFTEntry exclusive = lockHandle(OFTEntryIndex);
+            if (exclusive != OFTEntry) {
+                if (exclusive != null) unlockHandle(exclusive);
+                return STATUS_ERROR;
+            }
+            try {
+                if (flushDirtyBlocks(OFTEntry, getFileDescriptor(OFTEntry.FDIndex)) == STATUS_ERROR) return STATUS_ERROR;
+                fileLock.readLock().lock();
+            } finally {
+                unlockHandle(OFTEntry);
+            }
+        }
 
-    private int getFileDescriptorIndex(String fileName) {
-        for (Directory.DirEntry dirEntry : directory.entries) {
-            if (dirEntry.file_name.equals(fileName)) return dirEntry.FDIndex;
+        int readCount;
+        try {
+            readCount = readAt(getFileDescriptor(OFTEntry.FDIndex), dst, offset);
+        } finally {
+            fileLock.readLock().unlock();
         }
-        return -1;
+        return awaitJournal(OFTEntry.journalSequence, readCount);
     }
 
-    private int getDirectoryEntryIndex(int FDIndex) {
-        for (int i = 0; i < NUMBER_OF_FILE_DESCRIPTORS - 1; i++) {
-            if (directory.entries.get(i) != null && directory.entries.get(i).FDIndex == FDIndex) return i;
+    /**
+     * Writes bytes from main memory into the specified file starting at offset, leaving the current position
+     * of the handle as it is. The file grows if the bytes go past its end.
+     *
+     * @param OFTEntryIndex index of file in OFT.
+     * @param src           bytes from its current position up to its limit are written (its position is left unchanged).
+     * @param offset        number of bytes from the beginning of the file, at most its length.
+     * @return int    number of bytes written to file (fewer if the file or disk is full).
+     */
+    public int pwrite(int OFTEntryIndex, ByteBuffer src, int offset) {
+        OpenFileTable.OFTEntry OFTEntry = lockHandle(OFTEntryIndex);
+        if (OFTEntry == null) return STATUS_ERROR;
+        int writtenCount;
+        try {
+            writtenCount = pwrite(OFTEntry, src, offset);
+        } finally {
+            unlockHandle(OFTEntry);
         }
-        return -1;
+        return awaitJournal(OFTEntry.journalSequence, writtenCount);
     }
 
-    private int getOFTEntryIndex(int FDIndex) {
-        for (int i = 1; i < OFT.entries.length; i++) {
-            if (OFT.entries[i] != null && OFT.entries[i].FDIndex == FDIndex) return i;
+    private int pwrite(OpenFileTable.OFTEntry OFTEntry, ByteBuffer src, int offset) {
+        FileDescriptor fileDescriptor = getFileDescriptor(OFTEntry.FDIndex);
+        if (offset < 0 || offset > fileDescriptor.fileLengthInBytes) return STATUS_ERROR;
+
+        // blocks written through the handle go first, so they are not written back over these bytes later
+        if (flushDirtyBlocks(OFTEntry, fileDescriptor) == STATUS_ERROR) return STATUS_ERROR;
+
+        int oldNumberOfBlocks = fileDescriptor.getNumberOfBlocks();
+        int oldNumberOfIndexBlocks = fileDescriptor.getNumberOfIndexBlocks();
+        int writtenCount = writeAt(fileDescriptor, src, offset);
+        journalBlocks(OFTEntry, fileDescriptor, oldNumberOfBlocks, oldNumberOfIndexBlocks);
+        if (writtenCount <= 0) return writtenCount;
+
+        // copies of the written blocks the handle holds are stale now
+        int firstFileBlock = offset / blockLengthInBytes;
+        int lastFileBlock = (offset + writtenCount - 1) / blockLengthInBytes;
+        for (int fileBlock = firstFileBlock; fileBlock <= lastFileBlock; fileBlock++) {
+            OFTEntry.readAhead.invalidate(fileBlock);
         }
-        return -1;
+        // a handle of a file that was empty holds no block yet, it gets block #0 as open gives it
+        int bufferBlock = OFTEntry.fileBlockInBuffer == -1 ? 0 : OFTEntry.fileBlockInBuffer;
+        if (bufferBlock >= firstFileBlock && bufferBlock <= lastFileBlock) {
+            ioSystem.read_block(fileDescriptor.getBlock(bufferBlock), OFTEntry.RWBuffer, 0);
+            OFTEntry.fileBlockInBuffer = bufferBlock;
+        }
+        return writtenCount;
     }
 
-    private int getFreeDescriptorIndex() {
-        for (int i = 0; i < NUMBER_OF_FILE_DESCRIPTORS; i++) {
-            if (fileDescriptors[i] == null) return i;
+    /**
+     * Lists the names of all files in the root directory and their lengths.
+     */
+    public void directory() {
+        directoryLock.readLock().lock();
+        try {
+            listDirectory(getRootDirectory());
+        } finally {
+            directoryLock.readLock().unlock();
         }
-        return -1;
     }
 
-    private int getFreeOFTEntryIndex() {
-        for (int i = 1; i < 4; i++) {
-            if (OFT.entries[i] == null) return i;
+    /**
+     * Lists the names of all files in the directory with the specified path and their lengths;
+     * names of directories end with '/'.
+     *
+     * @return int status.
+     */
+    public int directory(String path) {
+        String[] names = splitPath(path);
+        if (names == null) {
+            return STATUS_ERROR;
         }
-        return -1;
-    }
 
-    private int getFreeDataBlockNumber() {
-        for (int i = 8; i < 64; i++) {
-            if (!bitmap.get(i)) {
-                return i;
+        directoryLock.readLock().lock();
+        try {
+            Directory listed = getDirectory(lookup(names, names.length));
+            if (listed == null) {
+                return STATUS_ERROR;
             }
+            listDirectory(listed);
+            return STATUS_SUCCESS;
+        } finally {
+            directoryLock.readLock().unlock();
         }
-        return -1;
     }
 
-    private int checkOFTIndex(int OFTEntryIndex) {
-        // if open returns STATUS_ERROR => file doesn't exist or it could not be opened
-        if (OFTEntryIndex == STATUS_ERROR) {
-            return STATUS_ERROR;
-        }
+    private void listDirectory(Directory listed) {
+        for (Directory.DirEntry dirEntry : listed) {
+            String fileName = dirEntry.isDirectory ? dirEntry.file_name + "/" : dirEntry.file_name;
+            int fileLength;
+            Lock fileLock = fileLocks[dirEntry.FDIndex].readLock();
+            fileLock.lock();
+            try {
+                fileLength = getFileDescriptor(dirEntry.FDIndex).fileLengthInBytes;
+            } finally {
+                fileLock.unlock();
+            }
 
-        if (OFTEntryIndex <= 0 || OFTEntryIndex >= OFT.entries.length || OFT.entries[OFTEntryIndex] == null) {
-            return STATUS_ERROR;
+            System.out.println(fileName + " " + fileLength);
         }
-        return STATUS_SUCCESS;
     }
 
-    private boolean isPointedToByteAfterLastByte(int FDIndex) {
-        int fileLength = fileDescriptors[FDIndex].fileLengthInBytes;
-        int position = OFT.entries[getOFTEntryIndex(FDIndex)].currentPosition;
-
-        boolean fileNotEmpty = (fileLength != 0);
-        boolean positionOutOfFile = (position == fileLength);
-        return (fileNotEmpty && positionOutOfFile);
+    /**
+     * @param maxNumberOfOpenFiles files that may be open at the same time (3 by default)
+     */
+    public void setMaxNumberOfOpenFiles(int maxNumberOfOpenFiles) {
+        OFT.setMaxNumberOfEntries(maxNumberOfOpenFiles + 1);
     }
 
-    //*******************************************************************************************************/
+    public int getMaxNumberOfOpenFiles() {
+        return OFT.getMaxNumberOfEntries() - 1;
+    }
 
-    private void initFileSystemFromFile(String fileName) {
-        initDiskFromFile(fileName);
-        initFileSystemFromDisk();
+    /**
+     * Replaces the dentry cache by an empty one that keeps up to capacity resolved paths.
+     */
+    public void setDentryCacheCapacity(int capacity) {
+        directoryLock.writeLock().lock();
+        try {
+            dentryCache = new DentryCache(capacity);
+        } finally {
+            directoryLock.writeLock().unlock();
+        }
     }
 
-    private void initDiskFromFile(String fileName) {
+    DentryCache getDentryCache() {
+        return dentryCache;
+    }
 
-        ObjectInputStream objectInputStream = null;
+    /**
+     * Replaces the policy that picks blocks for growing files (goal-directed by default).
+     */
+    public void setAllocator(BlockAllocator allocator) {
+        if (allocator == null) throw new IllegalArgumentException("allocator should NOT be NULL");
+        bitmapLock.lock();
         try {
-            objectInputStream = new ObjectInputStream(new FileInputStream(fileName));
-        } catch (IOException e) {
-            // gets here when errors with files
-            e.printStackTrace();
+            this.allocator = allocator;
+        } finally {
+            bitmapLock.unlock();
         }
+    }
 
+    public BlockAllocator getAllocator() {
+        bitmapLock.lock();
         try {
-            ioSystem.setLdisk((LDisk) objectInputStream.readObject());
-        } catch (ClassNotFoundException | IOException  e) {
-            e.printStackTrace();
+            return allocator;
+        } finally {
+            bitmapLock.unlock();
         }
     }
 
-    private void initFileSystemFromDisk() {
+    /**
+     * @return allocation counters and free space fragmentation of the data area.
+     */
+    public BlockAllocator.Statistics getAllocationStatistics() {
+        bitmapLock.lock();
         try {
-            initBitmapFromDisk();
-            initFileDescriptorsFromDisk();
-            initDirectoryFromDisk();
-        } catch (Exception e) {
-            e.printStackTrace();
+            return allocator.getStatistics(bitmap, layout.firstDataBlock, layout.numberOfBlocks);
+        } finally {
+            bitmapLock.unlock();
         }
     }
 
-    private void initBitmapFromDisk() throws Exception {
-        bitmap = new BitSet(64);
-
-        ByteBuffer block = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
-        ioSystem.read_block(0, block);
-        String string;
-
-        for (int i = 0; i < 2; i++) {
-            string = Integer.toBinaryString(block.getInt());
+    /**
+     * @return number of runs of adjacent disk blocks the named file is stored in (1 = contiguous), or STATUS_ERROR.
+     */
+    public int getNumberOfExtents(String symbolicFileName) {
+        directoryLock.readLock().lock();
+        try {
+            int FDIndex = getFileDescriptorIndex(symbolicFileName);
+            if (FDIndex == -1) return STATUS_ERROR;
 
-            for (int j = 0; j < string.length(); j++) {
-                if (string.charAt(j) == '1') bitmap.set(i * 32 + j, true);
+            Lock fileLock = fileLocks[FDIndex].readLock();
+            fileLock.lock();
+            try {
+                FileDescriptor fileDescriptor = getFileDescriptor(FDIndex);
+                int extents = 0;
+                for (int i = 0; i < fileDescriptor.getNumberOfBlocks(); i++) {
+                    if (i == 0 || fileDescriptor.getBlock(i) != fileDescriptor.getBlock(i - 1) + 1) extents++;
+                }
+                return extents;
+            } finally {
+                fileLock.unlock();
             }
+        } finally {
+            directoryLock.readLock().unlock();
         }
-
     }
 
-    private void initFileDescriptorsFromDisk() throws Exception {
-        int numberOfFileDescriptorsInOneBlock = IOSystem.getBlockLengthInBytes() / 16;
-        int numberOfBlocksForFileDescriptors = NUMBER_OF_FILE_DESCRIPTORS * 16 / IOSystem.getBlockLengthInBytes();
+    //*******************************************************************************************************/
 
-        ByteBuffer block;
-        fileDescriptors = new FileDescriptor[NUMBER_OF_FILE_DESCRIPTORS];
-        int fileLengthInBytes;
-        int[] blockNumbers;
+    /**
+     * @return FD index of the regular file with the specified path, -1 if there is no such file.
+     */
+    private int getFileDescriptorIndex(String path) {
+        String[] names = splitPath(path);
+        Directory.DirEntry dirEntry = names == null ? null : lookup(names, names.length);
+        return dirEntry == null || dirEntry.isDirectory ? -1 : dirEntry.FDIndex;
+    }
 
-        for (int i = 0; i < numberOfBlocksForFileDescriptors; i++) {
-            block = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
-            ioSystem.read_block(i + 1, block);
-            for (int j = 0; j < numberOfFileDescriptorsInOneBlock; j++) {
-                fileLengthInBytes = block.getInt();
-                if (fileLengthInBytes == -1) {
-                    block.getInt();
-                    block.getInt();
-                    block.getInt();
-                } else {
-                    blockNumbers = new int[FileDescriptor.MAX_NUMBER_OF_BLOCKS];
-                    blockNumbers[0] = block.getInt();
-                    blockNumbers[1] = block.getInt();
-                    blockNumbers[2] = block.getInt();
-                    fileDescriptors[i * numberOfFileDescriptorsInOneBlock + j] = new FileDescriptor(fileLengthInBytes, blockNumbers);
-                }
-            }
+    /**
+     * Splits "a/b/c" (a leading '/' is allowed) into its names.
+     *
+     * @return the names, or null if the path has an empty or invalid name.
+     */
+    private static String[] splitPath(String path) {
+        if (path == null) return null;
+        String[] names = (path.startsWith("/") ? path.substring(1) : path).split("/", -1);
+        for (String name : names) {
+            if (!Directory.isValidName(name)) return null;
         }
+        return names;
     }
 
-    private void initDirectoryFromDisk() throws Exception {
-        ByteBuffer block;
-        StringBuilder fileName = new StringBuilder();
-        int FDIndex;
-        byte b;
-        int numberOfEntriesInOneBlock = IOSystem.getBlockLengthInBytes() / 8;
-        directory.entries.clear();
-
-        boolean reading = true;
-        for (int i = 0; i < FileDescriptor.MAX_NUMBER_OF_BLOCKS && reading; i++) {
-            block = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
-            ioSystem.read_block(5 + i, block);
-            for (int j = 0; j < numberOfEntriesInOneBlock; j++) {
-                b = block.get();
-                if (b == 0) {
-                    reading = false;
-                    break;
-                } else {
-                    fileName.delete(0, fileName.length());
-                    fileName.append((char) b);
-                    fileName.append((char) block.get());
-                    fileName.append((char) block.get());
-                    fileName.append((char) block.get());
-                    FDIndex = block.getInt();
-
-                    directory.addEntry(fileName.toString(), FDIndex);
-                }
-            }
+    private static String joinPath(String[] names, int length) {
+        StringBuilder path = new StringBuilder(names[0]);
+        for (int i = 1; i < length; i++) {
+            path.append('/').append(names[i]);
         }
+        return path.toString();
     }
 
-    //*******************************************************************************************************/
-
-    private int writeOldBuffer(OpenFileTable.OFTEntry OFTEntry, FileDescriptor fileDescriptor) {
+    /**
+     * Resolves the first length names of a path through the dentry cache; on a miss the parent is
+     * resolved the same way and looked up, and the result (found or not) is cached for every prefix.
+     *
+     * @return entry the path names, null if it does not exist.
+     */
+    private Directory.DirEntry lookup(String[] names, int length) {
+        String path = joinPath(names, length);
+        Directory.DirEntry dirEntry = dentryCache.get(path);
+        if (dirEntry != null) return dirEntry == DentryCache.NEGATIVE ? null : dirEntry;
+
+        Directory parent = length == 1 ? getRootDirectory() : getDirectory(lookup(names, length - 1));
+        dirEntry = parent == null ? null : parent.get(names[length - 1]);
+        dentryCache.put(path, dirEntry);
+        return dirEntry;
+    }
 
-        if (OFTEntry.fileBlockInBuffer == -1) return STATUS_SUCCESS;
-        // if buffer holds different block
-        if (OFTEntry.fileBlockInBuffer != (OFTEntry.currentPosition / IOSystem.getBlockLengthInBytes())) {
-            if (OFTEntry.bufferModified) {
-                int diskBlock = fileDescriptor.blockNumbers[OFTEntry.fileBlockInBuffer];
-                try {
-                    ioSystem.write_block(diskBlock, OFTEntry.RWBuffer);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+    /**
+     * @return directory holding the last name of the path, null if there is no such directory.
+     */
+    private Directory getParentDirectory(String[] names) {
+        return names.length == 1 ? getRootDirectory() : getDirectory(lookup(names, names.length - 1));
+    }
 
-            try {
-                int newFileBlock = OFTEntry.currentPosition / IOSystem.getBlockLengthInBytes();
-
-                if (fileDescriptor.blockNumbers[newFileBlock] == -1) {
-                    int newDiskBlock = getFreeDataBlockNumber();
-                    if (newDiskBlock == -1) {
-                        return STATUS_ERROR;
-                    }
-                    fileDescriptor.blockNumbers[newFileBlock] = newDiskBlock;
-                    fileDescriptor.fileLengthInBytes += IOSystem.getBlockLengthInBytes();
-                    bitmap.set(newDiskBlock, true);
-                }
+    /**
+     * @return file descriptor of the directory holding the last name of an existing path.
+     */
+    private int getParentFDIndex(String[] names) {
+        return names.length == 1 ? 0 : lookup(names, names.length - 1).FDIndex;
+    }
 
-                ByteBuffer temp = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
-                ioSystem.read_block(fileDescriptor.blockNumbers[newFileBlock], temp);
-                OFTEntry.RWBuffer = temp.array();
-                OFTEntry.bufferModified = false;
-                OFTEntry.fileBlockInBuffer = newFileBlock;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-        return STATUS_SUCCESS;
+    /**
+     * @return the directory dirEntry names, read from disk on first use; null if it is not a directory.
+     */
+    private Directory getDirectory(Directory.DirEntry dirEntry) {
+        if (dirEntry == null || !dirEntry.isDirectory) return null;
+        // lookups sharing directoryLock may get here at the same time, the directory is read once
+        return directories.computeIfAbsent(dirEntry.FDIndex, this::readDirectoryFile);
     }
 
-    //*******************************************************************************************************/
+    /**
+     * @return the root directory, read from disk on first use.
+     */
+    private Directory getRootDirectory() {
+        return directories.computeIfAbsent(0, this::readDirectoryFile);
+    }
 
-    public void saveFileSystemToFile(String fileName) {
-        saveFileSystemToDisk();
-        saveDiskToFile(fileName);
+    private int getOFTEntryIndex(int FDIndex) {
+        return OFT.getIndex(FDIndex);
     }
 
-    private void saveFileSystemToDisk() {
-        // close all open files except for directory
-        for (int i = 1; i < OFT.entries.length; i++) {
-            if (OFT.entries[i] != null)
-                close(i);
+    private int getFreeDescriptorIndex() {
+        if (freeFileDescriptors == 0) return -1;
+        for (int i = firstFreeDescriptor; i < layout.numberOfFileDescriptors; i++) {
+            if (getFileDescriptor(i) == null) {
+                firstFreeDescriptor = i;
+                return i;
+            }
         }
+        return -1;
+    }
+
+    /**
+     * @return descriptor of file #FDIndex, null if it is free; the block holding it is read on first use.
+     */
+    private FileDescriptor getFileDescriptor(int FDIndex) {
+        FileDescriptor fileDescriptor = fileDescriptors.get(FDIndex);
+        return fileDescriptor == NOT_LOADED ? loadFileDescriptors(FDIndex) : fileDescriptor;
+    }
 
+    private void setFileDescriptor(int FDIndex, FileDescriptor fileDescriptor) {
+        // the rest of its block is read first, a slot is never NOT_LOADED again once it is set
+        getFileDescriptor(FDIndex);
+        fileDescriptors.set(FDIndex, fileDescriptor);
+    }
+
+    /**
+     * Allocates a new last block of the file together with the index blocks needed to map it.
+     *
+     * @return the new disk block, or -1 if the disk is full (nothing is allocated then).
+     */
+    private int appendBlock(FileDescriptor fileDescriptor) {
+        int numberOfBlocks = fileDescriptor.getNumberOfBlocks() + 1;
+        int newIndexBlocks = FileDescriptor.getNumberOfIndexBlocks(numberOfBlocks, layout.getPointersInBlock())
+                - fileDescriptor.getNumberOfIndexBlocks();
+        if ((long) numberOfBlocks * blockLengthInBytes > endOfFile) return -1;
+
+        // every block goes right after the previous one if the allocator can manage it
+        int goal = fileDescriptor.getNumberOfBlocks() == 0 ? -1 : fileDescriptor.getBlock(fileDescriptor.getNumberOfBlocks() - 1);
+        int[] newBlocks = new int[newIndexBlocks + 1];
+        bitmapLock.lock();
         try {
-            writeBitmapToDisk();
-            writeFileDescriptorsToDisk();
-            writeDirectoryToDisk();
-        } catch (Exception e) {
-            e.printStackTrace();
+            for (int i = 0; i < newBlocks.length; i++) {
+                newBlocks[i] = allocator.allocate(bitmap, layout.firstDataBlock, layout.numberOfBlocks, goal);
+                if (newBlocks[i] == -1) {
+                    for (int j = 0; j < i; j++) bitmap.set(newBlocks[j], false);
+                    return -1;
+                }
+                goal = newBlocks[i];
+            }
+            freeBlocks -= newBlocks.length;
+        } finally {
+            bitmapLock.unlock();
+        }
+
+        for (int i = 0; i < newIndexBlocks; i++) {
+            fileDescriptor.addIndexBlock(newBlocks[i]);
         }
+        int newBlock = newBlocks[newIndexBlocks];
+        fileDescriptor.addBlock(newBlock);
+        fileDescriptor.fileLengthInBytes += blockLengthInBytes;
+        return newBlock;
     }
 
-    private void saveDiskToFile(String fileName) {
-        ObjectOutputStream objectOutputStream = null;
+    /**
+     * Locks the file open under handle #OFTEntryIndex exclusively, for an operation on the handle.
+     *
+     * @return its entry, or null if the handle is not open (nothing is locked then).
+     */
+    private OpenFileTable.OFTEntry lockHandle(int OFTEntryIndex) {
+        return lockHandle(OFTEntryIndex, true);
+    }
+
+    /**
+     * @param exclusive false to share the file with other operations that leave the handle as it is
+     */
+    private OpenFileTable.OFTEntry lockHandle(int OFTEntryIndex, boolean exclusive) {
+        // if open returns STATUS_ERROR => file doesn't exist or it could not be opened
+        if (OFTEntryIndex == STATUS_ERROR) {
+            return null;
+        }
+
+        OpenFileTable.OFTEntry OFTEntry = OFT.get(OFTEntryIndex);
+        if (OFTEntry == null) {
+            return null;
+        }
+        Lock fileLock = exclusive ? fileLocks[OFTEntry.FDIndex].writeLock() : fileLocks[OFTEntry.FDIndex].readLock();
+        fileLock.lock();
+        // the handle may have been closed while we waited
+        if (OFT.get(OFTEntryIndex) != OFTEntry) {
+            fileLock.unlock();
+            return null;
+        }
+        return OFTEntry;
+    }
+
+    private void unlockHandle(OpenFileTable.OFTEntry OFTEntry) {
+        fileLocks[OFTEntry.FDIndex].writeLock().unlock();
+    }
+
+    private boolean isPointedToByteAfterLastByte(OpenFileTable.OFTEntry OFTEntry) {
+        int fileLength = getFileDescriptor(OFTEntry.FDIndex).fileLengthInBytes;
+        int position = OFTEntry.currentPosition;
+
+        boolean fileNotEmpty = (fileLength != 0);
+        boolean positionOutOfFile = (position == fileLength);
+        return (fileNotEmpty && positionOutOfFile);
+    }
+
+    //*******************************************************************************************************/
+
+    /**
+     * Applies the journal of the image fileName, if there is one, and goes on journaling into it.
+     */
+    private void replayJournal(String fileName) {
+        File file = new File(fileName + JOURNAL_SUFFIX);
         try {
-            objectOutputStream = new ObjectOutputStream(new FileOutputStream(fileName));
+            JournalReplay replay = new JournalReplay();
+            if (MetadataJournal.replay(file, replay) > 0) {
+                replay.updateBitmap();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        journal = new MetadataJournal(file, ioSystem::flushCache);
+    }
+
+    /**
+     * Applies journal records to the metadata read from disk. They may be there already when a save was cut short,
+     * so each is applied only if it is not. Only the descriptors the records name are read.
+     */
+    private class JournalReplay implements MetadataJournal.Target {
+        // FDIndex -> descriptor as read from disk, before the first record that changes it
+        private final Map<Integer, FileDescriptor> savedDescriptors = new HashMap<>();
+
+        @Override
+        public void create(int parentFDIndex, String name, int FDIndex, boolean isDirectory) throws Exception {
+            Directory parent = getJournaledDirectory(parentFDIndex);
+            if (parent.contains(name)) return;
+            save(FDIndex);
+            parent.addEntry(name, FDIndex, isDirectory);
+            setFileDescriptor(FDIndex, new FileDescriptor());
+            if (isDirectory) {
+                Directory newDirectory = new Directory(layout.getMaxNumberOfDirectoryEntries());
+                newDirectory.modified = true;
+                directories.put(FDIndex, newDirectory);
+            }
+        }
+
+        @Override
+        public void remove(int parentFDIndex, String name, int FDIndex) {
+            Directory parent = getJournaledDirectory(parentFDIndex);
+            if (!parent.contains(name)) return;
+            save(FDIndex);
+            parent.removeEntry(name);
+            setFileDescriptor(FDIndex, null);
+            directories.remove(FDIndex);
+        }
+
+        @Override
+        public void blocks(int FDIndex, int firstBlock, int[] blocks, int firstIndexBlock, int[] indexBlocks) {
+            FileDescriptor fileDescriptor = getFileDescriptor(FDIndex);
+            if (fileDescriptor == null || fileDescriptor.getNumberOfBlocks() < firstBlock
+                    || fileDescriptor.getNumberOfIndexBlocks() < firstIndexBlock)
+                throw new IllegalStateException("journaled blocks of file #" + FDIndex + " do not follow its blocks");
+            save(FDIndex);
+
+            int[] blockNumbers = Arrays.copyOf(fileDescriptor.getBlocks(0, firstBlock), firstBlock + blocks.length);
+            System.arraycopy(blocks, 0, blockNumbers, firstBlock, blocks.length);
+            int[] allIndexBlocks = Arrays.copyOf(fileDescriptor.getIndexBlocks(), firstIndexBlock + indexBlocks.length);
+            System.arraycopy(indexBlocks, 0, allIndexBlocks, firstIndexBlock, indexBlocks.length);
+            setFileDescriptor(FDIndex, new FileDescriptor(blockNumbers.length * blockLengthInBytes, blockNumbers, allIndexBlocks));
+        }
+
+        private Directory getJournaledDirectory(int FDIndex) {
+            return directories.computeIfAbsent(FDIndex, FileSystem.this::readDirectoryFile);
+        }
+
+        private void save(int FDIndex) {
+            if (!savedDescriptors.containsKey(FDIndex)) savedDescriptors.put(FDIndex, getFileDescriptor(FDIndex));
+        }
+
+        /**
+         * The bitmap and the counts read from disk match the descriptors there (saves replace the image
+         * atomically), so only the blocks of the changed descriptors are freed and marked again.
+         */
+        void updateBitmap() {
+            for (FileDescriptor saved : savedDescriptors.values()) {
+                if (saved != null) setBlocks(saved, false);
+            }
+            for (Map.Entry<Integer, FileDescriptor> saved : savedDescriptors.entrySet()) {
+                FileDescriptor fileDescriptor = getFileDescriptor(saved.getKey());
+                if (fileDescriptor != null) setBlocks(fileDescriptor, true);
+                if (saved.getValue() == null && fileDescriptor != null) freeFileDescriptors--;
+                if (saved.getValue() != null && fileDescriptor == null) freeFileDescriptors++;
+            }
+            freeBlocks = layout.numberOfBlocks - bitmap.cardinality();
+            firstFreeDescriptor = 0;
+        }
+
+        private void setBlocks(FileDescriptor fileDescriptor, boolean used) {
+            for (int i = 0; i < fileDescriptor.getNumberOfBlocks(); i++) {
+                bitmap.set(fileDescriptor.getBlock(i), used);
+            }
+            for (int block : fileDescriptor.getIndexBlocks()) {
+                bitmap.set(block, used);
+            }
+        }
+    }
+
+    /**
+     * @return the metadata journal, null until the file system is saved or restored.
+     */
+    MetadataJournal getJournal() {
+        return journal;
+    }
 
+    /**
+     * Disk images are mapped in place (constant time, see IOSystem.mount);
+     * images saved by older versions as a serialized LDisk are still deserialized
+     * (DiskImage.convert rewrites them once as disk images).
+     */
+    private void initDiskFromFile(String fileName) {
         try {
-            objectOutputStream.writeObject(ioSystem.getLdisk());
+            File file = new File(fileName);
+            if (DiskImage.isSerialized(file)) {
+                ioSystem.setLdisk(DiskImage.readSerialized(file));
+            } else {
+                ioSystem.mount(fileName);
+            }
         } catch (IOException e) {
+            // gets here when errors with files
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Superblock (block 0): ints SUPERBLOCK_MAGIC, SUPERBLOCK_VERSION, L, B, number of file descriptors,
+     * start and length in blocks of the bitmap, descriptors and directory, first data block,
+     * free blocks and free file descriptors. Without it the layout is the legacy one for numberOfFileDescriptors.
+     */
+    private DiskLayout readLayout(Superblock superblock, int numberOfFileDescriptors) {
+        int numberOfBlocks = ioSystem.getNumberOfBlocks();
+        int blockLength = ioSystem.getBlockLengthInBytes();
+        if (superblock == null) return new DiskLayout(numberOfBlocks, blockLength, numberOfFileDescriptors, false);
+
+        if (superblock.version != SUPERBLOCK_VERSION)
+            throw new IllegalStateException("unknown file system version " + superblock.version);
+        if (superblock.numberOfBlocks != numberOfBlocks || superblock.blockLengthInBytes != blockLength)
+            throw new IllegalStateException("file system of " + superblock.numberOfBlocks + " blocks of "
+                    + superblock.blockLengthInBytes + " bytes is on a disk of " + numberOfBlocks + " blocks of "
+                    + blockLength + " bytes");
+        DiskLayout read = new DiskLayout(numberOfBlocks, blockLength, superblock.numberOfFileDescriptors, true);
+        int[] locations = {read.bitmapStart, read.bitmapBlocks, read.fileDescriptorsStart, read.fileDescriptorsBlocks,
+                read.directoryStart, read.directoryBlocks, read.firstDataBlock};
+        if (!Arrays.equals(superblock.locations, locations))
+            throw new IllegalStateException("superblock does not match the layout of the file system");
+        return read;
+    }
+
+    /**
+     * The superblock and the bitmap are saved together, so a different count of free blocks means
+     * one of them is damaged and blocks could be handed out twice.
+     */
+    private void checkFreeBlocks(Superblock superblock) {
+        if (superblock != null && superblock.freeBlocks != freeBlocks)
+            throw new IllegalStateException("superblock counts " + superblock.freeBlocks + " free blocks, the bitmap "
+                    + freeBlocks);
+    }
+
+    /**
+     * Fields of the superblock, in the order they are stored (see readLayout).
+     */
+    private static class Superblock {
+        final int version;
+        final int numberOfBlocks;
+        final int blockLengthInBytes;
+        final int numberOfFileDescriptors;
+        // bitmap, descriptors and directory start and length, first data block
+        final int[] locations = new int[7];
+        final int freeBlocks;
+        final int freeFileDescriptors;
+
+        Superblock(ByteBuffer block) {
+            block.position(4);
+            version = block.getInt();
+            numberOfBlocks = block.getInt();
+            blockLengthInBytes = block.getInt();
+            numberOfFileDescriptors = block.getInt();
+            for (int i = 0; i < locations.length; i++) {
+                locations[i] = block.getInt();
+            }
+            freeBlocks = block.getInt();
+            freeFileDescriptors = block.getInt();
+        }
+    }
+
+    /**
+     * @return block 0, null if it is not a superblock.
+     */
+    private Superblock readSuperblock() {
+        if (ioSystem.getBlockLengthInBytes() < DiskLayout.SUPERBLOCK_LENGTH_IN_BYTES) return null;
+        ByteBuffer block = ByteBuffer.allocate(ioSystem.getBlockLengthInBytes());
+        ioSystem.read_block(0, block);
+        return block.getInt(0) == SUPERBLOCK_MAGIC ? new Superblock(block) : null;
+    }
+
+    private void initFileSystemFromDisk(Superblock superblock) {
+        try {
+            initBitmapFromDisk();
+            initFileDescriptorsFromDisk(superblock);
+            initDirectoryFromDisk();
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private static byte[] binaryStringToBytes(String data) {
-        byte[] temp = new BigInteger(data, 2).toByteArray();
-        byte[] output = new byte[64];
-        for (int i = 0; i < 64; i++) {
-            output[i] = temp[i + 1];
+    /**
+     * Bitmap is stored MSB first: bit of block #i is bit (7 - i % 8) of byte #(i / 8),
+     * so a big-endian long of it is a word of BitSet.toLongArray with its bits reversed.
+     */
+    private void initBitmapFromDisk() throws Exception {
+        ByteBuffer blocks = ByteBuffer.allocate(layout.bitmapBlocks * blockLengthInBytes);
+        ioSystem.readBlockRange(layout.bitmapStart, layout.bitmapBlocks, blocks);
+
+        long[] words = new long[blocks.capacity() / 8];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = Long.reverse(blocks.getLong());
         }
-        return output;
+        bitmap = BitSet.valueOf(words);
+        bitmap.clear(layout.numberOfBlocks, Math.max(layout.numberOfBlocks, bitmap.length()));
+        freeBlocks = layout.numberOfBlocks - bitmap.cardinality();
     }
 
-    private static byte[] bitsetToByteArray(BitSet bits) {
-        StringBuilder stringBuilder = new StringBuilder();
+    /**
+     * Descriptors are read on first use (see getFileDescriptor); the superblock counts the free ones,
+     * a legacy image is read and counted at once.
+     */
+    private void initFileDescriptorsFromDisk(Superblock superblock) throws Exception {
+        for (int i = 0; i < layout.numberOfFileDescriptors; i++) {
+            fileDescriptors.set(i, NOT_LOADED);
+        }
+        if (superblock != null) {
+            freeFileDescriptors = superblock.freeFileDescriptors;
+        } else {
+            countFreeFileDescriptors();
+        }
+    }
+
+    private void countFreeFileDescriptors() {
+        freeFileDescriptors = 0;
+        for (int i = 0; i < layout.numberOfFileDescriptors; i++) {
+            if (getFileDescriptor(i) == null) freeFileDescriptors++;
+        }
+        firstFreeDescriptor = 0;
+    }
 
-        for (int i = 0; i < bits.size(); i++) {
-            if (bits.get(i)) {
-                stringBuilder.append('1');
+    /**
+     * Reads the block of descriptors holding descriptor #FDIndex.
+     *
+     * @return descriptor #FDIndex.
+     */
+    private FileDescriptor loadFileDescriptors(int FDIndex) {
+        descriptorsLock.lock();
+        try {
+            if (fileDescriptors.get(FDIndex) != NOT_LOADED) return fileDescriptors.get(FDIndex);
+
+            int block = FDIndex / layout.fileDescriptorsInOneBlock;
+            ByteBuffer descriptors = ByteBuffer.allocate(blockLengthInBytes);
+            ioSystem.read_block(layout.fileDescriptorsStart + block, descriptors);
+
+            int first = block * layout.fileDescriptorsInOneBlock;
+            int last = Math.min(first + layout.fileDescriptorsInOneBlock, layout.numberOfFileDescriptors);
+            for (int i = first; i < last; i++) {
+                int fileLengthInBytes = descriptors.getInt();
+                int[] slots = new int[FileDescriptor.NUMBER_OF_SLOTS];
+                slots[0] = descriptors.getInt();
+                slots[1] = descriptors.getInt();
+                slots[2] = descriptors.getInt();
+                fileDescriptors.set(i, fileLengthInBytes == -1 ? null : readFileDescriptor(fileLengthInBytes, slots));
+            }
+            return fileDescriptors.get(FDIndex);
+        } finally {
+            descriptorsLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the block map of a file from its slots, reading the index blocks of a long file.
+     */
+    private FileDescriptor readFileDescriptor(int fileLengthInBytes, int[] slots) {
+        if (fileLengthInBytes <= FileDescriptor.NUMBER_OF_SLOTS * blockLengthInBytes) {
+            int numberOfBlocks = 0;
+            while (numberOfBlocks < slots.length && slots[numberOfBlocks] != -1) numberOfBlocks++;
+            return new FileDescriptor(fileLengthInBytes, Arrays.copyOf(slots, numberOfBlocks), new int[0]);
+        }
+
+        int pointers = layout.getPointersInBlock();
+        int numberOfBlocks = (fileLengthInBytes + blockLengthInBytes - 1) / blockLengthInBytes;
+        int[] indexBlocks = new int[FileDescriptor.getNumberOfIndexBlocks(numberOfBlocks, pointers)];
+        indexBlocks[0] = slots[1];
+        if (indexBlocks.length > 1) {
+            indexBlocks[1] = slots[2];
+            ByteBuffer doubleIndirect = ByteBuffer.allocate(blockLengthInBytes);
+            ioSystem.read_block(slots[2], doubleIndirect);
+            for (int i = 2; i < indexBlocks.length; i++) {
+                indexBlocks[i] = doubleIndirect.getInt();
+            }
+        }
+
+        // single indirect block, then the blocks under the double indirect one, all in one vectored read
+        int[] mapBlocks = new int[Math.max(1, indexBlocks.length - 1)];
+        mapBlocks[0] = indexBlocks[0];
+        for (int i = 1; i < mapBlocks.length; i++) {
+            mapBlocks[i] = indexBlocks[i + 1];
+        }
+        ByteBuffer map = ByteBuffer.allocate(mapBlocks.length * blockLengthInBytes);
+        ioSystem.readBlocks(mapBlocks, slice(map, mapBlocks.length));
+
+        int[] blockNumbers = new int[numberOfBlocks];
+        blockNumbers[0] = slots[0];
+        for (int i = 1; i < numberOfBlocks; i++) {
+            blockNumbers[i] = map.getInt();
+        }
+        return new FileDescriptor(fileLengthInBytes, blockNumbers, indexBlocks);
+    }
+
+    /**
+     * Directories are read on first use (see getRootDirectory). Images written before directories were stored
+     * as files keep the root as a flat list in the blocks of file #0 and leave its length 0, it is read at once.
+     */
+    private void initDirectoryFromDisk() throws Exception {
+        if (getFileDescriptor(0).fileLengthInBytes == 0) {
+            initLegacyDirectoryFromDisk();
+        }
+        dentryCache.clear();
+    }
+
+    private void initLegacyDirectoryFromDisk() throws Exception {
+        StringBuilder fileName = new StringBuilder();
+        int FDIndex;
+        byte b;
+        int numberOfEntries = layout.directoryBlocks * layout.directoryEntriesInOneBlock;
+        Directory directory = new Directory(layout.getMaxNumberOfDirectoryEntries());
+
+        ByteBuffer blocks = readDirectoryBlocks();
+        for (int j = 0; j < numberOfEntries; j++) {
+            b = blocks.get();
+            if (b == 0) {
+                break;
             } else {
-                stringBuilder.append('0');
+                fileName.delete(0, fileName.length());
+                fileName.append((char) b);
+                fileName.append((char) blocks.get());
+                fileName.append((char) blocks.get());
+                fileName.append((char) blocks.get());
+                FDIndex = blocks.getInt();
+
+                directory.addEntry(fileName.toString(), FDIndex);
             }
         }
+        directory.modified = false;
+        directories.put(0, directory);
+    }
 
-        for (int i = 0; i < 448; i++) {
-            stringBuilder.append('0');
+    /**
+     * Directory file: int DIRECTORY_MAGIC, int number of entries, then for every entry a flags byte
+     * (1 = directory), the length of the name in bytes, the UTF-8 name and the int FD index.
+     */
+    private Directory readDirectoryFile(int FDIndex) {
+        Directory read = new Directory(layout.getMaxNumberOfDirectoryEntries());
+        FileDescriptor fileDescriptor = getFileDescriptor(FDIndex);
+        int numberOfBlocks = fileDescriptor.getNumberOfBlocks();
+        if (numberOfBlocks > 0) {
+            ByteBuffer blocks = ByteBuffer.allocate(numberOfBlocks * blockLengthInBytes);
+            ioSystem.readBlocks(fileDescriptor.getBlocks(0, numberOfBlocks), slice(blocks, numberOfBlocks));
+            if (blocks.getInt() != DIRECTORY_MAGIC)
+                throw new IllegalStateException("file #" + FDIndex + " is not a directory");
+
+            int numberOfEntries = blocks.getInt();
+            byte[] name = new byte[Directory.MAX_NAME_LENGTH];
+            try {
+                for (int i = 0; i < numberOfEntries; i++) {
+                    boolean isDirectory = (blocks.get() & 1) != 0;
+                    int nameLength = blocks.get() & 0xFF;
+                    blocks.get(name, 0, nameLength);
+                    read.addEntry(new String(name, 0, nameLength, StandardCharsets.UTF_8), blocks.getInt(), isDirectory);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("directory #" + FDIndex + " is damaged", e);
+            }
         }
+        read.modified = false;
+        return read;
+    }
 
-        return binaryStringToBytes(stringBuilder.toString());
+    private ByteBuffer readDirectoryBlocks() {
+        ByteBuffer blocks = ByteBuffer.allocate(layout.directoryBlocks * blockLengthInBytes);
+        ioSystem.readBlocks(getFileDescriptor(0).getBlocks(0, layout.directoryBlocks), slice(blocks, layout.directoryBlocks));
+        return blocks;
     }
 
-    private void writeBitmapToDisk() throws Exception {
-        ioSystem.write_block(0, bitsetToByteArray(bitmap));
+    /**
+     * @return count views of consecutive blocks of buffer, for vectored block I/O.
+     */
+    private ByteBuffer[] slice(ByteBuffer buffer, int count) {
+        ByteBuffer[] blocks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = (ByteBuffer) buffer.duplicate().position(i * blockLengthInBytes);
+        }
+        return blocks;
     }
 
-    private void writeFileDescriptorsToDisk() throws Exception {
-        int numberOfFileDescriptorsInOneBlock = IOSystem.getBlockLengthInBytes() / 16;
-        int numberOfBlocksForFileDescriptors = NUMBER_OF_FILE_DESCRIPTORS * 16 / IOSystem.getBlockLengthInBytes();
-
-        ByteBuffer block;
-
-        for (int i = 0; i < numberOfBlocksForFileDescriptors; i++) {
-            block = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
-            for (int j = 0; j < numberOfFileDescriptorsInOneBlock; j++) {
-                int currentDescriptor = i * numberOfFileDescriptorsInOneBlock + j;
-                if (fileDescriptors[currentDescriptor] == null) {
-                    block.putInt(-1);
-                    block.putInt(-1);
-                    block.putInt(-1);
-                    block.putInt(-1);
-                } else {
-                    block.putInt(fileDescriptors[currentDescriptor].fileLengthInBytes);
+    //*******************************************************************************************************/
+
+    /**
+     * Makes RWBuffer hold the block of the current position. A modified block it held joins the dirty blocks
+     * of the handle, which are flushed once there are MAX_DIRTY_BLOCKS of them; a block past the end of the file
+     * is appended with delayed allocation (see reserveBlock).
+     */
+    private int writeOldBuffer(OpenFileTable.OFTEntry OFTEntry, FileDescriptor fileDescriptor) {
 
-                    block.putInt(fileDescriptors[currentDescriptor].blockNumbers[0]);
-                    block.putInt(fileDescriptors[currentDescriptor].blockNumbers[1]);
-                    block.putInt(fileDescriptors[currentDescriptor].blockNumbers[2]);
+        if (OFTEntry.fileBlockInBuffer == -1) return STATUS_SUCCESS;
+        int newFileBlock = OFTEntry.currentPosition / blockLengthInBytes;
+        // if buffer holds the same block
+        if (OFTEntry.fileBlockInBuffer == newFileBlock) return STATUS_SUCCESS;
+
+        boolean append = (long) newFileBlock * blockLengthInBytes >= fileDescriptor.fileLengthInBytes;
+        if (append && !reserveBlock(fileDescriptor)) {
+            // disk is full: keep the buffer as the current block
+            return STATUS_ERROR;
+        }
+
+        if (OFTEntry.bufferModified) {
+            OFTEntry.dirtyBlocks.put(OFTEntry.fileBlockInBuffer, OFTEntry.RWBuffer);
+            OFTEntry.RWBuffer = new byte[blockLengthInBytes];
+            OFTEntry.bufferModified = false;
+            if (OFTEntry.dirtyBlocks.size() >= OpenFileTable.MAX_DIRTY_BLOCKS
+                    && flushDirtyBlocks(OFTEntry, fileDescriptor) == STATUS_ERROR) {
+                return STATUS_ERROR;
+            }
+        }
+
+        byte[] dirtyBlock = OFTEntry.dirtyBlocks.remove(newFileBlock);
+        if (dirtyBlock != null) {
+            OFTEntry.RWBuffer = dirtyBlock;
+            OFTEntry.bufferModified = true;
+            OFTEntry.fileBlockInBuffer = newFileBlock;
+        } else if (append) {
+            // a new block has no disk block to read yet, it starts zeroed
+            Arrays.fill(OFTEntry.RWBuffer, (byte) 0);
+            OFTEntry.bufferModified = true;
+            OFTEntry.fileBlockInBuffer = newFileBlock;
+        } else {
+            try {
+                loadBlock(OFTEntry, fileDescriptor, newFileBlock);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return STATUS_SUCCESS;
+    }
+
+    /**
+     * Appends a block to the file without allocating it: the length grows, and room for the block and
+     * the index blocks it needs is reserved, so the allocation at flush cannot fail.
+     *
+     * @return false if the file cannot grow or the disk has no room left (nothing is reserved then).
+     */
+    private boolean reserveBlock(FileDescriptor fileDescriptor) {
+        int numberOfBlocks = fileDescriptor.getNumberOfBlocks() + fileDescriptor.delayedBlocks + 1;
+        if ((long) numberOfBlocks * blockLengthInBytes > endOfFile) return false;
+
+        bitmapLock.lock();
+        try {
+            int pointers = layout.getPointersInBlock();
+            int neededBlocks = 1 + FileDescriptor.getNumberOfIndexBlocks(numberOfBlocks, pointers)
+                    - FileDescriptor.getNumberOfIndexBlocks(numberOfBlocks - 1, pointers);
+            if (freeBlocks - reservedBlocks < neededBlocks) return false;
+
+            reservedBlocks += neededBlocks;
+            fileDescriptor.delayedBlocks++;
+            fileDescriptor.fileLengthInBytes += blockLengthInBytes;
+            return true;
+        } finally {
+            bitmapLock.unlock();
+        }
+    }
+
+    /**
+     * @return blocks reserved for the delayed blocks of the file and the index blocks they need.
+     */
+    private int getReservedBlocks(FileDescriptor fileDescriptor) {
+        int numberOfBlocks = fileDescriptor.getNumberOfBlocks() + fileDescriptor.delayedBlocks;
+        return fileDescriptor.delayedBlocks
+                + FileDescriptor.getNumberOfIndexBlocks(numberOfBlocks, layout.getPointersInBlock())
+                - fileDescriptor.getNumberOfIndexBlocks();
+    }
+
+    /**
+     * Allocates the index blocks the file needs now right after its last block, then its delayed blocks
+     * in as few runs as the allocator can manage, so the data of one flush is not split by index blocks.
+     */
+    private int allocateDelayedBlocks(FileDescriptor fileDescriptor) {
+        if (fileDescriptor.delayedBlocks == 0) return STATUS_SUCCESS;
+
+        int numberOfBlocks = fileDescriptor.getNumberOfBlocks() + fileDescriptor.delayedBlocks;
+        int[] newBlocks = new int[fileDescriptor.delayedBlocks];
+        int[] newIndexBlocks = new int[FileDescriptor.getNumberOfIndexBlocks(numberOfBlocks, layout.getPointersInBlock())
+                - fileDescriptor.getNumberOfIndexBlocks()];
+        int goal = fileDescriptor.getNumberOfBlocks() == 0 ? -1 : fileDescriptor.getBlock(fileDescriptor.getNumberOfBlocks() - 1);
+
+        bitmapLock.lock();
+        try {
+            int allocatedIndexBlocks = 0;
+            while (allocatedIndexBlocks < newIndexBlocks.length) {
+                int block = allocator.allocate(bitmap, layout.firstDataBlock, layout.numberOfBlocks, goal);
+                if (block == -1) break;
+                newIndexBlocks[allocatedIndexBlocks++] = block;
+                goal = block;
+            }
+            int allocated = 0;
+            while (allocatedIndexBlocks == newIndexBlocks.length && allocated < newBlocks.length) {
+                BlockAllocator.BlockRun run = allocator.allocateRun(bitmap, layout.firstDataBlock, layout.numberOfBlocks,
+                        goal, newBlocks.length - allocated);
+                if (run == null) break;
+                for (int i = 0; i < run.length; i++) {
+                    newBlocks[allocated++] = run.first + i;
                 }
+                goal = run.first + run.length - 1;
+            }
+            if (allocated < newBlocks.length || allocatedIndexBlocks < newIndexBlocks.length) {
+                // only if the reservations are wrong: nothing is allocated then
+                for (int i = 0; i < allocated; i++) bitmap.set(newBlocks[i], false);
+                for (int i = 0; i < allocatedIndexBlocks; i++) bitmap.set(newIndexBlocks[i], false);
+                return STATUS_ERROR;
             }
-            ioSystem.write_block(i + 1, block.array());
+
+            freeBlocks -= newBlocks.length + newIndexBlocks.length;
+            reservedBlocks -= newBlocks.length + newIndexBlocks.length;
+        } finally {
+            bitmapLock.unlock();
         }
+        for (int block : newIndexBlocks) {
+            fileDescriptor.addIndexBlock(block);
+        }
+        for (int block : newBlocks) {
+            fileDescriptor.addBlock(block);
+        }
+        fileDescriptor.delayedBlocks = 0;
+        return STATUS_SUCCESS;
     }
 
-    private void writeDirectoryToDisk() throws Exception {
-        ByteBuffer block = null;
-        int numberOfEntriesInOneBlock = IOSystem.getBlockLengthInBytes() / 8;
-        int currentDirectoryBlock = 0;
+    /**
+     * Allocates the delayed blocks of the file and writes every modified block the handle holds with one
+     * vectored write. The blocks are copied in file order into one buffer, so blocks that are adjacent
+     * on disk go out as one multi-block write.
+     */
+    private int flushDirtyBlocks(OpenFileTable.OFTEntry OFTEntry, FileDescriptor fileDescriptor) {
+        boolean bufferDirty = OFTEntry.bufferModified && OFTEntry.fileBlockInBuffer != -1;
+        int count = OFTEntry.dirtyBlocks.size() + (bufferDirty ? 1 : 0);
+        if (count == 0) return STATUS_SUCCESS;
+
+        int oldNumberOfBlocks = fileDescriptor.getNumberOfBlocks();
+        int oldNumberOfIndexBlocks = fileDescriptor.getNumberOfIndexBlocks();
+        if (allocateDelayedBlocks(fileDescriptor) == STATUS_ERROR) return STATUS_ERROR;
+
+        if (bufferDirty) OFTEntry.dirtyBlocks.put(OFTEntry.fileBlockInBuffer, OFTEntry.RWBuffer);
+        ByteBuffer blocks = ByteBuffer.allocate(count * blockLengthInBytes);
+        int[] diskBlocks = new int[count];
+        int i = 0;
+        for (Map.Entry<Integer, byte[]> dirtyBlock : OFTEntry.dirtyBlocks.entrySet()) {
+            diskBlocks[i++] = fileDescriptor.getBlock(dirtyBlock.getKey());
+            blocks.put(dirtyBlock.getValue());
+            // a copy fetched ahead before the change is stale now
+            OFTEntry.readAhead.invalidate(dirtyBlock.getKey());
+        }
+        OFTEntry.dirtyBlocks.clear();
+        OFTEntry.bufferModified = false;
+
+        try {
+            ioSystem.writeBlocks(diskBlocks, slice(blocks, count));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return STATUS_ERROR;
+        }
+        // the data goes first, so a replayed journal never maps blocks that were not written
+        journalBlocks(OFTEntry, fileDescriptor, oldNumberOfBlocks, oldNumberOfIndexBlocks);
+        return STATUS_SUCCESS;
+    }
+
+    /**
+     * Journals the blocks and index blocks allocated to the file since it had the given numbers of them.
+     */
+    private void journalBlocks(OpenFileTable.OFTEntry OFTEntry, FileDescriptor fileDescriptor,
+                               int oldNumberOfBlocks, int oldNumberOfIndexBlocks) {
+        MetadataJournal journal = this.journal;
+        int newBlocks = fileDescriptor.getNumberOfBlocks() - oldNumberOfBlocks;
+        if (journal == null || newBlocks == 0) return;
+        int[] indexBlocks = fileDescriptor.getIndexBlocks();
+        OFTEntry.journalSequence = journal.logBlocks(OFTEntry.FDIndex,
+                oldNumberOfBlocks, fileDescriptor.getBlocks(oldNumberOfBlocks, newBlocks),
+                oldNumberOfIndexBlocks, Arrays.copyOfRange(indexBlocks, oldNumberOfIndexBlocks, indexBlocks.length));
+    }
+
+    /**
+     * Waits until the journal records up to sequence are durable.
+     *
+     * @return result, or STATUS_ERROR if the journal could not be written.
+     */
+    private int awaitJournal(long sequence, int result) {
+        MetadataJournal journal = this.journal;
+        if (result == STATUS_ERROR || journal == null || sequence == 0 || journal.await(sequence)) return result;
+        return STATUS_ERROR;
+    }
 
-        for (int i = 0; i < directory.entries.size(); i++) {
-            if (block == null) {
-                block = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
+    /**
+     * Drops the modified blocks of a file that is destroyed and releases what was reserved for them.
+     */
+    private void discardDirtyBlocks(OpenFileTable.OFTEntry OFTEntry, FileDescriptor fileDescriptor) {
+        bitmapLock.lock();
+        try {
+            reservedBlocks -= getReservedBlocks(fileDescriptor);
+        } finally {
+            bitmapLock.unlock();
+        }
+        fileDescriptor.fileLengthInBytes -= fileDescriptor.delayedBlocks * blockLengthInBytes;
+        fileDescriptor.delayedBlocks = 0;
+        OFTEntry.dirtyBlocks.clear();
+        OFTEntry.bufferModified = false;
+    }
+
+    /**
+     * bitmapLock should be held.
+     */
+    private void freeBlock(int block) {
+        bitmap.set(block, false);
+        freeBlocks++;
+    }
+
+    /**
+     * Reads the file from offset into dst without a handle: whole blocks go straight to dst with one
+     * vectored read, a partial first or last block goes through a block buffer.
+     *
+     * @return number of bytes read.
+     */
+    private int readAt(FileDescriptor fileDescriptor, ByteBuffer dst, int offset) {
+        if (offset < 0 || offset > fileDescriptor.fileLengthInBytes) return STATUS_ERROR;
+
+        int count = Math.min(dst.remaining(), fileDescriptor.fileLengthInBytes - offset);
+        ByteBuffer memory = dst.duplicate();
+        byte[] block = null;
+        int readCount = 0;
+        while (readCount < count) {
+            int fileBlock = (offset + readCount) / blockLengthInBytes;
+            int blockPosition = (offset + readCount) % blockLengthInBytes;
+            int wholeBlocks = blockPosition == 0 ? (count - readCount) / blockLengthInBytes : 0;
+            if (wholeBlocks > 0) {
+                readCount += readWholeBlocks(fileDescriptor, fileBlock, wholeBlocks, dst, dst.position() + readCount);
+            } else {
+                if (block == null) block = new byte[blockLengthInBytes];
+                ioSystem.read_block(fileDescriptor.getBlock(fileBlock), block, 0);
+                int chunk = Math.min(blockLengthInBytes - blockPosition, count - readCount);
+                memory.position(dst.position() + readCount);
+                memory.put(block, blockPosition, chunk);
+                readCount += chunk;
             }
-            String fileName = directory.entries.get(i).file_name;
-            for (int k = 0; k < fileName.length(); k++) {
-                block.put((byte) fileName.charAt(k));
+        }
+        return readCount;
+    }
+
+    /**
+     * Writes src into the file from offset without a handle; the file has no delayed blocks.
+     * Blocks it grows by are allocated at once. Whole blocks go straight from src with one vectored write,
+     * a partial first or last block is read, patched and written back (a new one starts zeroed).
+     *
+     * @return number of bytes written.
+     */
+    private int writeAt(FileDescriptor fileDescriptor, ByteBuffer src, int offset) {
+        int count = Math.min(src.remaining(), endOfFile - offset);
+        int oldNumberOfBlocks = fileDescriptor.getNumberOfBlocks();
+        int neededBlocks = (int) (((long) offset + count + blockLengthInBytes - 1) / blockLengthInBytes);
+        while (fileDescriptor.getNumberOfBlocks() + fileDescriptor.delayedBlocks < neededBlocks) {
+            // a full disk shortens the write
+            if (!reserveBlock(fileDescriptor)) break;
+        }
+        if (allocateDelayedBlocks(fileDescriptor) == STATUS_ERROR) return STATUS_ERROR;
+        count = Math.min(count, fileDescriptor.fileLengthInBytes - offset);
+
+        ByteBuffer memory = src.duplicate();
+        byte[] block = null;
+        int writtenCount = 0;
+        while (writtenCount < count) {
+            int fileBlock = (offset + writtenCount) / blockLengthInBytes;
+            int blockPosition = (offset + writtenCount) % blockLengthInBytes;
+            int wholeBlocks = blockPosition == 0 ? (count - writtenCount) / blockLengthInBytes : 0;
+            if (wholeBlocks > 0) {
+                ByteBuffer[] blocks = new ByteBuffer[wholeBlocks];
+                for (int i = 0; i < wholeBlocks; i++) {
+                    blocks[i] = (ByteBuffer) src.duplicate().position(src.position() + writtenCount + i * blockLengthInBytes);
+                }
+                ioSystem.writeBlocks(fileDescriptor.getBlocks(fileBlock, wholeBlocks), blocks);
+                writtenCount += wholeBlocks * blockLengthInBytes;
+            } else {
+                if (block == null) block = new byte[blockLengthInBytes];
+                if (fileBlock < oldNumberOfBlocks) {
+                    ioSystem.read_block(fileDescriptor.getBlock(fileBlock), block, 0);
+                } else {
+                    Arrays.fill(block, (byte) 0);
+                }
+                int chunk = Math.min(blockLengthInBytes - blockPosition, count - writtenCount);
+                memory.position(src.position() + writtenCount);
+                memory.get(block, blockPosition, chunk);
+                ioSystem.write_block(fileDescriptor.getBlock(fileBlock), block);
+                writtenCount += chunk;
             }
-            block.putInt(directory.entries.get(i).FDIndex);
+        }
+        return writtenCount;
+    }
 
-            if ((i + 1) % numberOfEntriesInOneBlock == 0) {
-                ioSystem.write_block(5 + currentDirectoryBlock, block.array());
-                currentDirectoryBlock++;
-                block = null;
+    /**
+     * Reads file block #fileBlock into RWBuffer, from the read-ahead buffer of the handle if it was fetched ahead,
+     * and lets the handle fetch the blocks its access pattern needs next in the background.
+     */
+    private void loadBlock(OpenFileTable.OFTEntry OFTEntry, FileDescriptor fileDescriptor, int fileBlock) {
+        ReadAhead readAhead = OFTEntry.readAhead;
+        readAhead.update(fileBlock);
+        if (readAhead.take(fileBlock, OFTEntry.RWBuffer)) {
+            ioSystem.getStatistics().recordReadAheadHit();
+        } else {
+            ioSystem.getStatistics().recordReadAheadMiss();
+            ioSystem.read_block(fileDescriptor.getBlock(fileBlock), OFTEntry.RWBuffer, 0);
+        }
+        OFTEntry.fileBlockInBuffer = fileBlock;
+
+        readAhead.fetch(ioSystem, fileDescriptor, fileBlock);
+    }
+
+    /**
+     * Reads file blocks firstFileBlock .. firstFileBlock + count - 1 from disk straight into memArea
+     * starting at memArea[memoryPosition] with one vectored call.
+     * None of them may be the block held in RWBuffer.
+     *
+     * @return number of bytes read.
+     */
+    private int readWholeBlocks(FileDescriptor fileDescriptor, int firstFileBlock, int count, ByteBuffer memArea, int memoryPosition) {
+        int[] diskBlocks = fileDescriptor.getBlocks(firstFileBlock, count);
+        ByteBuffer[] dst = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            dst[i] = (ByteBuffer) memArea.duplicate().position(memoryPosition + i * blockLengthInBytes);
+        }
+        ioSystem.readBlocks(diskBlocks, dst);
+        return count * blockLengthInBytes;
+    }
+
+    //*******************************************************************************************************/
+
+    /**
+     * Closes every open file and saves the file system; other operations wait until it is saved.
+     * Saving again to the same file writes only the blocks changed since (see IOSystem.checkpoint).
+     */
+    public void saveFileSystemToFile(String fileName) {
+        directoryLock.writeLock().lock();
+        try {
+            saveFileSystemToDisk();
+            if (saveDiskToFile(fileName)) restartJournal(fileName);
+        } finally {
+            directoryLock.writeLock().unlock();
+        }
+    }
+
+    private void saveFileSystemToDisk() {
+        // close all open files except for directory
+        for (int i = 1; i < OFT.getMaxNumberOfEntries(); i++) {
+            if (OFT.get(i) != null)
+                close(i);
+        }
+
+        try {
+            // directories may grow, so they go first: their blocks are in the bitmap and descriptors then
+            writeDirectoriesToDisk();
+            writeBitmapToDisk();
+            writeFileDescriptorsToDisk();
+            writeSuperblockToDisk();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        ioSystem.flushCache();
+    }
+
+    /**
+     * Checkpoints the disk to the disk image fileName: blocks changed since the last save to it are appended,
+     * when the disk is mapped from fileName this only forces the mapping.
+     */
+    private boolean saveDiskToFile(String fileName) {
+        try {
+            ioSystem.checkpoint(fileName);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * The image holds every change now: changes from here on are journaled next to it.
+     */
+    private void restartJournal(String fileName) {
+        File file = new File(fileName + JOURNAL_SUFFIX);
+        try {
+            if (journal == null) journal = new MetadataJournal(file, ioSystem::flushCache);
+            journal.restart(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Written last, so the free counts are those of the metadata just written.
+     */
+    private void writeSuperblockToDisk() {
+        if (!layout.hasSuperblock) return;
+        ByteBuffer block = ByteBuffer.allocate(blockLengthInBytes);
+        block.putInt(SUPERBLOCK_MAGIC).putInt(SUPERBLOCK_VERSION);
+        block.putInt(layout.numberOfBlocks).putInt(blockLengthInBytes).putInt(layout.numberOfFileDescriptors);
+        block.putInt(layout.bitmapStart).putInt(layout.bitmapBlocks);
+        block.putInt(layout.fileDescriptorsStart).putInt(layout.fileDescriptorsBlocks);
+        block.putInt(layout.directoryStart).putInt(layout.directoryBlocks);
+        block.putInt(layout.firstDataBlock);
+        bitmapLock.lock();
+        try {
+            block.putInt(freeBlocks);
+        } finally {
+            bitmapLock.unlock();
+        }
+        block.putInt(freeFileDescriptors);
+        writeChangedBlocks(new int[]{0}, block);
+    }
+
+    /**
+     * Every word of BitSet.toLongArray is stored bit-reversed, see initBitmapFromDisk.
+     */
+    private void writeBitmapToDisk() throws Exception {
+        ByteBuffer blocks = ByteBuffer.allocate(layout.bitmapBlocks * blockLengthInBytes);
+        bitmapLock.lock();
+        try {
+            for (long word : bitmap.toLongArray()) {
+                blocks.putLong(Long.reverse(word));
+            }
+        } finally {
+            bitmapLock.unlock();
+        }
+        writeChangedBlocks(blockRange(layout.bitmapStart, layout.bitmapBlocks), blocks);
+    }
+
+    /**
+     * Writes the blocks of descriptors that were read (all of them for a new file system), the others did not change.
+     */
+    private void writeFileDescriptorsToDisk() throws Exception {
+        int loadedBlocks = 0;
+        int[] blockNumbers = new int[layout.fileDescriptorsBlocks];
+        ByteBuffer blocks = ByteBuffer.allocate(layout.fileDescriptorsBlocks * blockLengthInBytes);
+
+        for (int i = 0; i < layout.numberOfFileDescriptors; i += layout.fileDescriptorsInOneBlock) {
+            if (fileDescriptors.get(i) == NOT_LOADED) continue;
+            blockNumbers[loadedBlocks++] = layout.fileDescriptorsStart + i / layout.fileDescriptorsInOneBlock;
+            int last = Math.min(i + layout.fileDescriptorsInOneBlock, layout.numberOfFileDescriptors);
+            for (int FDIndex = i; FDIndex < last; FDIndex++) {
+                putFileDescriptor(blocks, fileDescriptors.get(FDIndex));
+            }
+            // unused tail of the last block is marked as free descriptors as well
+            while (blocks.position() % blockLengthInBytes != 0) {
+                blocks.putInt(-1);
+            }
+        }
+        writeChangedBlocks(Arrays.copyOf(blockNumbers, loadedBlocks), blocks);
+    }
+
+    private void putFileDescriptor(ByteBuffer blocks, FileDescriptor fileDescriptor) {
+        if (fileDescriptor == null) {
+            blocks.putInt(-1);
+            blocks.putInt(-1);
+            blocks.putInt(-1);
+            blocks.putInt(-1);
+        } else {
+            blocks.putInt(fileDescriptor.fileLengthInBytes);
+
+            if (fileDescriptor.isIndirect()) {
+                int[] indexBlocks = fileDescriptor.getIndexBlocks();
+                blocks.putInt(fileDescriptor.getBlock(0));
+                blocks.putInt(indexBlocks[0]);
+                blocks.putInt(indexBlocks.length > 1 ? indexBlocks[1] : -1);
+                writeIndexBlocks(fileDescriptor);
+            } else {
+                blocks.putInt(fileDescriptor.getBlock(0));
+                blocks.putInt(fileDescriptor.getBlock(1));
+                blocks.putInt(fileDescriptor.getBlock(2));
+            }
+        }
+    }
+
+    /**
+     * Writes the single indirect block (blocks 1 .. P), the double indirect block (numbers of the blocks under it)
+     * and the blocks under it (P block numbers each) of a long file; unused entries are -1.
+     */
+    private void writeIndexBlocks(FileDescriptor fileDescriptor) {
+        int pointers = layout.getPointersInBlock();
+        int[] indexBlocks = fileDescriptor.getIndexBlocks();
+        ByteBuffer blocks = ByteBuffer.allocate(indexBlocks.length * blockLengthInBytes);
+        while (blocks.hasRemaining()) {
+            blocks.putInt(-1);
+        }
+
+        for (int i = 1; i < fileDescriptor.getNumberOfBlocks(); i++) {
+            int entry = i - 1;
+            // block i is in the single indirect block, or in block #(entry / P - 1) under the double indirect one
+            int indexBlock = entry < pointers ? 0 : 1 + entry / pointers;
+            blocks.putInt(indexBlock * blockLengthInBytes + (entry % pointers) * 4, fileDescriptor.getBlock(i));
+        }
+        for (int i = 2; i < indexBlocks.length; i++) {
+            blocks.putInt(blockLengthInBytes + (i - 2) * 4, indexBlocks[i]);
+        }
+
+        writeChangedBlocks(indexBlocks, blocks);
+    }
+
+    /**
+     * Writes the directories changed since they were read; the root is always written,
+     * so an image with the legacy flat root is converted on save.
+     */
+    private void writeDirectoriesToDisk() {
+        for (Map.Entry<Integer, Directory> entry : directories.entrySet()) {
+            if (entry.getKey() == 0 || entry.getValue().modified) {
+                writeDirectoryFile(entry.getKey(), entry.getValue());
             }
         }
-        if (block == null) {
-            block = ByteBuffer.allocate(IOSystem.getBlockLengthInBytes());
+    }
+
+    /**
+     * Writes the directory in the format of readDirectoryFile. Directory files never shrink,
+     * their length is always whole blocks.
+     */
+    private void writeDirectoryFile(int FDIndex, Directory written) {
+        byte[][] names = new byte[written.size()][];
+        int contentLength = 8;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = written.get(i).file_name.getBytes(StandardCharsets.UTF_8);
+            contentLength += 2 + names[i].length + 4;
+        }
+
+        FileDescriptor fileDescriptor = getFileDescriptor(FDIndex);
+        int neededBlocks = Math.max(1, (contentLength + blockLengthInBytes - 1) / blockLengthInBytes);
+        while (fileDescriptor.getNumberOfBlocks() < neededBlocks) {
+            if (appendBlock(fileDescriptor) == -1)
+                throw new IllegalStateException("disk is full, directory #" + FDIndex + " is not saved");
+        }
+        int numberOfBlocks = fileDescriptor.getNumberOfBlocks();
+        fileDescriptor.fileLengthInBytes = numberOfBlocks * blockLengthInBytes;
+
+        ByteBuffer blocks = ByteBuffer.allocate(numberOfBlocks * blockLengthInBytes);
+        blocks.putInt(DIRECTORY_MAGIC);
+        blocks.putInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            blocks.put((byte) (written.get(i).isDirectory ? 1 : 0));
+            blocks.put((byte) names[i].length);
+            blocks.put(names[i]);
+            blocks.putInt(written.get(i).FDIndex);
+        }
+
+        writeChangedBlocks(fileDescriptor.getBlocks(0, numberOfBlocks), blocks);
+        written.modified = false;
+    }
+
+    /**
+     * Writes block i of blocks to block #blockNumbers[i] unless the disk holds it already,
+     * so metadata that did not change is not dirtied for the next checkpoint.
+     */
+    private void writeChangedBlocks(int[] blockNumbers, ByteBuffer blocks) {
+        byte[] onDisk = new byte[blockNumbers.length * blockLengthInBytes];
+        ioSystem.readBlocks(blockNumbers, slice(ByteBuffer.wrap(onDisk), blockNumbers.length));
+
+        int[] changedBlocks = new int[blockNumbers.length];
+        ByteBuffer[] src = new ByteBuffer[blockNumbers.length];
+        int changed = 0;
+        for (int i = 0; i < blockNumbers.length; i++) {
+            int offset = i * blockLengthInBytes;
+            if (!ByteBuffer.wrap(blocks.array(), offset, blockLengthInBytes)
+                    .equals(ByteBuffer.wrap(onDisk, offset, blockLengthInBytes))) {
+                changedBlocks[changed] = blockNumbers[i];
+                src[changed++] = ByteBuffer.wrap(blocks.array(), offset, blockLengthInBytes);
+            }
+        }
+        ioSystem.writeBlocks(Arrays.copyOf(changedBlocks, changed), Arrays.copyOf(src, changed));
+    }
+
+    private static int[] blockRange(int firstBlock, int count) {
+        int[] blockNumbers = new int[count];
+        for (int i = 0; i < count; i++) {
+            blockNumbers[i] = firstBlock + i;
         }
-        block.put((byte) 0);
-        ioSystem.write_block(5 + currentDirectoryBlock, block.array());
+        return blockNumbers;
     }
 }
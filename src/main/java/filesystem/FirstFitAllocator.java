@@ -0,0 +1,14 @@
+package filesystem;
+
+import java.util.BitSet;
+
+/**
+ * Lowest free block (the original allocation order).
+ */
+public class FirstFitAllocator extends BlockAllocator {
+
+    @Override
+    protected int findFreeBlock(BitSet bitmap, int from, int to, int goal) {
+        return nextFreeBlock(bitmap, from, to);
+    }
+}
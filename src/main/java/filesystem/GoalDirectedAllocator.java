@@ -0,0 +1,60 @@
+package filesystem;
+
+import java.util.BitSet;
+
+/**
+ * Keeps files contiguous: the next block of a file is the block right after its previous one if that is free,
+ * otherwise the nearest free block after it in the same cylinder, then anywhere after it.
+ * The first block of a file goes to the largest free run; if a used block (likely the end of another file)
+ * precedes the run, the new file starts in its middle, leaving both files room to grow in place.
+ */
+public class GoalDirectedAllocator extends BlockAllocator {
+    private final int blocksInOneCylinder;
+
+    public GoalDirectedAllocator(int blocksInOneCylinder) {
+        if (blocksInOneCylinder <= 0) throw new IllegalArgumentException("blocksInOneCylinder should be positive");
+        this.blocksInOneCylinder = blocksInOneCylinder;
+    }
+
+    @Override
+    protected int findFreeBlock(BitSet bitmap, int from, int to, int goal) {
+        if (goal < from || goal >= to) return startOfLargestFreeRun(bitmap, from, to);
+
+        // after the previous block, in its cylinder first
+        int cylinderStart = Math.max(from, goal - goal % blocksInOneCylinder);
+        int cylinderEnd = Math.min(to, cylinderStart + blocksInOneCylinder);
+        int block = nextFreeBlock(bitmap, goal + 1, cylinderEnd);
+        if (block == -1) block = nextFreeBlock(bitmap, cylinderStart, goal);
+        if (block == -1) block = nextFreeBlock(bitmap, cylinderEnd, to);
+        if (block == -1) block = nextFreeBlock(bitmap, from, cylinderStart);
+        return block;
+    }
+
+    @Override
+    protected int findFreeRun(BitSet bitmap, int from, int to, int goal, int maxLength) {
+        int block = findFreeBlock(bitmap, from, to, goal);
+        if (block == -1 || nextUsedBlock(bitmap, block, to) - block >= maxLength) return block;
+
+        // the run at the goal is too short: take the first run that is long enough, if any
+        for (int free = nextFreeBlock(bitmap, from, to); free != -1; ) {
+            int end = nextUsedBlock(bitmap, free, to);
+            if (end - free >= maxLength) return free;
+            free = end < to ? nextFreeBlock(bitmap, end, to) : -1;
+        }
+        return block;
+    }
+
+    private static int startOfLargestFreeRun(BitSet bitmap, int from, int to) {
+        int best = -1;
+        int bestLength = 0;
+        for (int free = nextFreeBlock(bitmap, from, to); free != -1; ) {
+            int end = nextUsedBlock(bitmap, free, to);
+            if (end - free > bestLength) {
+                best = free;
+                bestLength = end - free;
+            }
+            free = end < to ? nextFreeBlock(bitmap, end, to) : -1;
+        }
+        return best > from ? best + bestLength / 2 : best;
+    }
+}
@@ -0,0 +1,316 @@
+package filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Redo journal of the metadata changes made since the file system was last saved.
+ * <p>
+ * A record is its length, type, body and the CRC32 of type and body. CREATE and REMOVE record directory entries
+ * (parent directory, name, file descriptor); BLOCKS records blocks allocated to a file: the disk blocks from file
+ * block #first on and the index blocks from index block #firstIndex on. The bitmap follows from the descriptors,
+ * so it is not journaled.
+ * <p>
+ * Records are appended to a buffer in the order the changes are made (callers hold the locks of the change),
+ * and the committer thread writes everything buffered with one append and one force: operations that wait
+ * for their records at the same time share one flush (group commit). Saving the file system empties the journal.
+ * Data blocks are written to the I/O system before the records that allocate them are committed, but they are
+ * only as durable as the disk image itself. close stops the committer and closes the journal file.
+ */
+class MetadataJournal {
+    static final byte CREATE = 1;
+    static final byte REMOVE = 2;
+    static final byte BLOCKS = 3;
+
+    /**
+     * Replays the changes of a journal in order.
+     */
+    interface Target {
+        void create(int parentFDIndex, String name, int FDIndex, boolean isDirectory) throws Exception;
+
+        void remove(int parentFDIndex, String name, int FDIndex);
+
+        void blocks(int FDIndex, int firstBlock, int[] blocks, int firstIndexBlock, int[] indexBlocks);
+    }
+
+    // is run by the committer before every batch, so the data of the batch reaches the disk first
+    private final Runnable beforeCommit;
+
+    // guarded by this
+    private File file;
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private ByteBuffer committing = ByteBuffer.allocate(4096);
+    private long appended;
+    private long durable;
+    private boolean failed;
+    private Thread committer;
+    private FileChannel channel;
+    private long batches;
+    private boolean closed;
+
+    MetadataJournal(File file, Runnable beforeCommit) {
+        this.file = file;
+        this.beforeCommit = beforeCommit;
+    }
+
+    synchronized File getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of appends (and forces) of the journal so far.
+     */
+    synchronized long getNumberOfBatches() {
+        return batches;
+    }
+
+    /**
+     * @return sequence number of the record, see await.
+     */
+    long logCreate(int parentFDIndex, String name, int FDIndex, boolean isDirectory) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(4 + 1 + nameBytes.length + 4 + 1);
+        body.putInt(parentFDIndex).put((byte) nameBytes.length).put(nameBytes).putInt(FDIndex).put((byte) (isDirectory ? 1 : 0));
+        return append(CREATE, body);
+    }
+
+    long logRemove(int parentFDIndex, String name, int FDIndex) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(4 + 1 + nameBytes.length + 4);
+        body.putInt(parentFDIndex).put((byte) nameBytes.length).put(nameBytes).putInt(FDIndex);
+        return append(REMOVE, body);
+    }
+
+    long logBlocks(int FDIndex, int firstBlock, int[] blocks, int firstIndexBlock, int[] indexBlocks) {
+        ByteBuffer body = ByteBuffer.allocate(4 * (5 + blocks.length + indexBlocks.length));
+        body.putInt(FDIndex).putInt(firstBlock).putInt(blocks.length);
+        for (int block : blocks) body.putInt(block);
+        body.putInt(firstIndexBlock).putInt(indexBlocks.length);
+        for (int block : indexBlocks) body.putInt(block);
+        return append(BLOCKS, body);
+    }
+
+    /**
+     * Waits until record #sequence and all records before it are durable.
+     *
+     * @return false if the journal could not be written (the change is made, but a crash may lose it).
+     */
+    synchronized boolean await(long sequence) {
+        boolean interrupted = false;
+        while (durable < sequence && !failed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return durable >= sequence;
+    }
+
+    /**
+     * Starts an empty journal in file once the file system is saved to its image; the previous journal file,
+     * if it is another one, is left to its own image. Records logged meanwhile would be lost, so callers
+     * should keep metadata from changing. Sequence numbers go on.
+     */
+    synchronized void restart(File file) throws IOException {
+        await(appended);
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        failed = false;
+        this.file = file;
+        if (file.exists() && !file.delete()) throw new IOException("cannot delete " + file);
+    }
+
+    /**
+     * Waits until the records appended so far are durable, then stops the committer thread and closes
+     * the journal file; nothing can be logged afterwards.
+     */
+    void close() throws IOException {
+        Thread committer;
+        synchronized (this) {
+            await(appended);
+            closed = true;
+            committer = this.committer;
+            this.committer = null;
+            notifyAll();
+        }
+        if (committer != null) {
+            committer.interrupt();
+            boolean interrupted = false;
+            while (committer.isAlive()) {
+                try {
+                    committer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Applies the records of journal file to target and cuts off a record that is cut short or damaged
+     * (the last one, being written at a crash) together with everything after it.
+     *
+     * @return number of records applied.
+     */
+    static int replay(File file, Target target) throws IOException {
+        if (!file.exists()) return 0;
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer journal = ByteBuffer.allocate((int) channel.size());
+            while (journal.hasRemaining()) {
+                if (channel.read(journal) == -1) break;
+            }
+            journal.flip();
+
+            int valid = 0;
+            while (journal.remaining() >= 4) {
+                int length = journal.getInt();
+                if (length < 1 || journal.remaining() < length + 4) break;
+                CRC32 crc = new CRC32();
+                crc.update(journal.array(), journal.position(), length);
+                ByteBuffer body = (ByteBuffer) journal.slice().limit(length);
+                journal.position(journal.position() + length);
+                if (journal.getInt() != (int) crc.getValue()) break;
+
+                apply(body, target);
+                records++;
+                valid = journal.position();
+            }
+            if (valid < channel.size()) channel.truncate(valid);
+        } catch (Exception e) {
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException(file + " is damaged after record " + records, e);
+        }
+        return records;
+    }
+
+    //*******************************************************************************************************/
+
+    private static void apply(ByteBuffer body, Target target) throws Exception {
+        byte type = body.get();
+        switch (type) {
+            case CREATE:
+                target.create(body.getInt(), readName(body), body.getInt(), body.get() != 0);
+                break;
+            case REMOVE:
+                target.remove(body.getInt(), readName(body), body.getInt());
+                break;
+            case BLOCKS:
+                int FDIndex = body.getInt();
+                int firstBlock = body.getInt();
+                int[] blocks = readInts(body);
+                int firstIndexBlock = body.getInt();
+                target.blocks(FDIndex, firstBlock, blocks, firstIndexBlock, readInts(body));
+                break;
+            default:
+                throw new IllegalStateException("unknown journal record " + type);
+        }
+    }
+
+    private static String readName(ByteBuffer body) {
+        byte[] name = new byte[body.get() & 0xFF];
+        body.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static int[] readInts(ByteBuffer body) {
+        int[] ints = new int[body.getInt()];
+        for (int i = 0; i < ints.length; i++) ints[i] = body.getInt();
+        return ints;
+    }
+
+    private synchronized long append(byte type, ByteBuffer body) {
+        if (closed) throw new IllegalStateException("journal " + file + " is closed");
+        int length = 1 + body.capacity();
+        if (pending.remaining() < 4 + length + 4) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + 8 + length));
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        int start = pending.position() + 4;
+        pending.putInt(length).put(type).put(body.array());
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), start, length);
+        pending.putInt((int) crc.getValue());
+
+        if (committer == null) {
+            committer = new Thread(this::commit, "metadata journal");
+            committer.setDaemon(true);
+            committer.start();
+        }
+        notifyAll();
+        return ++appended;
+    }
+
+    /**
+     * Body of the committer thread.
+     */
+    private void commit() {
+        while (true) {
+            ByteBuffer batch;
+            long sequence;
+            synchronized (this) {
+                while (pending.position() == 0) {
+                    if (closed) return;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                pending = committing;
+                committing = batch;
+                sequence = appended;
+            }
+
+            batch.flip();
+            try {
+                beforeCommit.run();
+                write(batch);
+                synchronized (this) {
+                    // records of a failed batch are lost, none after it is durable until the journal restarts
+                    if (!failed) durable = sequence;
+                    batches++;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    failed = true;
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(ByteBuffer batch) throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            if (this.channel == null) {
+                this.channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            channel = this.channel;
+        }
+        while (batch.hasRemaining()) channel.write(batch);
+        channel.force(false);
+    }
+}
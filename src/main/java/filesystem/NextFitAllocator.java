@@ -0,0 +1,30 @@
+package filesystem;
+
+import java.util.BitSet;
+
+/**
+ * First free block after the one allocated last, wrapping around at the end of the disk.
+ */
+public class NextFitAllocator extends BlockAllocator {
+    private int next;
+
+    @Override
+    protected synchronized int findFreeBlock(BitSet bitmap, int from, int to, int goal) {
+        int start = next >= from && next < to ? next : from;
+        int block = nextFreeBlock(bitmap, start, to);
+        if (block == -1) block = nextFreeBlock(bitmap, from, start);
+        if (block != -1) next = block + 1;
+        return block;
+    }
+
+    @Override
+    protected int findFreeRun(BitSet bitmap, int from, int to, int goal, int maxLength) {
+        int block = findFreeBlock(bitmap, from, to, goal);
+        if (block != -1) {
+            synchronized (this) {
+                next = Math.min(nextUsedBlock(bitmap, block, to), block + maxLength);
+            }
+        }
+        return block;
+    }
+}
@@ -1,8 +1,28 @@
 package filesystem;
 
-import iosystem.IOSystem;
+import java.util.Arrays;
+import java.util.TreeMap;
 
+/**
+ * Handles of open files. Entry #0 is the directory, entries 1 .. are files.
+ * <p>
+ * The table grows on demand up to a configurable maximum. Released slots are kept on a stack
+ * and handed out again first, and every file descriptor maps back to its handle, so open, close
+ * and the lookup of the handle of a file take O(1) however many files are open.
+ * <p>
+ * The table is shared by all threads of the file system, so its methods are synchronized; an entry itself
+ * is guarded by the lock of its file (see FileSystem).
+ */
 class OpenFileTable {
+    /**
+     * Directory + 3 files, as in the original assignment.
+     */
+    static final int DEFAULT_MAX_NUMBER_OF_ENTRIES = 4;
+
+    /**
+     * Modified blocks a handle keeps besides RWBuffer before they are written to disk.
+     */
+    static final int MAX_DIRTY_BLOCKS = 64;
 
     static class OFTEntry {
         byte[] RWBuffer;
@@ -12,8 +32,16 @@ class OpenFileTable {
         boolean bufferModified;
         int fileBlockInBuffer;
 
-        OFTEntry() {
-            RWBuffer = new byte[IOSystem.getBlockLengthInBytes()];
+        // blocks fetched ahead asynchronously while RWBuffer is in use
+        final ReadAhead readAhead;
+        // modified blocks left by RWBuffer, by file block; they are written (and allocated) together
+        final TreeMap<Integer, byte[]> dirtyBlocks = new TreeMap<>();
+        // journal record of the last blocks allocated through the handle (see MetadataJournal.await)
+        long journalSequence;
+
+        OFTEntry(int blockLengthInBytes) {
+            RWBuffer = new byte[blockLengthInBytes];
+            readAhead = new ReadAhead(blockLengthInBytes);
             currentPosition = -1;
             FDIndex = -1;
 
@@ -23,8 +51,102 @@ class OpenFileTable {
     }
 
     OFTEntry[] entries;
+    private int maxNumberOfEntries;
+    // slots 1 .. usedSlots - 1 have been handed out at least once; free ones among them are on the stack
+    private int usedSlots;
+    private int[] freeSlots;
+    private int numberOfFreeSlots;
+    // handle of every file descriptor, -1 if the file is not open
+    private final int[] handles;
+    private int numberOfOpenFiles;
+
+    OpenFileTable(int numberOfFileDescriptors) {
+        entries = new OFTEntry[DEFAULT_MAX_NUMBER_OF_ENTRIES];
+        maxNumberOfEntries = DEFAULT_MAX_NUMBER_OF_ENTRIES;
+        usedSlots = 1;
+        freeSlots = new int[4];
+        handles = new int[numberOfFileDescriptors];
+        Arrays.fill(handles, -1);
+    }
+
+    synchronized int getMaxNumberOfEntries() {
+        return maxNumberOfEntries;
+    }
+
+    /**
+     * @param maxNumberOfEntries directory entry included; handles of files that are open stay valid,
+     *                           so it may not be lower than the highest of them + 1
+     */
+    synchronized void setMaxNumberOfEntries(int maxNumberOfEntries) {
+        if (maxNumberOfEntries < 2)
+            throw new IllegalArgumentException("at least 2 entries are needed (directory + 1 file)");
+        for (int i = maxNumberOfEntries; i < usedSlots; i++) {
+            if (entries[i] != null) throw new IllegalStateException("file with handle " + i + " is open");
+        }
+        if (usedSlots > maxNumberOfEntries) {
+            // slots above the new maximum are not handed out again
+            int kept = 0;
+            for (int i = 0; i < numberOfFreeSlots; i++) {
+                if (freeSlots[i] < maxNumberOfEntries) freeSlots[kept++] = freeSlots[i];
+            }
+            numberOfFreeSlots = kept;
+            usedSlots = maxNumberOfEntries;
+            entries = Arrays.copyOf(entries, maxNumberOfEntries);
+        }
+        this.maxNumberOfEntries = maxNumberOfEntries;
+    }
+
+    synchronized int getNumberOfOpenFiles() {
+        return numberOfOpenFiles;
+    }
+
+    /**
+     * @return the entry of handle #index, null if it is not an open file.
+     */
+    synchronized OFTEntry get(int index) {
+        return index <= 0 || index >= usedSlots ? null : entries[index];
+    }
+
+    /**
+     * @return handle of the file with descriptor #FDIndex, -1 if it is not open.
+     */
+    synchronized int getIndex(int FDIndex) {
+        return handles[FDIndex];
+    }
+
+    /**
+     * Stores the entry of a file that is not open yet.
+     *
+     * @return its handle, -1 if the table is full.
+     */
+    synchronized int add(OFTEntry entry) {
+        int index;
+        if (numberOfFreeSlots > 0) {
+            index = freeSlots[--numberOfFreeSlots];
+        } else if (usedSlots < maxNumberOfEntries) {
+            index = usedSlots++;
+            if (index == entries.length) {
+                entries = Arrays.copyOf(entries, Math.min(maxNumberOfEntries, entries.length * 2));
+            }
+        } else {
+            return -1;
+        }
+        entries[index] = entry;
+        handles[entry.FDIndex] = index;
+        numberOfOpenFiles++;
+        return index;
+    }
 
-    OpenFileTable() {
-        entries = new OFTEntry[4];
+    /**
+     * Frees handle #index of an open file.
+     */
+    synchronized void remove(int index) {
+        OFTEntry entry = get(index);
+        if (entry == null) throw new IllegalArgumentException("handle " + index + " is not open");
+        entries[index] = null;
+        handles[entry.FDIndex] = -1;
+        numberOfOpenFiles--;
+        if (numberOfFreeSlots == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        freeSlots[numberOfFreeSlots++] = index;
     }
 }
@@ -0,0 +1,158 @@
+package filesystem;
+
+import iosystem.IOSystem;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Access pattern detection and read-ahead buffer of one open file.
+ * <p>
+ * Loads of file blocks k, k + s, k + 2s, ... (s = 1 sequential, s > 1 strided) double the window
+ * up to MAX_WINDOW blocks; any other load closes it, so random access reads single blocks on demand.
+ * When the block after the one just loaded is not buffered, the next window of blocks is fetched
+ * in the background with one vectored read into a multi-block buffer.
+ */
+class ReadAhead {
+    static final int MAX_WINDOW = 32;
+
+    private final int blockLengthInBytes;
+    private int lastFileBlock = -1;
+    private int stride = 1;
+    // a new handle is assumed to be read from the start, one block ahead
+    private int window = 1;
+
+    private byte[] buffer = new byte[0];
+    // file block held by each slot of buffer, -1 once taken or invalidated
+    private int[] fileBlocks = new int[0];
+    private int numberOfSlots;
+    private int firstFileBlock;
+    private int slotStride = 1;
+    private CompletableFuture<Void> pending;
+
+    ReadAhead(int blockLengthInBytes) {
+        this.blockLengthInBytes = blockLengthInBytes;
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Records a load of file block #fileBlock and adapts the window to it.
+     */
+    void update(int fileBlock) {
+        int delta = fileBlock - lastFileBlock;
+        if (lastFileBlock != -1) {
+            if (delta == stride) {
+                window = Math.min(MAX_WINDOW, Math.max(1, window * 2));
+            } else {
+                // the next load tells if this is the new stride
+                stride = delta > 0 ? delta : 1;
+                window = 0;
+            }
+        }
+        lastFileBlock = fileBlock;
+    }
+
+    /**
+     * Blocks were read past the read-ahead buffer up to fileBlock; the pattern goes on from there.
+     */
+    void skipTo(int fileBlock) {
+        lastFileBlock = fileBlock;
+    }
+
+    /**
+     * Copies file block #fileBlock to dst if it was fetched ahead (waiting for the fetch if needed).
+     *
+     * @return true if it was.
+     */
+    boolean take(int fileBlock, byte[] dst) {
+        int slot = getSlot(fileBlock);
+        if (slot == -1 || !await()) return false;
+        System.arraycopy(buffer, slot * blockLengthInBytes, dst, 0, blockLengthInBytes);
+        fileBlocks[slot] = -1;
+        return true;
+    }
+
+    /**
+     * Drops file block #fileBlock from the buffer, e.g. when a newer version of it is written.
+     */
+    void invalidate(int fileBlock) {
+        int slot = getSlot(fileBlock);
+        if (slot != -1) fileBlocks[slot] = -1;
+    }
+
+    /**
+     * Starts fetching the window after file block #fileBlock unless the next block is buffered already.
+     *
+     * @return number of blocks requested.
+     */
+    int fetch(IOSystem ioSystem, FileDescriptor fileDescriptor, int fileBlock) {
+        int next = fileBlock + stride;
+        if (window == 0 || getSlot(next) != -1 || fileDescriptor.getBlock(next) == -1) return 0;
+
+        await();
+        ioSystem.getStatistics().recordReadAheadUnused(getNumberOfBufferedBlocks());
+
+        int count = 0;
+        while (count < window && fileDescriptor.getBlock(next + count * stride) != -1) count++;
+        if (buffer.length < count * blockLengthInBytes) {
+            buffer = new byte[window * blockLengthInBytes];
+            fileBlocks = new int[window];
+        }
+        int[] diskBlocks = new int[count];
+        ByteBuffer[] dst = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            fileBlocks[i] = next + i * stride;
+            diskBlocks[i] = fileDescriptor.getBlock(fileBlocks[i]);
+            dst[i] = ByteBuffer.wrap(buffer, i * blockLengthInBytes, blockLengthInBytes);
+        }
+        numberOfSlots = count;
+        firstFileBlock = next;
+        slotStride = stride;
+
+        pending = ioSystem.submitReadBlocks(diskBlocks, dst);
+        ioSystem.getStatistics().recordReadAhead(count);
+        return count;
+    }
+
+    /**
+     * Waits for the fetch in progress, if any; a failed fetch empties the buffer.
+     *
+     * @return false if the fetch failed.
+     */
+    boolean await() {
+        if (pending == null) return true;
+        try {
+            pending.join();
+            return true;
+        } catch (CompletionException e) {
+            e.printStackTrace();
+            Arrays.fill(fileBlocks, -1);
+            return false;
+        } finally {
+            pending = null;
+        }
+    }
+
+    /**
+     * @return blocks fetched ahead that were neither taken nor invalidated.
+     */
+    int getNumberOfBufferedBlocks() {
+        int buffered = 0;
+        for (int i = 0; i < numberOfSlots; i++) {
+            if (fileBlocks[i] != -1) buffered++;
+        }
+        return buffered;
+    }
+
+    private int getSlot(int fileBlock) {
+        int offset = fileBlock - firstFileBlock;
+        if (offset < 0 || offset % slotStride != 0) return -1;
+        int slot = offset / slotStride;
+        return slot < numberOfSlots && fileBlocks[slot] == fileBlock ? slot : -1;
+    }
+}
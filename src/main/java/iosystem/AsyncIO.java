@@ -0,0 +1,221 @@
+package iosystem;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queue of asynchronous block requests served by one I/O thread of an IOSystem.
+ * <p>
+ * Requests for a block that is already queued are merged into the queued entry:
+ * all readers are served by one device read, a later write replaces the data of an earlier one,
+ * and a read queued after a write is completed right away from the data being written.
+ * Reads queued before a write still see the old contents: an entry reads first, then writes.
+ * Vectored reads are queued as one entry of their own and served with one IOSystem.readBlocks call;
+ * requests for their blocks queued after them are not merged into entries queued before them.
+ */
+class AsyncIO {
+
+    private static class PendingBlocks {
+        final int[] blockNumbers;
+        final ByteBuffer[] dst;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingBlocks(int[] blockNumbers, ByteBuffer[] dst) {
+            this.blockNumbers = blockNumbers;
+            this.dst = dst;
+        }
+    }
+
+    private static class PendingBlock {
+        final int blockNumber;
+        final List<ByteBuffer> readBuffers = new ArrayList<>();
+        final List<CompletableFuture<Void>> readers = new ArrayList<>();
+        final List<CompletableFuture<Void>> writers = new ArrayList<>();
+        byte[] writeData;
+
+        PendingBlock(int blockNumber) {
+            this.blockNumber = blockNumber;
+        }
+    }
+
+    private final IOSystem ioSystem;
+    private final int blockLengthInBytes;
+    // PendingBlock and PendingBlocks entries in the order they are served
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    // block number -> queued PendingBlock that later requests for the block may be merged into
+    private final Map<Integer, PendingBlock> mergeable = new HashMap<>();
+    private Thread thread;
+    private boolean busy;
+
+    private long requests;
+    private long mergedRequests;
+
+    AsyncIO(IOSystem ioSystem) {
+        this.ioSystem = ioSystem;
+        blockLengthInBytes = ioSystem.getBlockLengthInBytes();
+    }
+
+    /**
+     * @param dst buffer the block is copied to at its current position (position is left unchanged);
+     *            it should not be touched until the future completes
+     */
+    synchronized CompletableFuture<Void> submitRead(int blockNumber, ByteBuffer dst) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        requests++;
+        PendingBlock pending = mergeable.get(blockNumber);
+        if (pending != null && pending.writeData != null) {
+            mergedRequests++;
+            dst.duplicate().put(pending.writeData);
+            future.complete(null);
+            return future;
+        }
+
+        if (pending == null) {
+            pending = enqueue(blockNumber);
+        } else {
+            mergedRequests++;
+        }
+        pending.readBuffers.add(dst);
+        pending.readers.add(future);
+        return future;
+    }
+
+    /**
+     * The block is copied from src at submission, so src may be reused right away.
+     */
+    synchronized CompletableFuture<Void> submitWrite(int blockNumber, ByteBuffer src) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        requests++;
+        PendingBlock pending = mergeable.get(blockNumber);
+        if (pending == null) {
+            pending = enqueue(blockNumber);
+        } else {
+            mergedRequests++;
+        }
+        if (pending.writeData == null) pending.writeData = new byte[blockLengthInBytes];
+        src.duplicate().get(pending.writeData);
+        pending.writers.add(future);
+        return future;
+    }
+
+    /**
+     * @param dst buffers the blocks are copied to at their current positions (positions are left unchanged);
+     *            they should not be touched until the future completes
+     */
+    synchronized CompletableFuture<Void> submitReadBlocks(int[] blockNumbers, ByteBuffer[] dst) {
+        requests++;
+        PendingBlocks pending = new PendingBlocks(blockNumbers, dst);
+        queue.add(pending);
+        // a write merged into an earlier entry would be served before this read
+        for (int blockNumber : blockNumbers) {
+            mergeable.remove(blockNumber);
+        }
+        startThread();
+        notifyAll();
+        return pending.future;
+    }
+
+    private PendingBlock enqueue(int blockNumber) {
+        PendingBlock pending = new PendingBlock(blockNumber);
+        queue.add(pending);
+        mergeable.put(blockNumber, pending);
+        startThread();
+        notifyAll();
+        return pending;
+    }
+
+    private void startThread() {
+        if (thread == null) {
+            thread = new Thread(this::serve, "iosystem-async");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Waits until all requests submitted so far are served.
+     */
+    synchronized void drain() {
+        if (Thread.currentThread() == thread) return;
+        boolean interrupted = false;
+        while (!queue.isEmpty() || busy) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void serve() {
+        byte[] block = new byte[blockLengthInBytes];
+        while (true) {
+            Object next;
+            synchronized (this) {
+                while (queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                next = queue.poll();
+                if (next instanceof PendingBlock) mergeable.remove(((PendingBlock) next).blockNumber, next);
+                busy = true;
+            }
+
+            if (next instanceof PendingBlocks) {
+                serve((PendingBlocks) next);
+            } else {
+                serve((PendingBlock) next, block);
+            }
+
+            synchronized (this) {
+                busy = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private void serve(PendingBlocks pending) {
+        try {
+            ioSystem.readBlocks(pending.blockNumbers, pending.dst);
+            pending.future.complete(null);
+        } catch (RuntimeException e) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    private void serve(PendingBlock pending, byte[] block) {
+        try {
+            if (!pending.readers.isEmpty()) {
+                ioSystem.read_block(pending.blockNumber, block, 0);
+                for (int i = 0; i < pending.readers.size(); i++) {
+                    pending.readBuffers.get(i).duplicate().put(block);
+                    pending.readers.get(i).complete(null);
+                }
+            }
+            if (pending.writeData != null) {
+                ioSystem.write_block(pending.blockNumber, pending.writeData);
+                for (CompletableFuture<Void> writer : pending.writers) writer.complete(null);
+            }
+        } catch (RuntimeException e) {
+            for (CompletableFuture<Void> reader : pending.readers) reader.completeExceptionally(e);
+            for (CompletableFuture<Void> writer : pending.writers) writer.completeExceptionally(e);
+        }
+    }
+
+    synchronized long getRequests() {
+        return requests;
+    }
+
+    synchronized long getMergedRequests() {
+        return mergedRequests;
+    }
+}
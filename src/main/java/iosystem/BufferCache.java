@@ -0,0 +1,387 @@
+package iosystem;
+
+import disk.BlockDevice;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded write-back cache of disk blocks, keyed by block number.
+ * <p>
+ * Blocks are kept in a fixed number of frames of one contiguous array and evicted with the CLOCK
+ * (second chance) algorithm: every hit sets the frame's reference bit, the clock hand clears
+ * reference bits until it finds a frame that was not used since the last sweep.
+ * Written blocks are only marked dirty; they reach the device when evicted or on flush().
+ * <p>
+ * The monitor guards the bookkeeping and the copies between frames and callers, not the device: a frame is
+ * marked loading or writingBack, the lock is dropped for the transfer and taken again to publish it.
+ * Such a frame is not evicted; a block being loaded is neither read nor written meanwhile, a block being written
+ * back may be read but not written. So misses and write-backs of different blocks overlap, and hits
+ * do not wait for them.
+ */
+public class BufferCache {
+    private final int capacity;
+    private final int blockLengthInBytes;
+    private final byte[] frames;
+    private final int[] frameBlock;
+    private final boolean[] referenced;
+    private final boolean[] dirty;
+    private final boolean[] loading;
+    private final boolean[] writingBack;
+    private final Map<Integer, Integer> blockToFrame;
+    private int clockHand;
+    private int usedFrames;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    /**
+     * @param capacity number of blocks the cache holds
+     */
+    BufferCache(int capacity, int blockLengthInBytes) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity should be positive");
+        this.capacity = capacity;
+        this.blockLengthInBytes = blockLengthInBytes;
+        frames = new byte[capacity * blockLengthInBytes];
+        frameBlock = new int[capacity];
+        referenced = new boolean[capacity];
+        dirty = new boolean[capacity];
+        loading = new boolean[capacity];
+        writingBack = new boolean[capacity];
+        blockToFrame = new HashMap<>(capacity * 2);
+        for (int i = 0; i < capacity; i++) {
+            frameBlock[i] = -1;
+        }
+    }
+
+    /**
+     * Copies count adjacent blocks starting at block #firstBlock to dst starting at its current position
+     * (position is left unchanged). Cached blocks are copied from the cache, every run of adjacent missing
+     * blocks is read from the device with one call straight into dst and then cached.
+     */
+    void readBlocks(BlockDevice device, int firstBlock, int count, ByteBuffer dst) {
+        boolean interrupted = false;
+        try {
+            // frames of the run being loaded, reused by every pass
+            int[] run = new int[count];
+            int i = 0;
+            while (i < count) {
+                int runLength = 0;
+                int victim = -1;
+                synchronized (this) {
+                    Integer frame = blockToFrame.get(firstBlock + i);
+                    if (frame != null) {
+                        if (loading[frame]) {
+                            interrupted |= awaitIO();
+                        } else {
+                            hits++;
+                            referenced[frame] = true;
+                            ByteBuffer view = dst.duplicate();
+                            view.position(dst.position() + i * blockLengthInBytes);
+                            view.put(frames, frame * blockLengthInBytes, blockLengthInBytes);
+                            i++;
+                        }
+                        continue;
+                    }
+
+                    // frames for the run of missing blocks, as long as clean ones are at hand
+                    while (i + runLength < count && !blockToFrame.containsKey(firstBlock + i + runLength)) {
+                        victim = findVictim();
+                        if (victim == -1 || dirty[victim]) break;
+                        run[runLength] = claimFrame(victim, firstBlock + i + runLength);
+                        loading[run[runLength++]] = true;
+                        victim = -1;
+                    }
+                    if (runLength == 0) {
+                        if (victim == -1) {
+                            interrupted |= awaitIO();
+                            continue;
+                        }
+                        writingBack[victim] = true;
+                    } else {
+                        misses += runLength;
+                        victim = -1;
+                    }
+                }
+
+                if (runLength == 0) {
+                    writeBack(device, victim);
+                    continue;
+                }
+                load(device, firstBlock + i, run, runLength, dst, i);
+                i += runLength;
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    void read(BlockDevice device, int blockNumber, byte[] dst, int offset) {
+        readBlocks(device, blockNumber, 1, ByteBuffer.wrap(dst, offset, blockLengthInBytes));
+    }
+
+    /**
+     * Copies count blocks from src starting at its current position (position is left unchanged) into the cache
+     * and marks them dirty. The device is not touched unless a dirty block has to be evicted.
+     */
+    void writeBlocks(BlockDevice device, int firstBlock, int count, ByteBuffer src) {
+        boolean interrupted = false;
+        try {
+            int i = 0;
+            while (i < count) {
+                int victim = -1;
+                synchronized (this) {
+                    Integer frame = blockToFrame.get(firstBlock + i);
+                    if (frame != null && (loading[frame] || writingBack[frame])) {
+                        interrupted |= awaitIO();
+                        continue;
+                    }
+                    if (frame != null) {
+                        hits++;
+                        referenced[frame] = true;
+                    } else {
+                        // a full-block write overwrites the frame, so nothing is read on a miss
+                        victim = findVictim();
+                        if (victim == -1) {
+                            interrupted |= awaitIO();
+                            continue;
+                        }
+                        if (dirty[victim]) {
+                            writingBack[victim] = true;
+                        } else {
+                            misses++;
+                            frame = claimFrame(victim, firstBlock + i);
+                            victim = -1;
+                        }
+                    }
+                    if (frame != null) {
+                        ByteBuffer view = src.duplicate();
+                        view.position(src.position() + i * blockLengthInBytes);
+                        view.get(frames, frame * blockLengthInBytes, blockLengthInBytes);
+                        dirty[frame] = true;
+                        i++;
+                    }
+                }
+                if (victim != -1) writeBack(device, victim);
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    void write(BlockDevice device, int blockNumber, byte[] src, int offset) {
+        writeBlocks(device, blockNumber, 1, ByteBuffer.wrap(src, offset, blockLengthInBytes));
+    }
+
+    /**
+     * Writes all dirty blocks back to the device in ascending block order, keeping them cached;
+     * returns once write-backs already under way are done as well. Every run of dirty blocks with
+     * adjacent numbers is one device request, so a striped device can spread it over its members.
+     */
+    void flush(BlockDevice device) {
+        long[] dirtyFrames = new long[capacity];
+        int count = 0;
+        synchronized (this) {
+            for (int frame = 0; frame < capacity; frame++) {
+                if (dirty[frame] && !writingBack[frame]) {
+                    writingBack[frame] = true;
+                    dirtyFrames[count++] = ((long) frameBlock[frame] << 32) | frame;
+                }
+            }
+        }
+        Arrays.sort(dirtyFrames, 0, count);
+
+        int written = 0;
+        try {
+            while (written < count) {
+                int firstBlock = (int) (dirtyFrames[written] >>> 32);
+                int runLength = 1;
+                while (written + runLength < count && (int) (dirtyFrames[written + runLength] >>> 32) == firstBlock + runLength) {
+                    runLength++;
+                }
+                if (runLength == 1) {
+                    int frame = (int) dirtyFrames[written];
+                    device.writeBlock(firstBlock, frames, frame * blockLengthInBytes);
+                } else {
+                    // frames of a run are anywhere in the array, they are gathered for the request
+                    byte[] run = new byte[runLength * blockLengthInBytes];
+                    for (int i = 0; i < runLength; i++) {
+                        int frame = (int) dirtyFrames[written + i];
+                        System.arraycopy(frames, frame * blockLengthInBytes, run, i * blockLengthInBytes, blockLengthInBytes);
+                    }
+                    device.writeBlocks(firstBlock, runLength, run, 0);
+                }
+                written += runLength;
+            }
+        } finally {
+            boolean interrupted = false;
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    int frame = (int) dirtyFrames[i];
+                    writingBack[frame] = false;
+                    if (i < written) {
+                        dirty[frame] = false;
+                        writeBacks++;
+                    }
+                }
+                notifyAll();
+                for (int frame = 0; frame < capacity; frame++) {
+                    while (writingBack[frame]) interrupted |= awaitIO();
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops all blocks without writing them back, once transfers under way are done.
+     */
+    synchronized void clear() {
+        boolean interrupted = false;
+        for (int frame = 0; frame < capacity; frame++) {
+            while (loading[frame] || writingBack[frame]) interrupted |= awaitIO();
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        blockToFrame.clear();
+        for (int frame = 0; frame < capacity; frame++) {
+            frameBlock[frame] = -1;
+            referenced[frame] = false;
+            dirty[frame] = false;
+        }
+        usedFrames = 0;
+        clockHand = 0;
+    }
+
+    /**
+     * Reads runLength adjacent blocks from block #firstBlock into the frames of run (marked loading)
+     * through dst, at block #dstBlock of it.
+     */
+    private void load(BlockDevice device, int firstBlock, int[] run, int runLength, ByteBuffer dst, int dstBlock) {
+        ByteBuffer view = dst.duplicate();
+        view.position(dst.position() + dstBlock * blockLengthInBytes);
+        boolean loaded = false;
+        try {
+            device.readBlocks(firstBlock, runLength, view);
+            loaded = true;
+        } finally {
+            synchronized (this) {
+                for (int i = 0; i < runLength; i++) {
+                    int frame = run[i];
+                    loading[frame] = false;
+                    if (loaded) {
+                        view.get(frames, frame * blockLengthInBytes, blockLengthInBytes);
+                    } else {
+                        // nothing valid was read, the frame goes back to the free ones
+                        blockToFrame.remove(frameBlock[frame]);
+                        frameBlock[frame] = -1;
+                        referenced[frame] = false;
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes the frame (marked writingBack) to the device; it stays cached, now clean.
+     */
+    private void writeBack(BlockDevice device, int frame) {
+        boolean written = false;
+        try {
+            device.writeBlock(frameBlock[frame], frames, frame * blockLengthInBytes);
+            written = true;
+        } finally {
+            synchronized (this) {
+                writingBack[frame] = false;
+                if (written) {
+                    dirty[frame] = false;
+                    writeBacks++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return an unused frame, else the next frame without I/O under way that CLOCK evicts (it may be dirty);
+     * -1 if every frame has I/O under way.
+     */
+    private int findVictim() {
+        if (usedFrames < capacity) return usedFrames++;
+        // CLOCK: give referenced frames a second chance; two sweeps reach a frame whose bit was cleared
+        for (int step = 0; step < 2 * capacity; step++) {
+            int frame = clockHand;
+            clockHand = (clockHand + 1) % capacity;
+            if (loading[frame] || writingBack[frame]) continue;
+            if (!referenced[frame]) {
+                // a dirty victim is written back first, the hand waits for it
+                if (dirty[frame]) clockHand = frame;
+                return frame;
+            }
+            referenced[frame] = false;
+        }
+        return -1;
+    }
+
+    /**
+     * Evicts the block of a clean frame and maps the frame to block #blockNumber.
+     */
+    private int claimFrame(int frame, int blockNumber) {
+        if (frameBlock[frame] != -1) {
+            blockToFrame.remove(frameBlock[frame]);
+            evictions++;
+        }
+        frameBlock[frame] = blockNumber;
+        referenced[frame] = true;
+        dirty[frame] = false;
+        blockToFrame.put(blockNumber, frame);
+        return frame;
+    }
+
+    /**
+     * Waits for a transfer to be published (lock held).
+     *
+     * @return true if the thread was interrupted meanwhile; callers keep waiting and restore the interrupt.
+     */
+    private boolean awaitIO() {
+        try {
+            wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+    public synchronized int getNumberOfDirtyBlocks() {
+        int count = 0;
+        for (boolean d : dirty) {
+            if (d) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,41 @@
+package iosystem;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Queued transfer of count adjacent blocks starting at block #firstBlock
+ * to or from buffer (starting at its current position, which is left unchanged).
+ */
+public class IORequest {
+    final int firstBlock;
+    final int count;
+    final boolean write;
+    final ByteBuffer buffer;
+
+    private IORequest(int firstBlock, int count, boolean write, ByteBuffer buffer) {
+        this.firstBlock = firstBlock;
+        this.count = count;
+        this.write = write;
+        this.buffer = buffer;
+    }
+
+    public static IORequest read(int firstBlock, int count, ByteBuffer dst) {
+        return new IORequest(firstBlock, count, false, dst);
+    }
+
+    public static IORequest write(int firstBlock, int count, ByteBuffer src) {
+        return new IORequest(firstBlock, count, true, src);
+    }
+
+    public int getFirstBlock() {
+        return firstBlock;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+}
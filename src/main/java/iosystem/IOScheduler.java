@@ -0,0 +1,290 @@
+package iosystem;
+
+import disk.BlockDevice;
+import disk.DiskGeometry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request queue in front of a block device.
+ * <p>
+ * Requests are collected with submit() and served by dispatch() in the order chosen by the
+ * scheduling policy. Every transfer is charged simulated time by the seek cost model from the
+ * cylinder distance, the rotational position of the platter and the number of sectors moved,
+ * so policies and layouts can be compared by total seek time and throughput.
+ * <p>
+ * Used as a BlockDevice, every call is a queue of depth 1 that is dispatched right away.
+ */
+public class IOScheduler implements BlockDevice {
+
+    /**
+     * Position and direction of the disk head, as seen by the scheduling policy.
+     */
+    class Head {
+        private int cylinder;
+        private boolean movingUp = true;
+
+        int getCylinder() {
+            return cylinder;
+        }
+
+        int getCylinder(IORequest request) {
+            return geometry.getCylinder(request.firstBlock);
+        }
+
+        boolean isMovingUp() {
+            return movingUp;
+        }
+
+        int getNumOfCylinders() {
+            return geometry.getNumOfCylinders();
+        }
+
+        void reverse() {
+            movingUp = !movingUp;
+        }
+
+        /**
+         * Moves the head to cylinder without transferring data (e.g. SCAN going on to the edge).
+         */
+        void travelTo(int newCylinder) {
+            seek(newCylinder);
+        }
+    }
+
+    private BlockDevice device;
+    private final DiskGeometry geometry;
+    private final SchedulingPolicy policy;
+    private final SeekCostModel costModel;
+    private final List<IORequest> queue;
+    private final Head head;
+
+    private long now;
+    private long requests;
+    private long blocks;
+    private long seeks;
+    private long cylindersTraveled;
+    private long seekTime;
+    private long rotationalLatency;
+    private long transferTime;
+
+    public IOScheduler(BlockDevice device, DiskGeometry geometry, SchedulingPolicy policy, SeekCostModel costModel) {
+        if (device.getNumberOfBlocks() != geometry.getNumberOfBlocks()
+                || device.getBlockLengthInBytes() != geometry.getBlockLengthInBytes())
+            throw new IllegalArgumentException("device does not match geometry " + geometry);
+        this.device = device;
+        this.geometry = geometry;
+        this.policy = policy;
+        this.costModel = costModel;
+        queue = new ArrayList<>();
+        head = new Head();
+    }
+
+    public synchronized void submit(IORequest request) {
+        queue.add(request);
+    }
+
+    /**
+     * Serves all queued requests in the order chosen by the policy.
+     */
+    public synchronized void dispatch() {
+        while (!queue.isEmpty()) {
+            IORequest request = queue.remove(policy.selectNext(queue, head));
+            serve(request);
+        }
+    }
+
+    private void serve(IORequest request) {
+        int cylinder = geometry.getCylinder(request.firstBlock);
+        if (!policy.isAlwaysMovingUp() && cylinder != head.cylinder) {
+            head.movingUp = cylinder > head.cylinder;
+        }
+        seek(cylinder);
+
+        // wait for the first sector, then transfer; moving to the next cylinder costs a short seek
+        int sector = geometry.getBlockLocation(request.firstBlock)[2];
+        int numOfSectors = geometry.getNumOfSectorsInTrack();
+        long latency = costModel.getRotationalLatency(now, sector, numOfSectors);
+        rotationalLatency += latency;
+        now += latency;
+
+        long transfer = request.count * costModel.getSectorTime(numOfSectors);
+        transferTime += transfer;
+        now += transfer;
+        seek(geometry.getCylinder(request.firstBlock + request.count - 1));
+
+        if (request.write) {
+            device.writeBlocks(request.firstBlock, request.count, request.buffer);
+        } else {
+            device.readBlocks(request.firstBlock, request.count, request.buffer);
+        }
+        requests++;
+        blocks += request.count;
+    }
+
+    private void seek(int cylinder) {
+        int distance = Math.abs(cylinder - head.cylinder);
+        if (distance == 0) return;
+        long time = costModel.getSeekTime(distance);
+        seeks++;
+        cylindersTraveled += distance;
+        seekTime += time;
+        now += time;
+        head.cylinder = cylinder;
+    }
+
+    public SchedulingPolicy getPolicy() {
+        return policy;
+    }
+
+    public synchronized Statistics getStatistics() {
+        return new Statistics(policy, requests, blocks, seeks, cylindersTraveled, seekTime, rotationalLatency, transferTime, now);
+    }
+
+    public synchronized void resetStatistics() {
+        requests = blocks = seeks = cylindersTraveled = 0;
+        seekTime = rotationalLatency = transferTime = now = 0;
+    }
+
+    synchronized void setDevice(BlockDevice newDevice) {
+        device = newDevice;
+    }
+
+    //*******************************************************************************************************/
+
+    @Override
+    public int getNumberOfBlocks() {
+        return device.getNumberOfBlocks();
+    }
+
+    @Override
+    public int getBlockLengthInBytes() {
+        return device.getBlockLengthInBytes();
+    }
+
+    @Override
+    public void readBlock(int blockNumber, byte[] dst, int offset) {
+        readBlocks(blockNumber, 1, ByteBuffer.wrap(dst, offset, getBlockLengthInBytes()));
+    }
+
+    @Override
+    public void writeBlock(int blockNumber, byte[] src, int offset) {
+        writeBlocks(blockNumber, 1, ByteBuffer.wrap(src, offset, getBlockLengthInBytes()));
+    }
+
+    @Override
+    public void readBlocks(int firstBlock, int count, byte[] dst, int offset) {
+        readBlocks(firstBlock, count, ByteBuffer.wrap(dst, offset, count * getBlockLengthInBytes()));
+    }
+
+    @Override
+    public void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+        writeBlocks(firstBlock, count, ByteBuffer.wrap(src, offset, count * getBlockLengthInBytes()));
+    }
+
+    @Override
+    public synchronized void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+        submit(IORequest.read(firstBlock, count, dst));
+        dispatch();
+    }
+
+    @Override
+    public synchronized void writeBlocks(int firstBlock, int count, ByteBuffer src) {
+        submit(IORequest.write(firstBlock, count, src));
+        dispatch();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        device.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        device.close();
+    }
+
+    //*******************************************************************************************************/
+
+    /**
+     * Snapshot of the simulated cost of everything dispatched since the last reset; times in microseconds.
+     */
+    public static class Statistics {
+        private final SchedulingPolicy policy;
+        private final long requests;
+        private final long blocks;
+        private final long seeks;
+        private final long cylindersTraveled;
+        private final long seekTime;
+        private final long rotationalLatency;
+        private final long transferTime;
+        private final long totalTime;
+
+        Statistics(SchedulingPolicy policy, long requests, long blocks, long seeks, long cylindersTraveled,
+                   long seekTime, long rotationalLatency, long transferTime, long totalTime) {
+            this.policy = policy;
+            this.requests = requests;
+            this.blocks = blocks;
+            this.seeks = seeks;
+            this.cylindersTraveled = cylindersTraveled;
+            this.seekTime = seekTime;
+            this.rotationalLatency = rotationalLatency;
+            this.transferTime = transferTime;
+            this.totalTime = totalTime;
+        }
+
+        public SchedulingPolicy getPolicy() {
+            return policy;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getBlocks() {
+            return blocks;
+        }
+
+        public long getSeeks() {
+            return seeks;
+        }
+
+        public long getCylindersTraveled() {
+            return cylindersTraveled;
+        }
+
+        public long getSeekTime() {
+            return seekTime;
+        }
+
+        public long getRotationalLatency() {
+            return rotationalLatency;
+        }
+
+        public long getTransferTime() {
+            return transferTime;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * @return blocks per simulated second.
+         */
+        public double getThroughput() {
+            return totalTime == 0 ? 0 : blocks * 1_000_000.0 / totalTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-6s requests = %d, blocks = %d, seeks = %d, cylinders = %d, seek time = %d us, " +
+                            "rotational latency = %d us, transfer = %d us, total = %d us, throughput = %.1f blocks/s",
+                    policy, requests, blocks, seeks, cylindersTraveled, seekTime, rotationalLatency,
+                    transferTime, totalTime, getThroughput());
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package iosystem;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the block I/O requested from one IOSystem.
+ * <p>
+ * Recording only increments preallocated counters (LongAdder cells are created once under contention),
+ * so it can stay on under load. The heat map has at most MAX_HEAT_MAP_CELLS cells; on larger disks
+ * one cell covers several adjacent blocks.
+ */
+public class IOStatistics implements IOStatisticsMXBean {
+    public static final int MAX_HEAT_MAP_CELLS = 1 << 16;
+    public static final int DEFAULT_FIRST_DATA_BLOCK = 8;
+    private static final int HISTOGRAM_BUCKETS = 64;
+
+    private final int blockLengthInBytes;
+    private final int blocksPerHeatMapCell;
+    private volatile int firstDataBlock = DEFAULT_FIRST_DATA_BLOCK;
+
+    private final LongAdder readCalls = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder metadataBlocksRead = new LongAdder();
+    private final LongAdder metadataBlocksWritten = new LongAdder();
+    private final LongAdder dataBlocksRead = new LongAdder();
+    private final LongAdder dataBlocksWritten = new LongAdder();
+    private final AtomicLongArray readLatency = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray writeLatency = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLongArray heatMap;
+    private final LongAdder readAheadHits = new LongAdder();
+    private final LongAdder readAheadMisses = new LongAdder();
+    private final LongAdder readAheadBlocks = new LongAdder();
+    private final LongAdder readAheadUnusedBlocks = new LongAdder();
+
+    IOStatistics(int numberOfBlocks, int blockLengthInBytes) {
+        this.blockLengthInBytes = blockLengthInBytes;
+        blocksPerHeatMapCell = (numberOfBlocks + MAX_HEAT_MAP_CELLS - 1) / MAX_HEAT_MAP_CELLS;
+        heatMap = new AtomicLongArray((numberOfBlocks + blocksPerHeatMapCell - 1) / blocksPerHeatMapCell);
+    }
+
+    /**
+     * Blocks below firstDataBlock (bitmap, file descriptors, directory) are counted as metadata;
+     * set by the file system from its layout.
+     */
+    public void setFirstDataBlock(int firstDataBlock) {
+        this.firstDataBlock = firstDataBlock;
+    }
+
+    void recordRead(int firstBlock, int count, long nanos) {
+        readCalls.increment();
+        readLatency.incrementAndGet(bucket(nanos));
+        recordBlocks(firstBlock, count, metadataBlocksRead, dataBlocksRead);
+    }
+
+    void recordRead(int[] blockNumbers, long nanos) {
+        readCalls.increment();
+        readLatency.incrementAndGet(bucket(nanos));
+        for (int blockNumber : blockNumbers) {
+            recordBlocks(blockNumber, 1, metadataBlocksRead, dataBlocksRead);
+        }
+    }
+
+    void recordWrite(int firstBlock, int count, long nanos) {
+        writeCalls.increment();
+        writeLatency.incrementAndGet(bucket(nanos));
+        recordBlocks(firstBlock, count, metadataBlocksWritten, dataBlocksWritten);
+    }
+
+    void recordWrite(int[] blockNumbers, long nanos) {
+        writeCalls.increment();
+        writeLatency.incrementAndGet(bucket(nanos));
+        for (int blockNumber : blockNumbers) {
+            recordBlocks(blockNumber, 1, metadataBlocksWritten, dataBlocksWritten);
+        }
+    }
+
+    /**
+     * A file block was taken from the read-ahead buffer of a handle.
+     */
+    public void recordReadAheadHit() {
+        readAheadHits.increment();
+    }
+
+    /**
+     * A file block had to be read on demand.
+     */
+    public void recordReadAheadMiss() {
+        readAheadMisses.increment();
+    }
+
+    /**
+     * @param blocks blocks fetched ahead by one read-ahead request
+     */
+    public void recordReadAhead(int blocks) {
+        readAheadBlocks.add(blocks);
+    }
+
+    /**
+     * @param blocks blocks fetched ahead and dropped without being used
+     */
+    public void recordReadAheadUnused(int blocks) {
+        readAheadUnusedBlocks.add(blocks);
+    }
+
+    private void recordBlocks(int firstBlock, int count, LongAdder metadata, LongAdder data) {
+        int metadataBlocks = Math.max(0, Math.min(count, firstDataBlock - firstBlock));
+        if (metadataBlocks > 0) metadata.add(metadataBlocks);
+        if (count > metadataBlocks) data.add(count - metadataBlocks);
+        for (int i = 0; i < count; i++) {
+            heatMap.incrementAndGet((firstBlock + i) / blocksPerHeatMapCell);
+        }
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    private static long[] toArray(AtomicLongArray counters) {
+        long[] array = new long[counters.length()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = counters.get(i);
+        }
+        return array;
+    }
+
+    //*******************************************************************************************************/
+
+    @Override
+    public long getReadCalls() {
+        return readCalls.sum();
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    @Override
+    public long getBlocksRead() {
+        return metadataBlocksRead.sum() + dataBlocksRead.sum();
+    }
+
+    @Override
+    public long getBlocksWritten() {
+        return metadataBlocksWritten.sum() + dataBlocksWritten.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return getBlocksRead() * blockLengthInBytes;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return getBlocksWritten() * blockLengthInBytes;
+    }
+
+    @Override
+    public long getMetadataBlocksRead() {
+        return metadataBlocksRead.sum();
+    }
+
+    @Override
+    public long getMetadataBlocksWritten() {
+        return metadataBlocksWritten.sum();
+    }
+
+    @Override
+    public long getDataBlocksRead() {
+        return dataBlocksRead.sum();
+    }
+
+    @Override
+    public long getDataBlocksWritten() {
+        return dataBlocksWritten.sum();
+    }
+
+    @Override
+    public int getFirstDataBlock() {
+        return firstDataBlock;
+    }
+
+    @Override
+    public long[] getReadLatencyHistogram() {
+        return toArray(readLatency);
+    }
+
+    @Override
+    public long[] getWriteLatencyHistogram() {
+        return toArray(writeLatency);
+    }
+
+    @Override
+    public long[] getHeatMap() {
+        return toArray(heatMap);
+    }
+
+    @Override
+    public int getBlocksPerHeatMapCell() {
+        return blocksPerHeatMapCell;
+    }
+
+    @Override
+    public long getReadAheadHits() {
+        return readAheadHits.sum();
+    }
+
+    @Override
+    public long getReadAheadMisses() {
+        return readAheadMisses.sum();
+    }
+
+    @Override
+    public double getReadAheadHitRate() {
+        return hitRate(getReadAheadHits(), getReadAheadMisses());
+    }
+
+    @Override
+    public long getReadAheadBlocks() {
+        return readAheadBlocks.sum();
+    }
+
+    @Override
+    public long getReadAheadUnusedBlocks() {
+        return readAheadUnusedBlocks.sum();
+    }
+
+    private static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Counters may be updated while they are cleared; a concurrent call is then counted partially.
+     */
+    @Override
+    public void reset() {
+        readCalls.reset();
+        writeCalls.reset();
+        metadataBlocksRead.reset();
+        metadataBlocksWritten.reset();
+        dataBlocksRead.reset();
+        dataBlocksWritten.reset();
+        readAheadHits.reset();
+        readAheadMisses.reset();
+        readAheadBlocks.reset();
+        readAheadUnusedBlocks.reset();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            readLatency.set(i, 0);
+            writeLatency.set(i, 0);
+        }
+        for (int i = 0; i < heatMap.length(); i++) {
+            heatMap.set(i, 0);
+        }
+    }
+
+    /**
+     * @return copy of all counters taken now (counters changed meanwhile may be partially included).
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Immutable copy of the counters.
+     */
+    public static class Snapshot {
+        private final long readCalls;
+        private final long writeCalls;
+        private final long metadataBlocksRead;
+        private final long metadataBlocksWritten;
+        private final long dataBlocksRead;
+        private final long dataBlocksWritten;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long[] readLatencyHistogram;
+        private final long[] writeLatencyHistogram;
+        private final long[] heatMap;
+        private final int blocksPerHeatMapCell;
+        private final long readAheadHits;
+        private final long readAheadMisses;
+        private final long readAheadBlocks;
+        private final long readAheadUnusedBlocks;
+
+        private Snapshot(IOStatistics statistics) {
+            readCalls = statistics.getReadCalls();
+            writeCalls = statistics.getWriteCalls();
+            metadataBlocksRead = statistics.getMetadataBlocksRead();
+            metadataBlocksWritten = statistics.getMetadataBlocksWritten();
+            dataBlocksRead = statistics.getDataBlocksRead();
+            dataBlocksWritten = statistics.getDataBlocksWritten();
+            bytesRead = (metadataBlocksRead + dataBlocksRead) * statistics.blockLengthInBytes;
+            bytesWritten = (metadataBlocksWritten + dataBlocksWritten) * statistics.blockLengthInBytes;
+            readLatencyHistogram = statistics.getReadLatencyHistogram();
+            writeLatencyHistogram = statistics.getWriteLatencyHistogram();
+            heatMap = statistics.getHeatMap();
+            blocksPerHeatMapCell = statistics.blocksPerHeatMapCell;
+            readAheadHits = statistics.getReadAheadHits();
+            readAheadMisses = statistics.getReadAheadMisses();
+            readAheadBlocks = statistics.getReadAheadBlocks();
+            readAheadUnusedBlocks = statistics.getReadAheadUnusedBlocks();
+        }
+
+        public long getReadCalls() {
+            return readCalls;
+        }
+
+        public long getWriteCalls() {
+            return writeCalls;
+        }
+
+        public long getBlocksRead() {
+            return metadataBlocksRead + dataBlocksRead;
+        }
+
+        public long getBlocksWritten() {
+            return metadataBlocksWritten + dataBlocksWritten;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getMetadataBlocksRead() {
+            return metadataBlocksRead;
+        }
+
+        public long getMetadataBlocksWritten() {
+            return metadataBlocksWritten;
+        }
+
+        public long getDataBlocksRead() {
+            return dataBlocksRead;
+        }
+
+        public long getDataBlocksWritten() {
+            return dataBlocksWritten;
+        }
+
+        public long[] getReadLatencyHistogram() {
+            return readLatencyHistogram.clone();
+        }
+
+        public long[] getWriteLatencyHistogram() {
+            return writeLatencyHistogram.clone();
+        }
+
+        /**
+         * @return accesses of the heat map cell that covers block #blockNumber.
+         */
+        public long getAccesses(int blockNumber) {
+            return heatMap[blockNumber / blocksPerHeatMapCell];
+        }
+
+        public long[] getHeatMap() {
+            return heatMap.clone();
+        }
+
+        public int getBlocksPerHeatMapCell() {
+            return blocksPerHeatMapCell;
+        }
+
+        public long getReadAheadHits() {
+            return readAheadHits;
+        }
+
+        public long getReadAheadMisses() {
+            return readAheadMisses;
+        }
+
+        public double getReadAheadHitRate() {
+            return hitRate(readAheadHits, readAheadMisses);
+        }
+
+        public long getReadAheadBlocks() {
+            return readAheadBlocks;
+        }
+
+        public long getReadAheadUnusedBlocks() {
+            return readAheadUnusedBlocks;
+        }
+
+        @Override
+        public String toString() {
+            return "reads: " + readCalls + " calls, " + metadataBlocksRead + " metadata + " + dataBlocksRead + " data blocks; "
+                    + "writes: " + writeCalls + " calls, " + metadataBlocksWritten + " metadata + " + dataBlocksWritten + " data blocks; "
+                    + String.format("read-ahead: %d blocks fetched (%d unused), hit rate %.2f",
+                    readAheadBlocks, readAheadUnusedBlocks, getReadAheadHitRate());
+        }
+    }
+}
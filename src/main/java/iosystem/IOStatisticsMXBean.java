@@ -0,0 +1,66 @@
+package iosystem;
+
+/**
+ * Block I/O counters of one IOSystem as published through JMX (see IOSystem.registerMBean).
+ * <p>
+ * Latency histograms have 64 buckets: bucket #i counts calls that took 2^i .. 2^(i+1) - 1 nanoseconds.
+ */
+public interface IOStatisticsMXBean {
+
+    long getReadCalls();
+
+    long getWriteCalls();
+
+    long getBlocksRead();
+
+    long getBlocksWritten();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getMetadataBlocksRead();
+
+    long getMetadataBlocksWritten();
+
+    long getDataBlocksRead();
+
+    long getDataBlocksWritten();
+
+    /**
+     * @return blocks below this number are counted as metadata.
+     */
+    int getFirstDataBlock();
+
+    long[] getReadLatencyHistogram();
+
+    long[] getWriteLatencyHistogram();
+
+    /**
+     * @return accesses (reads + writes) per heat map cell; cell #i covers blocks i * getBlocksPerHeatMapCell() ...
+     */
+    long[] getHeatMap();
+
+    int getBlocksPerHeatMapCell();
+
+    /**
+     * @return file blocks served from the read-ahead buffers of open files.
+     */
+    long getReadAheadHits();
+
+    /**
+     * @return file blocks of open files read on demand.
+     */
+    long getReadAheadMisses();
+
+    /**
+     * @return hits / (hits + misses), 0 before any file block is read.
+     */
+    double getReadAheadHitRate();
+
+    long getReadAheadBlocks();
+
+    long getReadAheadUnusedBlocks();
+
+    void reset();
+}
@@ -1,140 +1,676 @@
 package iosystem;
 
-import disk.Cylinder;
+import disk.ArrayBlockDevice;
+import disk.BlockDevice;
+import disk.DiskGeometry;
+import disk.DiskImage;
 import disk.LDisk;
-import disk.Track;
+import disk.MappedBlockDevice;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
 
 public class IOSystem {
+    public static final int DEFAULT_CACHE_CAPACITY = 64;
+    /**
+     * Delta records an image may carry, relative to the size of the disk, before a checkpoint compacts it.
+     */
+    public static final double MAX_DELTA_RATIO = 0.5;
 
     /**
-     * ldisk - the physical disk
+     * device - the physical disk, by default one contiguous array (see ArrayBlockDevice)
+     * <p>
+     * geometry - cylinders, tracks and sectors of the disk
      * <p>
      * (L) - numberOfBlocks - is the number of logical blocks
      * <p>
      * (B) - blockLengthInBytes  - is the block length, i.e., the number of bytes per block.
+     * <p>
+     * cache - write-back cache of recently used blocks shared by all users of the I/O system (null if disabled)
+     * <p>
+     * scheduler - request queue in front of the device that simulates seek cost (null if disabled)
+     * <p>
+     * async - queue of asynchronous requests, served by its own I/O thread
+     * <p>
+     * statistics - counters of the block I/O requested from the I/O system
+     * <p>
+     * dirtyBlocks - blocks written since the last checkpoint of the disk to checkpointImage
+     * (see checkpoint), guarded by itself
      */
-    private LDisk ldisk;
+    private BlockDevice device;
+    private IOScheduler scheduler;
+    private final AsyncIO async;
+    private final IOStatistics statistics;
+    private final BufferCache cache;
+    private final DiskGeometry geometry;
     private final int numberOfBlocks;
-    private static final int blockLengthInBytes = 64;
-    private final int numOfBlocksInOneCylinder;
-    private final int numOfBlocksInOneTrack;
-    private final int numOfBlocksInOneSector;
+    private final int blockLengthInBytes;
+    private final BitSet dirtyBlocks = new BitSet();
+    private File checkpointImage;
 
     public IOSystem(LDisk ldisk) {
-        this.ldisk = ldisk;
-        numberOfBlocks = LDisk.numOfBytes / blockLengthInBytes;
-        numOfBlocksInOneCylinder = (Cylinder.numOfBytes / blockLengthInBytes);
-        numOfBlocksInOneTrack = numOfBlocksInOneCylinder / Cylinder.numOfTracks;
-        numOfBlocksInOneSector = numOfBlocksInOneTrack / Track.numOfSectors;
+        this(new ArrayBlockDevice(ldisk), DiskGeometry.DEFAULT);
     }
 
-    public static int getBlockLengthInBytes() {
+    /**
+     * Creates an empty in-memory disk of the given geometry.
+     */
+    public IOSystem(DiskGeometry geometry) {
+        this(new ArrayBlockDevice(geometry), geometry);
+    }
+
+    public IOSystem(BlockDevice device, DiskGeometry geometry) {
+        this(device, geometry, DEFAULT_CACHE_CAPACITY);
+    }
+
+    /**
+     * @param cacheCapacity number of blocks kept in the buffer cache, 0 disables the cache
+     */
+    public IOSystem(BlockDevice device, DiskGeometry geometry, int cacheCapacity) {
+        if (device.getNumberOfBlocks() != geometry.getNumberOfBlocks()
+                || device.getBlockLengthInBytes() != geometry.getBlockLengthInBytes())
+            throw new IllegalArgumentException("device does not match geometry " + geometry);
+        this.device = device;
+        this.geometry = geometry;
+        numberOfBlocks = geometry.getNumberOfBlocks();
+        blockLengthInBytes = geometry.getBlockLengthInBytes();
+        cache = cacheCapacity > 0 ? new BufferCache(cacheCapacity, blockLengthInBytes) : null;
+        async = new AsyncIO(this);
+        statistics = new IOStatistics(numberOfBlocks, blockLengthInBytes);
+    }
+
+    public int getBlockLengthInBytes() {
         return blockLengthInBytes;
     }
 
+    public int getNumberOfBlocks() {
+        return numberOfBlocks;
+    }
+
+    public DiskGeometry getGeometry() {
+        return geometry;
+    }
+
     /**
      * @param blockNumber index of the block
      * @return int array that contains cylinder number, track number, sector number on disk, that correspond to the block.
      */
-    private int[] getBlockLocationOnDisk(int blockNumber) throws Exception {
-        int cylinderNumber = -1;
-        for (int k = 1; k <= LDisk.numOfCylinders; k++) {
-            if (blockNumber <= k * numOfBlocksInOneCylinder - 1) {
-                cylinderNumber = k - 1;
-                break;
-            }
+    public int[] getBlockLocationOnDisk(int blockNumber) {
+        checkBlockNumber(blockNumber);
+        return geometry.getBlockLocation(blockNumber);
+    }
+
+    /**
+     * Copies the logical block ldisk[blockNumber] into main memory starting at the location
+     * specified by the pointer p. The number of characters copied corresponds to the
+     * block length, B (blockLengthInBytes).
+     * <p>
+     * The block is copied with one bulk copy to the current position of buffer, the position is left unchanged.
+     *
+     * @param blockNumber the number of the logical block that should be read
+     * @param buffer      the pointer that specified the destination location in main memory for storage the block's copy
+     *                    (heap or direct buffer with at least B bytes remaining)
+     * @throws IllegalArgumentException
+     */
+    public void read_block(int blockNumber, ByteBuffer buffer) throws IllegalArgumentException {
+        checkBlockNumber(blockNumber);
+        checkBuffer(buffer, blockLengthInBytes);
+
+        long start = System.nanoTime();
+        readRange(blockNumber, 1, buffer);
+        statistics.recordRead(blockNumber, 1, System.nanoTime() - start);
+    }
+
+    /**
+     * Copies the logical block ldisk[blockNumber] into buffer[offset] .. buffer[offset + B - 1].
+     *
+     * @throws IllegalArgumentException
+     */
+    public void read_block(int blockNumber, byte[] buffer, int offset) throws IllegalArgumentException {
+        checkBlockNumber(blockNumber);
+        checkArray(buffer, offset);
+
+        long start = System.nanoTime();
+        if (cache != null) {
+            cache.read(target(), blockNumber, buffer, offset);
+        } else {
+            target().readBlock(blockNumber, buffer, offset);
         }
+        statistics.recordRead(blockNumber, 1, System.nanoTime() - start);
+    }
 
-        if (cylinderNumber < 0) throw new Exception("cannot define cylinder number for block #" + blockNumber);
+    /**
+     * Copies the number of character corresponding to the block length, B (blockLengthInBytes), from
+     * main memory starting at the location specified by the pointer p, into the logical
+     * block ldisk[blockNumber].
+     *
+     * @param blockNumber the number of the destination logical block to which the block should be written
+     * @param buffer      the pointer that specified the source location in main memory from which block will be copied
+     * @throws IllegalArgumentException
+     */
+    public void write_block(int blockNumber, byte[] buffer) throws IllegalArgumentException {
+        write_block(blockNumber, buffer, 0);
+    }
 
+    /**
+     * Copies buffer[offset] .. buffer[offset + B - 1] into the logical block ldisk[blockNumber].
+     *
+     * @throws IllegalArgumentException
+     */
+    public void write_block(int blockNumber, byte[] buffer, int offset) throws IllegalArgumentException {
+        checkBlockNumber(blockNumber);
+        checkArray(buffer, offset);
 
-        int trackNumber = -1;
-        int tempBlockNumber = blockNumber % numOfBlocksInOneCylinder;
+        long start = System.nanoTime();
+        if (cache != null) {
+            cache.write(target(), blockNumber, buffer, offset);
+        } else {
+            target().writeBlock(blockNumber, buffer, offset);
+        }
+        markDirty(blockNumber, 1);
+        statistics.recordWrite(blockNumber, 1, System.nanoTime() - start);
+    }
 
-        for (int k = 1; k <= Cylinder.numOfTracks; k++) {
-            if (tempBlockNumber <= k * numOfBlocksInOneTrack - 1) {
-                trackNumber = k - 1;
-                break;
+    /**
+     * Copies B bytes of buffer starting at its current position into the logical block ldisk[blockNumber]
+     * with one bulk copy; the position is left unchanged.
+     *
+     * @param buffer heap or direct buffer with at least B bytes remaining
+     * @throws IllegalArgumentException
+     */
+    public void write_block(int blockNumber, ByteBuffer buffer) throws IllegalArgumentException {
+        checkBlockNumber(blockNumber);
+        checkBuffer(buffer, blockLengthInBytes);
+
+        long start = System.nanoTime();
+        writeRange(blockNumber, 1, buffer);
+        markDirty(blockNumber, 1);
+        statistics.recordWrite(blockNumber, 1, System.nanoTime() - start);
+    }
+
+    /**
+     * Gather read: copies block #blockNumbers[i] into dst[i] starting at its current position
+     * (positions are left unchanged). All arguments are validated before any block is copied.
+     * Adjacent blocks going to adjacent parts of the same array are copied by the device in one go.
+     *
+     * @param blockNumbers numbers of the logical blocks that should be read
+     * @param dst          heap or direct buffers with at least B bytes remaining each
+     * @throws IllegalArgumentException
+     */
+    public void readBlocks(int[] blockNumbers, ByteBuffer[] dst) throws IllegalArgumentException {
+        checkVectoredArguments(blockNumbers, dst);
+
+        long start = System.nanoTime();
+        if (cache == null && scheduler != null) {
+            submitAll(blockNumbers, dst, false);
+        } else {
+            for (int i = 0; i < blockNumbers.length; ) {
+                int runLength = getRunLength(blockNumbers, dst, i);
+                readRange(blockNumbers[i], runLength, runBuffer(dst[i], runLength));
+                i += runLength;
             }
         }
+        statistics.recordRead(blockNumbers, System.nanoTime() - start);
+    }
 
-        if (trackNumber < 0) throw new Exception("cannot define track number for block #" + blockNumber);
-
-        int sectorNumber = -1;
-        tempBlockNumber %= numOfBlocksInOneTrack;
+    /**
+     * Scatter write: copies B bytes of src[i] starting at its current position into block #blockNumbers[i]
+     * (positions are left unchanged). All arguments are validated before any block is copied.
+     *
+     * @param blockNumbers numbers of the destination logical blocks
+     * @param src          heap or direct buffers with at least B bytes remaining each
+     * @throws IllegalArgumentException
+     */
+    public void writeBlocks(int[] blockNumbers, ByteBuffer[] src) throws IllegalArgumentException {
+        checkVectoredArguments(blockNumbers, src);
 
-        for (int k = 1; k <= Track.numOfSectors; k++) {
-            if (tempBlockNumber <= k * numOfBlocksInOneSector - 1) {
-                sectorNumber = k - 1;
-                break;
+        long start = System.nanoTime();
+        if (cache == null && scheduler != null) {
+            submitAll(blockNumbers, src, true);
+        } else {
+            for (int i = 0; i < blockNumbers.length; ) {
+                int runLength = getRunLength(blockNumbers, src, i);
+                writeRange(blockNumbers[i], runLength, runBuffer(src[i], runLength));
+                i += runLength;
             }
         }
+        markDirty(blockNumbers);
+        statistics.recordWrite(blockNumbers, System.nanoTime() - start);
+    }
 
-        if (sectorNumber < 0) throw new Exception("cannot define sector number for block #" + blockNumber);
+    /**
+     * Copies count adjacent blocks starting at block #firstBlock into dst starting at its current position
+     * (position is left unchanged).
+     *
+     * @param dst heap or direct buffer with at least count * B bytes remaining
+     * @throws IllegalArgumentException
+     */
+    public void readBlockRange(int firstBlock, int count, ByteBuffer dst) throws IllegalArgumentException {
+        checkBlockRange(firstBlock, count, dst);
 
-        int[] result = new int[3];
+        long start = System.nanoTime();
+        readRange(firstBlock, count, dst);
+        statistics.recordRead(firstBlock, count, System.nanoTime() - start);
+    }
 
-        result[0] = cylinderNumber;
-        result[1] = trackNumber;
-        result[2] = sectorNumber;
+    /**
+     * Copies count * B bytes of src starting at its current position into count adjacent blocks
+     * starting at block #firstBlock (position is left unchanged).
+     *
+     * @param src heap or direct buffer with at least count * B bytes remaining
+     * @throws IllegalArgumentException
+     */
+    public void writeBlockRange(int firstBlock, int count, ByteBuffer src) throws IllegalArgumentException {
+        checkBlockRange(firstBlock, count, src);
 
-        return result;
+        long start = System.nanoTime();
+        writeRange(firstBlock, count, src);
+        markDirty(firstBlock, count);
+        statistics.recordWrite(firstBlock, count, System.nanoTime() - start);
     }
 
     /**
-     * Copies the logical block ldisk[blockNumber] into main memory starting at the location
-     * specified by the pointer p. The number of characters copied corresponds to the
-     * block length, B (blockLengthInBytes).
+     * Queues a read of block #blockNumber into buffer at its current position (position is left unchanged)
+     * and returns at once; the I/O thread completes the future when the block has been copied.
+     * buffer should not be touched until then. A read of a block that is already queued is merged with it.
      *
-     * @param blockNumber the number of the logical block that should be read
-     * @param buffer      the pointer that specified the destination location in main memory for storage the block's copy
+     * @param buffer heap or direct buffer with at least B bytes remaining
      * @throws IllegalArgumentException
-     * @throws Exception
      */
-    public void read_block(int blockNumber, ByteBuffer buffer) throws IllegalArgumentException, Exception {
-        if (0 > blockNumber || blockNumber >= numberOfBlocks)
-            throw new IllegalArgumentException("(blockNumber) should be: (0 <= blockNumber || blockNumber < numberOfBlocks); blockNumber = " + blockNumber + "; numberOfBlocks = " + numberOfBlocks);
-        if (buffer.array().length != blockLengthInBytes)
-            throw new IllegalArgumentException("buffer.length != blockLengthInBytes");
+    public CompletableFuture<Void> submitRead(int blockNumber, ByteBuffer buffer) throws IllegalArgumentException {
+        checkBlockNumber(blockNumber);
+        checkBuffer(buffer, blockLengthInBytes);
 
-        int[] blockLocation = getBlockLocationOnDisk(blockNumber);
+        return async.submitRead(blockNumber, buffer);
+    }
 
-        for (int k = 0; k < blockLengthInBytes; k++) {
-            buffer.put(k, ldisk.cylinders[blockLocation[0]].tracks[blockLocation[1]].sectors[blockLocation[2]].bytes[k]);
-        }
+    /**
+     * Queues a gather read of block #blockNumbers[i] into dst[i] (see readBlocks) and returns at once;
+     * the I/O thread serves the whole request with one vectored read and then completes the future.
+     * The buffers should not be touched until then.
+     *
+     * @throws IllegalArgumentException
+     */
+    public CompletableFuture<Void> submitReadBlocks(int[] blockNumbers, ByteBuffer[] dst) throws IllegalArgumentException {
+        checkVectoredArguments(blockNumbers, dst);
+
+        return async.submitReadBlocks(blockNumbers.clone(), dst.clone());
     }
 
     /**
-     * Copies the number of character corresponding to the block length, B (blockLengthInBytes), from
-     * main memory starting at the location specified by the pointer p, into the logical
-     * block ldisk[blockNumber].
+     * Queues a write of B bytes of buffer (from its current position) into block #blockNumber and returns at once.
+     * The bytes are copied before returning, so buffer may be reused right away.
+     * Queued writes of the same block are merged, the last one wins.
      *
-     * @param blockNumber the number of the destination logical block to which the block should be written
-     * @param buffer      the pointer that specified the source location in main memory from which block will be copied
      * @throws IllegalArgumentException
-     * @throws Exception
      */
-    public void write_block(int blockNumber, byte[] buffer) throws IllegalArgumentException, Exception {
+    public CompletableFuture<Void> submitWrite(int blockNumber, ByteBuffer buffer) throws IllegalArgumentException {
+        checkBlockNumber(blockNumber);
+        checkBuffer(buffer, blockLengthInBytes);
+
+        markDirty(blockNumber, 1);
+        return async.submitWrite(blockNumber, buffer);
+    }
+
+    /**
+     * Waits until all asynchronous requests submitted so far are served.
+     */
+    public void awaitAsync() {
+        async.drain();
+    }
+
+    /**
+     * @return number of asynchronous requests submitted / merged with an already queued request.
+     */
+    public long getAsyncRequests() {
+        return async.getRequests();
+    }
+
+    public long getMergedAsyncRequests() {
+        return async.getMergedRequests();
+    }
+
+    private void readRange(int firstBlock, int count, ByteBuffer dst) {
+        if (cache != null) {
+            cache.readBlocks(target(), firstBlock, count, dst);
+        } else {
+            target().readBlocks(firstBlock, count, dst);
+        }
+    }
+
+    private void markDirty(int firstBlock, int count) {
+        synchronized (dirtyBlocks) {
+            dirtyBlocks.set(firstBlock, firstBlock + count);
+        }
+    }
+
+    private void markDirty(int[] blockNumbers) {
+        synchronized (dirtyBlocks) {
+            for (int blockNumber : blockNumbers) {
+                dirtyBlocks.set(blockNumber);
+            }
+        }
+    }
+
+    /**
+     * @return the blocks written since the last checkpoint; the set is empty afterwards.
+     */
+    private BitSet takeDirtyBlocks() {
+        synchronized (dirtyBlocks) {
+            BitSet taken = (BitSet) dirtyBlocks.clone();
+            dirtyBlocks.clear();
+            return taken;
+        }
+    }
+
+    private void writeRange(int firstBlock, int count, ByteBuffer src) {
+        if (cache != null) {
+            cache.writeBlocks(target(), firstBlock, count, src);
+        } else {
+            target().writeBlocks(firstBlock, count, src);
+        }
+    }
+
+    /**
+     * Queues every run of a vectored request at once, so the scheduler can reorder them.
+     */
+    private void submitAll(int[] blockNumbers, ByteBuffer[] buffers, boolean write) {
+        synchronized (scheduler) {
+            for (int i = 0; i < blockNumbers.length; ) {
+                int runLength = getRunLength(blockNumbers, buffers, i);
+                ByteBuffer buffer = runBuffer(buffers[i], runLength);
+                scheduler.submit(write ? IORequest.write(blockNumbers[i], runLength, buffer)
+                        : IORequest.read(blockNumbers[i], runLength, buffer));
+                i += runLength;
+            }
+            scheduler.dispatch();
+        }
+    }
+
+    /**
+     * @return the scheduler if there is one, otherwise the device itself.
+     */
+    private BlockDevice target() {
+        return scheduler != null ? scheduler : device;
+    }
+
+    /**
+     * @return number of blocks starting at index start that are adjacent both on disk and in memory.
+     */
+    private int getRunLength(int[] blockNumbers, ByteBuffer[] buffers, int start) {
+        int end = start + 1;
+        if (!buffers[start].hasArray()) return 1;
+        while (end < blockNumbers.length
+                && blockNumbers[end] == blockNumbers[end - 1] + 1
+                && buffers[end].hasArray()
+                && buffers[end].array() == buffers[start].array()
+                && arrayPosition(buffers[end]) == arrayPosition(buffers[end - 1]) + blockLengthInBytes) {
+            end++;
+        }
+        return end - start;
+    }
+
+    private static int arrayPosition(ByteBuffer buffer) {
+        return buffer.arrayOffset() + buffer.position();
+    }
+
+    /**
+     * @return buffer itself, or a view of the whole run when the run spans several adjacent buffers of one array.
+     */
+    private ByteBuffer runBuffer(ByteBuffer buffer, int runLength) {
+        if (runLength == 1) return buffer;
+        return ByteBuffer.wrap(buffer.array(), arrayPosition(buffer), runLength * blockLengthInBytes);
+    }
+
+    private void checkVectoredArguments(int[] blockNumbers, ByteBuffer[] buffers) {
+        if (blockNumbers.length != buffers.length)
+            throw new IllegalArgumentException("blockNumbers.length != buffers.length");
+        for (int i = 0; i < blockNumbers.length; i++) {
+            checkBlockNumber(blockNumbers[i]);
+            checkBuffer(buffers[i], blockLengthInBytes);
+        }
+    }
+
+    private void checkBlockRange(int firstBlock, int count, ByteBuffer buffer) {
+        if (count < 0)
+            throw new IllegalArgumentException("count should not be negative; count = " + count);
+        if (count == 0) return;
+        checkBlockNumber(firstBlock);
+        checkBlockNumber(firstBlock + count - 1);
+        checkBuffer(buffer, (long) count * blockLengthInBytes);
+    }
+
+    private void checkArray(byte[] buffer, int offset) {
+        if (offset < 0 || buffer.length - offset < blockLengthInBytes)
+            throw new IllegalArgumentException("buffer should hold B bytes starting at offset; length = " + buffer.length + ", offset = " + offset);
+    }
+
+    private static void checkBuffer(ByteBuffer buffer, long length) {
+        if (buffer.remaining() < length)
+            throw new IllegalArgumentException("buffer.remaining() < " + length + "; remaining = " + buffer.remaining());
+    }
+
+    private void checkBlockNumber(int blockNumber) {
         if (0 > blockNumber || blockNumber >= numberOfBlocks)
             throw new IllegalArgumentException("(blockNumber) should be: (0 <= blockNumber || blockNumber < numberOfBlocks); blockNumber = " + blockNumber + "; numberOfBlocks = " + numberOfBlocks);
-        if (buffer.length != blockLengthInBytes)
-            throw new IllegalArgumentException("Byte[] p.length != blockLengthInBytes; p.length = " + buffer.length);
+    }
 
-        int[] blockLocation = getBlockLocationOnDisk(blockNumber);
+    public BlockDevice getDevice() {
+        return device;
+    }
 
-        for (int k = 0; k < blockLengthInBytes; k++) {
-            ldisk.cylinders[blockLocation[0]].tracks[blockLocation[1]].sectors[blockLocation[2]].bytes[k] = buffer[k];
+    /**
+     * @return the buffer cache, or null if it is disabled.
+     */
+    public BufferCache getCache() {
+        return cache;
+    }
+
+    public IOStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Publishes the statistics in the platform MBean server as iosystem:type=IOStatistics,name=(name).
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = getMBeanName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, objectName);
+        return objectName;
+    }
+
+    public void unregisterMBean(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(getMBeanName(name));
+    }
+
+    private static ObjectName getMBeanName(String name) throws JMException {
+        return new ObjectName("iosystem:type=IOStatistics,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * @return the I/O scheduler, or null if requests go straight to the device.
+     */
+    public IOScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Puts a request queue served in policy order in front of the device (between the cache and the device);
+     * null policy removes it.
+     */
+    public void setScheduler(SchedulingPolicy policy, SeekCostModel costModel) {
+        flushCache();
+        scheduler = policy != null ? new IOScheduler(device, geometry, policy, costModel) : null;
+    }
+
+    /**
+     * Replaces the disk, closing the previous one.
+     */
+    public void setDevice(BlockDevice newDevice) throws IOException {
+        if (newDevice.getNumberOfBlocks() != numberOfBlocks || newDevice.getBlockLengthInBytes() != blockLengthInBytes)
+            throw new IllegalArgumentException("device geometry does not match the I/O system");
+        awaitAsync();
+        BlockDevice oldDevice = device;
+        if (cache != null) {
+            cache.flush(target());
+            cache.clear();
         }
+        device = newDevice;
+        if (scheduler != null) scheduler.setDevice(newDevice);
+        takeDirtyBlocks();
+        setCheckpointImage(null);
+        if (oldDevice != newDevice) oldDevice.close();
     }
 
-    public void setLdisk(LDisk disk) {
-        ldisk = disk;
+    /**
+     * Maps the disk image fileName (see DiskImage) and uses it as the disk.
+     * The image is created zero-filled if it does not exist.
+     *
+     * @throws IOException if the image has another geometry
+     */
+    public void mount(String fileName) throws IOException {
+        setDevice(DiskImage.map(new File(fileName), geometry));
     }
 
+    /**
+     * Copies the disk image fileName into the current disk with sequential reads.
+     *
+     * @throws IOException if the image has no header or another geometry
+     */
+    public void loadImage(String fileName) throws IOException {
+        awaitAsync();
+        if (cache != null) cache.clear();
+        File file = new File(fileName).getCanonicalFile();
+        DiskImage.load(file, device, geometry);
+        setCheckpointImage(file);
+    }
+
+    /**
+     * Makes the disk durable in fileName as a disk image.
+     * If the disk is mapped from that very file this is just a force() of the mapping,
+     * otherwise all blocks are streamed to a new image that replaces the file once it is complete.
+     */
+    public void saveImage(String fileName) throws IOException {
+        File file = new File(fileName).getCanonicalFile();
+        if (device instanceof MappedBlockDevice && ((MappedBlockDevice) device).getFile().equals(file)) {
+            flush();
+            return;
+        }
+
+        // blocks written from now on are dirty again, whether or not they are in the saved image
+        takeDirtyBlocks();
+        flushCache();
+        try {
+            DiskImage.save(device, geometry, file);
+            setCheckpointImage(file);
+        } catch (IOException e) {
+            setCheckpointImage(null);
+            throw e;
+        }
+    }
+
+    /**
+     * Makes the disk durable in fileName, writing only what changed since the last checkpoint when possible.
+     * <p>
+     * If fileName is the image the disk was last loaded from or saved to, the blocks written since then are
+     * appended to it as delta records (see DiskImage.append), so the cost follows the amount of change
+     * rather than the size of the disk. Once the deltas would outgrow MAX_DELTA_RATIO of the disk the image
+     * is compacted by writing it whole (see saveImage), as it is when fileName is any other file.
+     * An image mapped as the disk is only forced: only its dirty pages reach the storage device.
+     */
+    public void checkpoint(String fileName) throws IOException {
+        File file = new File(fileName).getCanonicalFile();
+        if (device instanceof MappedBlockDevice && ((MappedBlockDevice) device).getFile().equals(file)) {
+            takeDirtyBlocks();
+            flush();
+            return;
+        }
+
+        if (!file.equals(getCheckpointImage())) {
+            saveImage(fileName);
+            return;
+        }
+        BitSet changed = takeDirtyBlocks();
+        flushCache();
+        long deltaLength = DiskImage.getDeltaLength(file, geometry)
+                + DiskImage.getDeltaLength(changed, blockLengthInBytes);
+        if (deltaLength > geometry.getDiskSizeInBytes() * MAX_DELTA_RATIO) {
+            saveImage(fileName);
+            return;
+        }
+        try {
+            DiskImage.append(device, geometry, file, changed);
+        } catch (IOException e) {
+            // the image may end in a partial delta, the next checkpoint writes it whole
+            setCheckpointImage(null);
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of blocks written since the last checkpoint.
+     */
+    public int getNumberOfDirtyBlocks() {
+        synchronized (dirtyBlocks) {
+            return dirtyBlocks.cardinality();
+        }
+    }
+
+    private File getCheckpointImage() {
+        synchronized (dirtyBlocks) {
+            return checkpointImage;
+        }
+    }
+
+    private void setCheckpointImage(File image) {
+        synchronized (dirtyBlocks) {
+            checkpointImage = image;
+        }
+    }
+
+    /**
+     * Waits for queued asynchronous requests and writes dirty cached blocks back to the device.
+     */
+    public void flushCache() {
+        awaitAsync();
+        if (cache != null) cache.flush(target());
+    }
+
+    /**
+     * Writes dirty cached blocks back and makes the device durable.
+     */
+    public void flush() throws IOException {
+        flushCache();
+        device.flush();
+    }
+
+    /**
+     * Replaces the disk with a copy of the legacy LDisk object graph (only for the default geometry).
+     */
+    public void setLdisk(LDisk disk) throws IOException {
+        setDevice(new ArrayBlockDevice(disk));
+    }
+
+    /**
+     * @return a snapshot of the disk as the legacy LDisk object graph (only for the default geometry).
+     */
     public LDisk getLdisk() {
-        return ldisk;
+        flushCache();
+        if (device instanceof ArrayBlockDevice) {
+            return ((ArrayBlockDevice) device).toLDisk();
+        }
+        ArrayBlockDevice copy = new ArrayBlockDevice(numberOfBlocks, blockLengthInBytes);
+        byte[] block = new byte[blockLengthInBytes];
+        for (int i = 0; i < numberOfBlocks; i++) {
+            device.readBlock(i, block, 0);
+            copy.writeBlock(i, block, 0);
+        }
+        return copy.toLDisk();
     }
 }
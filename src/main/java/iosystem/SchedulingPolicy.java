@@ -0,0 +1,103 @@
+package iosystem;
+
+import java.util.List;
+
+/**
+ * Order in which IOScheduler serves queued requests.
+ */
+public enum SchedulingPolicy {
+    /**
+     * Requests are served in submission order.
+     */
+    FIFO {
+        @Override
+        int selectNext(List<IORequest> queue, IOScheduler.Head head) {
+            return 0;
+        }
+    },
+
+    /**
+     * Shortest seek time first: the request on the nearest cylinder.
+     */
+    SSTF {
+        @Override
+        int selectNext(List<IORequest> queue, IOScheduler.Head head) {
+            int best = 0;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int i = 0; i < queue.size(); i++) {
+                int distance = Math.abs(head.getCylinder(queue.get(i)) - head.getCylinder());
+                if (distance < bestDistance) {
+                    best = i;
+                    bestDistance = distance;
+                }
+            }
+            return best;
+        }
+    },
+
+    /**
+     * Elevator: the head sweeps in one direction serving requests on the way,
+     * goes on to the last cylinder and then sweeps back.
+     */
+    SCAN {
+        @Override
+        int selectNext(List<IORequest> queue, IOScheduler.Head head) {
+            int next = nearestAhead(queue, head);
+            if (next == -1) {
+                head.travelTo(head.isMovingUp() ? head.getNumOfCylinders() - 1 : 0);
+                head.reverse();
+                next = nearestAhead(queue, head);
+            }
+            return next;
+        }
+    },
+
+    /**
+     * Circular LOOK: the head serves requests only while moving up; when there are none left above it,
+     * it jumps back to the lowest requested cylinder.
+     */
+    C_LOOK {
+        @Override
+        int selectNext(List<IORequest> queue, IOScheduler.Head head) {
+            int next = nearestAhead(queue, head);
+            if (next != -1) return next;
+
+            int lowest = 0;
+            for (int i = 1; i < queue.size(); i++) {
+                if (head.getCylinder(queue.get(i)) < head.getCylinder(queue.get(lowest))) lowest = i;
+            }
+            return lowest;
+        }
+
+        @Override
+        boolean isAlwaysMovingUp() {
+            return true;
+        }
+    };
+
+    /**
+     * @return index of the request in queue (not empty) that should be served next.
+     */
+    abstract int selectNext(List<IORequest> queue, IOScheduler.Head head);
+
+    boolean isAlwaysMovingUp() {
+        return false;
+    }
+
+    /**
+     * @return index of the nearest request in the direction the head moves, or -1.
+     */
+    static int nearestAhead(List<IORequest> queue, IOScheduler.Head head) {
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < queue.size(); i++) {
+            int distance = head.getCylinder(queue.get(i)) - head.getCylinder();
+            if (!head.isMovingUp()) distance = -distance;
+            if (distance >= 0 && distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,56 @@
+package iosystem;
+
+/**
+ * Simulated timing of a rotational disk, in microseconds.
+ * <p>
+ * Moving the head between cylinders costs settle time + time per cylinder crossed.
+ * The platter keeps rotating, so after the seek the head waits until the requested sector
+ * comes under it (rotational latency); reading or writing a sector takes rotation time / sectors per track.
+ */
+public class SeekCostModel {
+    /**
+     * 7200 rpm drive: 8333 us per rotation, 1 ms settle, 20 us per cylinder.
+     */
+    public static final SeekCostModel DEFAULT = new SeekCostModel(1000, 20, 8333);
+
+    private final long settleTime;
+    private final long timePerCylinder;
+    private final long rotationTime;
+
+    public SeekCostModel(long settleTime, long timePerCylinder, long rotationTime) {
+        if (settleTime < 0 || timePerCylinder < 0 || rotationTime <= 0)
+            throw new IllegalArgumentException("times should not be negative, rotation time should be positive");
+        this.settleTime = settleTime;
+        this.timePerCylinder = timePerCylinder;
+        this.rotationTime = rotationTime;
+    }
+
+    /**
+     * @return time to move the head over distance cylinders.
+     */
+    public long getSeekTime(int distance) {
+        return distance == 0 ? 0 : settleTime + timePerCylinder * Math.abs(distance);
+    }
+
+    /**
+     * @return time the head waits at time now until sector of a track with numOfSectors sectors comes under it.
+     */
+    public long getRotationalLatency(long now, int sector, int numOfSectors) {
+        long sectorTime = getSectorTime(numOfSectors);
+        long positionInRotation = now % rotationTime;
+        long sectorStart = sector * sectorTime;
+        long wait = sectorStart - positionInRotation;
+        return wait >= 0 ? wait : wait + rotationTime;
+    }
+
+    /**
+     * @return time to transfer one sector of a track with numOfSectors sectors.
+     */
+    public long getSectorTime(int numOfSectors) {
+        return rotationTime / numOfSectors;
+    }
+
+    public long getRotationTime() {
+        return rotationTime;
+    }
+}
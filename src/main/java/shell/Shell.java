@@ -1,9 +1,11 @@
 package shell;
 
+import disk.ArrayBlockDevice;
 import filesystem.FileSystem;
 import iosystem.IOSystem;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Scanner;
@@ -111,13 +113,23 @@ public class Shell {
                     break;
                 }
                 case "dr": {
-                    if (input.length != 1 || !fsInitialized) {
+                    if (input.length > 2 || !fsInitialized) {
                         System.out.println("error");
+                    } else if (input.length == 2) {
+                        directory(input[1]);
                     } else {
                         directory();
                     }
                     break;
                 }
+                case "md": {
+                    if (input.length != 2 || !fsInitialized) {
+                        System.out.println("error");
+                    } else {
+                        mkdir(input[1]);
+                    }
+                    break;
+                }
 
                 case "in": {
                     if (input.length > 2) {
@@ -143,7 +155,7 @@ public class Shell {
 
                 default: {
                     System.out.println("Invalid input. Shell works with such operations: cr <name>, de <name>, op <name>, cl <index>, " +
-                            "rd <index> <count>, wr <index> <char> <count>, sk <index> <pos>, dr, in <disk_cont>, sv <disk_cont>");
+                            "rd <index> <count>, wr <index> <char> <count>, sk <index> <pos>, dr [<dir>], md <dir>, in <disk_cont>, sv <disk_cont>");
                     break;
                 }
             }
@@ -233,12 +245,34 @@ public class Shell {
         fileSystem.directory();
     }
 
+    private void directory(String path) {
+        if (fileSystem.directory(path) == FileSystem.STATUS_ERROR) {
+            System.out.println("error");
+        }
+    }
+
+    private void mkdir(String path) {
+        if (fileSystem.mkdir(path) == FileSystem.STATUS_ERROR) {
+            System.out.println("error");
+            return;
+        }
+        System.out.println("directory \'" + path + "\' created");
+    }
+
     private void init(String fileName) {
+        closeFileSystem();
         File f = new File(fileName);
         if (f.exists()) {
             fileSystem = new FileSystem(ioSystem, fileName);
             System.out.println("disk restored");
         } else {
+            // new disk lives in a mapped image, so it may be bigger than the heap
+            try {
+                ioSystem.mount(fileName);
+            } catch (IOException e) {
+                System.out.println("error");
+                return;
+            }
             fileSystem = new FileSystem(ioSystem);
             System.out.println("disk initialized");
         }
@@ -246,11 +280,30 @@ public class Shell {
     }
 
     private void init() {
+        closeFileSystem();
+        // a previously restored image is mapped - start the new disk in memory instead of overwriting it
+        try {
+            ioSystem.setDevice(new ArrayBlockDevice(ioSystem.getGeometry()));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("error");
+            return;
+        }
         fileSystem = new FileSystem(ioSystem);
         System.out.println("disk initialized");
         fsInitialized = true;
     }
 
+    /**
+     * The file system being replaced would otherwise keep its journal thread and file.
+     */
+    private void closeFileSystem() {
+        if (fileSystem != null) {
+            fileSystem.close();
+            fileSystem = null;
+            fsInitialized = false;
+        }
+    }
+
     private void save(String fileName) {
         fileSystem.saveFileSystemToFile(fileName);
         System.out.println("disk saved");
@@ -0,0 +1,67 @@
+package benchmark;
+
+import disk.DiskGeometry;
+import filesystem.BlockAllocator;
+import filesystem.FileSystem;
+import filesystem.FirstFitAllocator;
+import filesystem.GoalDirectedAllocator;
+import filesystem.NextFitAllocator;
+import iosystem.IOSystem;
+
+import java.util.Random;
+
+/**
+ * Replays the same append / destroy trace under every allocator and prints extents per file,
+ * allocation latency and free space fragmentation.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.AllocationPolicyReport
+ */
+public class AllocationPolicyReport {
+    private static final DiskGeometry GEOMETRY = new DiskGeometry(64, 2, 8, 512);
+    private static final int FILES = 12;
+    private static final int ROUNDS = 4;
+
+    public static void main(String[] args) {
+        System.out.println(FILES + " files growing in turns, half of them destroyed and rewritten "
+                + ROUNDS + " times, " + GEOMETRY);
+        report(new FirstFitAllocator());
+        report(new NextFitAllocator());
+        report(new GoalDirectedAllocator(GEOMETRY.getNumOfBlocksInOneCylinder()));
+    }
+
+    private static void report(BlockAllocator allocator) {
+        FileSystem fileSystem = new FileSystem(new IOSystem(GEOMETRY));
+        fileSystem.setAllocator(allocator);
+        Random random = new Random(42);
+        byte[] block = new byte[GEOMETRY.getBlockLengthInBytes()];
+
+        int[] lengths = new int[FILES];
+
+        for (int i = 0; i < FILES; i++) fileSystem.create(name(i));
+        for (int round = 0; round < ROUNDS; round++) {
+            // appends from all files interleave, like concurrent writers
+            for (int appends = 0; appends < FILES * 4; appends++) {
+                int file = random.nextInt(FILES);
+                int handle = fileSystem.open(name(file));
+                fileSystem.lseek(handle, lengths[file]);
+                lengths[file] += fileSystem.write(handle, block, block.length);
+                fileSystem.close(handle);
+            }
+            if (round == ROUNDS - 1) break;
+            for (int i = 0; i < FILES; i += 2) {
+                fileSystem.destroy(name(i));
+                fileSystem.create(name(i));
+                lengths[i] = 0;
+            }
+        }
+
+        int extents = 0;
+        for (int i = 0; i < FILES; i++) extents += fileSystem.getNumberOfExtents(name(i));
+        System.out.printf("%-24s %.2f extents per file%n", allocator.getClass().getSimpleName(), (double) extents / FILES);
+        System.out.println("    " + fileSystem.getAllocationStatistics());
+    }
+
+    private static String name(int i) {
+        return String.format("f%03d", i);
+    }
+}
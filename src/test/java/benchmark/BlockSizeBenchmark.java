@@ -0,0 +1,73 @@
+package benchmark;
+
+import disk.ArrayBlockDevice;
+import disk.DiskGeometry;
+import iosystem.IOSystem;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential block throughput of IOSystem for different block sizes.
+ * Every invocation moves BYTES_PER_INVOCATION bytes, so ops/s * 1 MiB = MiB/s.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.BlockSizeBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockSizeBenchmark {
+    private static final int BYTES_PER_INVOCATION = 1 << 20;
+    private static final long DISK_SIZE_IN_BYTES = 64L << 20;
+
+    @Param({"64", "512", "4096", "65536"})
+    public int blockLengthInBytes;
+
+    private IOSystem ioSystem;
+    private ByteBuffer readBuffer;
+    private byte[] writeBuffer;
+    private int blocksPerInvocation;
+    private int nextBlock;
+
+    @Setup
+    public void setUp() {
+        // no buffer cache: measure the device itself
+        DiskGeometry geometry = DiskGeometry.ofSize(DISK_SIZE_IN_BYTES, blockLengthInBytes);
+        ioSystem = new IOSystem(new ArrayBlockDevice(geometry), geometry, 0);
+        readBuffer = ByteBuffer.allocate(blockLengthInBytes);
+        writeBuffer = new byte[blockLengthInBytes];
+        blocksPerInvocation = BYTES_PER_INVOCATION / blockLengthInBytes;
+    }
+
+    @Benchmark
+    public ByteBuffer sequentialRead() {
+        for (int i = 0; i < blocksPerInvocation; i++) {
+            ioSystem.read_block(nextBlock(), readBuffer);
+        }
+        return readBuffer;
+    }
+
+    @Benchmark
+    public void sequentialWrite() {
+        for (int i = 0; i < blocksPerInvocation; i++) {
+            ioSystem.write_block(nextBlock(), writeBuffer);
+        }
+    }
+
+    private int nextBlock() {
+        int block = nextBlock;
+        nextBlock = (nextBlock + 1) % ioSystem.getNumberOfBlocks();
+        return block;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BlockSizeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
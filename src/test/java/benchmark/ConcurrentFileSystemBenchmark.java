@@ -0,0 +1,150 @@
+package benchmark;
+
+import disk.ArrayBlockDevice;
+import disk.DiskGeometry;
+import filesystem.FileSystem;
+import iosystem.IOSystem;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput of one mounted FileSystem shared by 1 .. 8 threads, each reading and writing random blocks
+ * of its own file through its own handle. Operations on different files only share the bitmap lock
+ * (not taken here: the files do not grow), so throughput should grow with the number of cores.
+ * <p>
+ * cacheBlocks = 0 disables the buffer cache. With a cache smaller than the files, every thread misses and
+ * writes back evicted blocks on a device with DEVICE_LATENCY_MICROS per transfer: the cache lock is shared by all
+ * threads but not held during transfers, so throughput should grow with the number of threads as well.
+ * <p>
+ * preadSharedFile has all threads read random blocks of one file through one handle with pread, which shares
+ * the lock of the file, so it should scale the same way.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.ConcurrentFileSystemBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentFileSystemBenchmark {
+    private static final int MAX_THREADS = 8;
+    private static final int FILE_BLOCKS = 64;
+    private static final int BLOCK_LENGTH = 512;
+    private static final int DEVICE_LATENCY_MICROS = 20;
+
+    @State(Scope.Benchmark)
+    public static class Volume {
+        @Param({"0", "32"})
+        public int cacheBlocks;
+
+        FileSystem fileSystem;
+        int sharedIndex;
+        final AtomicInteger nextFile = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            DiskGeometry geometry = DiskGeometry.ofSize(4096L * BLOCK_LENGTH, BLOCK_LENGTH);
+            ArrayBlockDevice device = cacheBlocks == 0 ? new ArrayBlockDevice(geometry) : new LatentBlockDevice(geometry);
+            fileSystem = new FileSystem(new IOSystem(device, geometry, cacheBlocks));
+            fileSystem.setMaxNumberOfOpenFiles(MAX_THREADS + 1);
+            byte[] contents = new byte[FILE_BLOCKS * BLOCK_LENGTH];
+            for (int i = 0; i < MAX_THREADS; i++) {
+                fileSystem.create("file" + i);
+                int index = fileSystem.open("file" + i);
+                fileSystem.write(index, contents, contents.length);
+                fileSystem.close(index);
+            }
+            fileSystem.create("shared");
+            sharedIndex = fileSystem.open("shared");
+            fileSystem.write(sharedIndex, contents, contents.length);
+            fileSystem.flush(sharedIndex);
+        }
+    }
+
+    /**
+     * Memory disk whose transfers take DEVICE_LATENCY_MICROS each; unlike SlowBlockDevice they may overlap.
+     */
+    static class LatentBlockDevice extends ArrayBlockDevice {
+        LatentBlockDevice(DiskGeometry geometry) {
+            super(geometry);
+        }
+
+        private static void waitForDevice() {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(DEVICE_LATENCY_MICROS));
+        }
+
+        @Override
+        public void readBlock(int blockNumber, byte[] dst, int offset) {
+            waitForDevice();
+            super.readBlock(blockNumber, dst, offset);
+        }
+
+        @Override
+        public void writeBlock(int blockNumber, byte[] src, int offset) {
+            waitForDevice();
+            super.writeBlock(blockNumber, src, offset);
+        }
+
+        @Override
+        public void readBlocks(int firstBlock, int count, byte[] dst, int offset) {
+            waitForDevice();
+            super.readBlocks(firstBlock, count, dst, offset);
+        }
+
+        @Override
+        public void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+            waitForDevice();
+            super.writeBlocks(firstBlock, count, src, offset);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        int index;
+        final SplittableRandom random = new SplittableRandom(42);
+        final byte[] block = new byte[BLOCK_LENGTH];
+        final ByteBuffer memArea = ByteBuffer.allocate(BLOCK_LENGTH);
+
+        @Setup(Level.Trial)
+        public void setUp(Volume volume) {
+            index = volume.fileSystem.open("file" + volume.nextFile.getAndIncrement() % MAX_THREADS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown(Volume volume) {
+            volume.fileSystem.close(index);
+        }
+    }
+
+    @Benchmark
+    public int readWriteBlock(Volume volume, Worker worker) {
+        FileSystem fileSystem = volume.fileSystem;
+        fileSystem.lseek(worker.index, worker.random.nextInt(FILE_BLOCKS) * BLOCK_LENGTH);
+        fileSystem.write(worker.index, worker.block, BLOCK_LENGTH);
+        fileSystem.lseek(worker.index, worker.random.nextInt(FILE_BLOCKS) * BLOCK_LENGTH);
+        return fileSystem.read(worker.index, worker.memArea, BLOCK_LENGTH);
+    }
+
+    @Benchmark
+    public int preadSharedFile(Volume volume, Worker worker) {
+        worker.memArea.clear();
+        return volume.fileSystem.pread(volume.sharedIndex, worker.memArea, worker.random.nextInt(FILE_BLOCKS) * BLOCK_LENGTH);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            new Runner(new OptionsBuilder()
+                    .include(ConcurrentFileSystemBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
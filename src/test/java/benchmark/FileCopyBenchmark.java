@@ -0,0 +1,115 @@
+package benchmark;
+
+import disk.DiskGeometry;
+import filesystem.FileSystem;
+import iosystem.IOSystem;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileSystem.read / write of a whole file starting in the middle of its first block, compared with
+ * the byte-at-a-time loop they used before (replayed here over the same I/O system: one byte per iteration,
+ * block switch checked on every byte).
+ * FileSystem numbers include handing read-ahead requests to the I/O thread, which dominates small blocks
+ * on machines with few cores.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.FileCopyBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileCopyBenchmark {
+    private static final int OFFSET = 100;
+    private static final int FILE_BLOCKS = 3;
+    private static final int FIRST_LOOP_BLOCK = 200;
+
+    @Param({"512", "4096"})
+    public int blockLengthInBytes;
+
+    private IOSystem ioSystem;
+    private FileSystem fileSystem;
+    private int index;
+    private int count;
+    private ByteBuffer memArea;
+    private byte[] bytes;
+    private byte[] RWBuffer;
+
+    @Setup
+    public void setUp() {
+        ioSystem = new IOSystem(DiskGeometry.ofSize(1024L * blockLengthInBytes, blockLengthInBytes));
+        fileSystem = new FileSystem(ioSystem);
+        fileSystem.create("file");
+        index = fileSystem.open("file");
+
+        count = FILE_BLOCKS * blockLengthInBytes - OFFSET;
+        bytes = new byte[FILE_BLOCKS * blockLengthInBytes];
+        fileSystem.write(index, bytes, bytes.length);
+        memArea = ByteBuffer.allocate(count);
+        RWBuffer = new byte[blockLengthInBytes];
+    }
+
+    @Benchmark
+    public ByteBuffer bulkRead() {
+        fileSystem.lseek(index, OFFSET);
+        fileSystem.read(index, memArea, count);
+        return memArea;
+    }
+
+    @Benchmark
+    public int bulkWrite() {
+        fileSystem.lseek(index, OFFSET);
+        return fileSystem.write(index, bytes, count);
+    }
+
+    @Benchmark
+    public ByteBuffer byteLoopRead() {
+        int fileBlock = OFFSET / blockLengthInBytes;
+        ioSystem.read_block(FIRST_LOOP_BLOCK + fileBlock, RWBuffer, 0);
+        int currentBufferPosition = OFFSET % blockLengthInBytes;
+        int currentMemoryPosition = 0;
+        for (int readCount = 0; readCount < count; ) {
+            if (currentBufferPosition == blockLengthInBytes) {
+                ioSystem.read_block(FIRST_LOOP_BLOCK + ++fileBlock, RWBuffer, 0);
+                currentBufferPosition = 0;
+            }
+            memArea.put(currentMemoryPosition, RWBuffer[currentBufferPosition]);
+            readCount++;
+            currentBufferPosition++;
+            currentMemoryPosition++;
+        }
+        return memArea;
+    }
+
+    @Benchmark
+    public int byteLoopWrite() {
+        int fileBlock = OFFSET / blockLengthInBytes;
+        ioSystem.read_block(FIRST_LOOP_BLOCK + fileBlock, RWBuffer, 0);
+        int currentBufferPosition = OFFSET % blockLengthInBytes;
+        int currentMemoryPosition = 0;
+        int writtenCount = 0;
+        for (int i = 0; i < count && i < bytes.length; i++) {
+            if (currentBufferPosition == blockLengthInBytes) {
+                ioSystem.write_block(FIRST_LOOP_BLOCK + fileBlock, RWBuffer);
+                ioSystem.read_block(FIRST_LOOP_BLOCK + ++fileBlock, RWBuffer, 0);
+                currentBufferPosition = 0;
+            }
+            RWBuffer[currentBufferPosition] = bytes[currentMemoryPosition];
+            writtenCount++;
+            currentBufferPosition++;
+            currentMemoryPosition++;
+        }
+        return writtenCount;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FileCopyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,71 @@
+package benchmark;
+
+import disk.BlockDevice;
+import disk.DiskGeometry;
+import disk.MirroredBlockDevice;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random reads of 16 blocks by 4 parallel readers from a RAID-1 volume as mirrors are added.
+ * Members transfer one block per 10 us; total throughput should grow close to linearly with the number of members.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.MirroringBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MirroringBenchmark {
+    private static final DiskGeometry GEOMETRY = DiskGeometry.ofSize(16L << 20, 4096);
+    private static final int BLOCKS_PER_READ = 16;
+    private static final int MICROS_PER_BLOCK = 10;
+
+    @Param({"1", "2", "4"})
+    public int members;
+
+    @Param({"QUEUE_DEPTH", "NEAREST_CYLINDER"})
+    public MirroredBlockDevice.ReadBalancing readBalancing;
+
+    private MirroredBlockDevice volume;
+
+    @State(Scope.Thread)
+    public static class Reader {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCKS_PER_READ * GEOMETRY.getBlockLengthInBytes());
+    }
+
+    @Setup
+    public void setUp() {
+        BlockDevice[] devices = new BlockDevice[members];
+        for (int i = 0; i < members; i++) {
+            devices[i] = new SlowBlockDevice(GEOMETRY.getNumberOfBlocks(), GEOMETRY.getBlockLengthInBytes(), MICROS_PER_BLOCK);
+        }
+        volume = new MirroredBlockDevice(devices, GEOMETRY, readBalancing);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    @Benchmark
+    public ByteBuffer randomRead(Reader reader) {
+        int first = ThreadLocalRandom.current().nextInt(GEOMETRY.getNumberOfBlocks() - BLOCKS_PER_READ + 1);
+        volume.readBlocks(first, BLOCKS_PER_READ, reader.buffer);
+        return reader.buffer;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MirroringBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,54 @@
+package benchmark;
+
+import disk.ArrayBlockDevice;
+import disk.DiskGeometry;
+import iosystem.IORequest;
+import iosystem.IOScheduler;
+import iosystem.SchedulingPolicy;
+import iosystem.SeekCostModel;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Replays the same request traces under every scheduling policy and prints simulated seek time and throughput.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.SchedulingPolicyReport
+ */
+public class SchedulingPolicyReport {
+    private static final DiskGeometry GEOMETRY = new DiskGeometry(1024, 4, 32, 512);
+    private static final int QUEUE_DEPTH = 32;
+    private static final int BATCHES = 200;
+
+    public static void main(String[] args) {
+        report("random single blocks", 0.0);
+        report("mostly sequential runs of 8 blocks", 0.8);
+    }
+
+    /**
+     * @param sequentialShare share of requests that continue right after the previous one
+     */
+    private static void report(String trace, double sequentialShare) {
+        System.out.println("\n" + trace + ", queue depth " + QUEUE_DEPTH + ", " + GEOMETRY);
+        for (SchedulingPolicy policy : SchedulingPolicy.values()) {
+            IOScheduler scheduler = new IOScheduler(new ArrayBlockDevice(GEOMETRY), GEOMETRY, policy, SeekCostModel.DEFAULT);
+            Random random = new Random(42);
+            int count = sequentialShare > 0 ? 8 : 1;
+            ByteBuffer buffer = ByteBuffer.allocate(count * GEOMETRY.getBlockLengthInBytes());
+            int next = 0;
+
+            for (int batch = 0; batch < BATCHES; batch++) {
+                for (int i = 0; i < QUEUE_DEPTH; i++) {
+                    if (random.nextDouble() >= sequentialShare || next + count > GEOMETRY.getNumberOfBlocks()) {
+                        next = random.nextInt(GEOMETRY.getNumberOfBlocks() - count + 1);
+                    }
+                    scheduler.submit(random.nextBoolean() ? IORequest.read(next, count, buffer)
+                            : IORequest.write(next, count, buffer));
+                    next += count;
+                }
+                scheduler.dispatch();
+            }
+            System.out.println(scheduler.getStatistics());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package benchmark;
+
+import disk.ArrayBlockDevice;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory disk that transfers at most one block per microsPerBlock, like a bandwidth-limited disk.
+ * It serves one request at a time; the calling thread sleeps meanwhile, so devices can overlap even on a single core.
+ */
+class SlowBlockDevice extends ArrayBlockDevice {
+    private final long nanosPerBlock;
+
+    SlowBlockDevice(int numberOfBlocks, int blockLengthInBytes, int microsPerBlock) {
+        super(numberOfBlocks, blockLengthInBytes);
+        nanosPerBlock = TimeUnit.MICROSECONDS.toNanos(microsPerBlock);
+    }
+
+    private void waitForDevice(int count) {
+        if (nanosPerBlock > 0) LockSupport.parkNanos(count * nanosPerBlock);
+    }
+
+    @Override
+    public synchronized void readBlock(int blockNumber, byte[] dst, int offset) {
+        waitForDevice(1);
+        super.readBlock(blockNumber, dst, offset);
+    }
+
+    @Override
+    public synchronized void writeBlock(int blockNumber, byte[] src, int offset) {
+        waitForDevice(1);
+        super.writeBlock(blockNumber, src, offset);
+    }
+
+    @Override
+    public synchronized void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+        waitForDevice(count);
+        super.readBlocks(firstBlock, count, dst);
+    }
+
+    @Override
+    public synchronized void writeBlocks(int firstBlock, int count, ByteBuffer src) {
+        waitForDevice(count);
+        super.writeBlocks(firstBlock, count, src);
+    }
+}
@@ -0,0 +1,100 @@
+package benchmark;
+
+import disk.BlockDevice;
+import disk.DiskGeometry;
+import disk.StripedBlockDevice;
+import iosystem.IOSystem;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Large sequential transfers through a RAID-0 volume as members are added.
+ * Every invocation moves BYTES_PER_INVOCATION bytes, so ops/s * 4 MiB = MiB/s.
+ * <p>
+ * Members are in-memory disks with an optional simulated transfer time per block (10 us per 4 KiB block
+ * is about 400 MB/s per member); with memberMicrosPerBlock = 0 the result is bounded by memory bandwidth.
+ * <p>
+ * cachedSequentialWrite goes through an IOSystem with a buffer cache, as the file system does: the range is written
+ * into the cache and flushed, which hands every run of adjacent dirty blocks to the volume as one request.
+ * <p>
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmark.StripingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripingBenchmark {
+    private static final int BLOCK_LENGTH_IN_BYTES = 4096;
+    private static final int BYTES_PER_INVOCATION = 4 << 20;
+    private static final int BLOCKS_PER_MEMBER = (64 << 20) / BLOCK_LENGTH_IN_BYTES;
+
+    @Param({"1", "2", "4", "8"})
+    public int members;
+
+    @Param({"16"})
+    public int stripeUnitInBlocks;
+
+    @Param({"0", "10"})
+    public int memberMicrosPerBlock;
+
+    private StripedBlockDevice volume;
+    private IOSystem cached;
+    private ByteBuffer buffer;
+    private int blocksPerInvocation;
+    private int nextBlock;
+
+    @Setup
+    public void setUp() {
+        BlockDevice[] devices = new BlockDevice[members];
+        for (int i = 0; i < members; i++) {
+            devices[i] = new SlowBlockDevice(BLOCKS_PER_MEMBER, BLOCK_LENGTH_IN_BYTES, memberMicrosPerBlock);
+        }
+        volume = new StripedBlockDevice(devices, stripeUnitInBlocks);
+        buffer = ByteBuffer.allocateDirect(BYTES_PER_INVOCATION);
+        blocksPerInvocation = BYTES_PER_INVOCATION / BLOCK_LENGTH_IN_BYTES;
+        DiskGeometry geometry = DiskGeometry.ofSize((long) volume.getNumberOfBlocks() * BLOCK_LENGTH_IN_BYTES, BLOCK_LENGTH_IN_BYTES);
+        cached = new IOSystem(volume, geometry, blocksPerInvocation);
+        nextBlock = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        volume.close();
+    }
+
+    private int nextRange() {
+        int first = nextBlock;
+        nextBlock += blocksPerInvocation;
+        if (nextBlock + blocksPerInvocation > volume.getNumberOfBlocks()) nextBlock = 0;
+        return first;
+    }
+
+    @Benchmark
+    public ByteBuffer sequentialRead() {
+        volume.readBlocks(nextRange(), blocksPerInvocation, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public void sequentialWrite() {
+        volume.writeBlocks(nextRange(), blocksPerInvocation, buffer);
+    }
+
+    @Benchmark
+    public void cachedSequentialWrite() {
+        cached.writeBlockRange(nextRange(), blocksPerInvocation, buffer);
+        cached.flushCache();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StripingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,58 @@
+package disk;
+
+import iosystem.IOSystem;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class ArrayBlockDeviceTest {
+
+    @Test
+    public void blockLocation() {
+        System.out.println("\n\n\n============================    block location on disk");
+        IOSystem ioSystem = new IOSystem(new LDisk());
+
+        Assert.assertArrayEquals(new int[]{0, 0, 0}, ioSystem.getBlockLocationOnDisk(0));
+        Assert.assertArrayEquals(new int[]{0, 0, 7}, ioSystem.getBlockLocationOnDisk(7));
+        Assert.assertArrayEquals(new int[]{0, 1, 0}, ioSystem.getBlockLocationOnDisk(8));
+        Assert.assertArrayEquals(new int[]{1, 0, 7}, ioSystem.getBlockLocationOnDisk(23));
+        Assert.assertArrayEquals(new int[]{2, 0, 0}, ioSystem.getBlockLocationOnDisk(32));
+        Assert.assertArrayEquals(new int[]{3, 1, 7}, ioSystem.getBlockLocationOnDisk(63));
+    }
+
+    @Test
+    public void ldiskRoundTrip() {
+        System.out.println("\n\n\n============================    LDisk -> flat array -> LDisk");
+        LDisk ldisk = new LDisk();
+        ldisk.cylinders[1].tracks[0].sectors[7].bytes[5] = 42;
+        ldisk.cylinders[3].tracks[1].sectors[7].bytes[63] = 7;
+
+        IOSystem ioSystem = new IOSystem(ldisk);
+        ByteBuffer block = ByteBuffer.allocate(ioSystem.getBlockLengthInBytes());
+        ioSystem.read_block(23, block);
+        Assert.assertEquals(42, block.get(5));
+
+        byte[] bytes = new byte[ioSystem.getBlockLengthInBytes()];
+        bytes[0] = 13;
+        ioSystem.write_block(56, bytes);
+
+        LDisk copy = ioSystem.getLdisk();
+        Assert.assertEquals(42, copy.cylinders[1].tracks[0].sectors[7].bytes[5]);
+        Assert.assertEquals(7, copy.cylinders[3].tracks[1].sectors[7].bytes[63]);
+        Assert.assertEquals(13, copy.cylinders[3].tracks[1].sectors[0].bytes[0]);
+    }
+
+    @Test
+    public void outOfRange() {
+        System.out.println("\n\n\n============================    read block out of range");
+        IOSystem ioSystem = new IOSystem(DiskGeometry.DEFAULT);
+        Exception exception = null;
+        try {
+            ioSystem.read_block(64, ByteBuffer.allocate(ioSystem.getBlockLengthInBytes()));
+        } catch (Exception e) {
+            exception = e;
+        }
+        Assert.assertNotNull(exception);
+    }
+}
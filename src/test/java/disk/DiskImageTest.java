@@ -0,0 +1,205 @@
+package disk;
+
+import iosystem.IOSystem;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+public class DiskImageTest {
+
+    @Test
+    public void saveLoadAndMount() throws IOException {
+        System.out.println("\n\n\n============================    disk image: header + blocks, saved, loaded and mapped");
+        DiskGeometry geometry = DiskGeometry.ofSize(1 << 20, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            ArrayBlockDevice device = new ArrayBlockDevice(geometry);
+            byte[] block = new byte[512];
+            for (int i = 0; i < geometry.getNumberOfBlocks(); i += 7) {
+                block[0] = (byte) i;
+                block[511] = (byte) (i >> 8);
+                device.writeBlock(i, block, 0);
+            }
+            DiskImage.save(device, geometry, image);
+            Assert.assertEquals(DiskImage.HEADER_LENGTH + geometry.getDiskSizeInBytes(), image.length());
+            Assert.assertEquals(geometry, DiskImage.readGeometry(image));
+
+            IOSystem loaded = new IOSystem(geometry);
+            loaded.loadImage(image.getPath());
+            IOSystem mounted = new IOSystem(geometry);
+            mounted.mount(image.getPath());
+            byte[] expected = new byte[512];
+            byte[] actual = new byte[512];
+            for (int i = 0; i < geometry.getNumberOfBlocks(); i++) {
+                device.readBlock(i, expected, 0);
+                loaded.read_block(i, actual, 0);
+                Assert.assertArrayEquals(expected, actual);
+                mounted.read_block(i, actual, 0);
+                Assert.assertArrayEquals(expected, actual);
+            }
+            mounted.getDevice().close();
+
+            IOException exception = null;
+            try {
+                new IOSystem(DiskGeometry.ofSize(1 << 20, 1024)).mount(image.getPath());
+            } catch (IOException e) {
+                exception = e;
+            }
+            Assert.assertNotNull(exception);
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void deltaRecords() throws IOException {
+        System.out.println("\n\n\n============================    disk image: delta records appended, replayed and compacted");
+        DiskGeometry geometry = DiskGeometry.ofSize(1 << 20, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            ArrayBlockDevice device = new ArrayBlockDevice(geometry);
+            DiskImage.save(device, geometry, image);
+
+            byte[] block = new byte[512];
+            BitSet changed = new BitSet();
+            for (int i : new int[]{3, 4, 5, 100, 2047}) {
+                block[0] = (byte) (i + 1);
+                device.writeBlock(i, block, 0);
+                changed.set(i);
+            }
+            DiskImage.append(device, geometry, image, changed);
+            long deltaLength = 3 * DiskImage.DELTA_HEADER_LENGTH + 5 * 512;
+            Assert.assertEquals(deltaLength, DiskImage.getDeltaLength(changed, 512));
+            Assert.assertEquals(deltaLength, DiskImage.getDeltaLength(image, geometry));
+
+            // a record cut short by a crash is ignored
+            try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+                file.seek(file.length());
+                file.writeInt(DiskImage.DELTA_MAGIC);
+                file.writeInt(7);
+            }
+
+            ArrayBlockDevice loaded = new ArrayBlockDevice(geometry);
+            DiskImage.load(image, loaded, geometry);
+            MappedBlockDevice mapped = DiskImage.map(image, geometry);
+            Assert.assertEquals(0, DiskImage.getDeltaLength(image, geometry));
+            byte[] expected = new byte[512];
+            byte[] actual = new byte[512];
+            for (int i = 0; i < geometry.getNumberOfBlocks(); i++) {
+                device.readBlock(i, expected, 0);
+                loaded.readBlock(i, actual, 0);
+                Assert.assertArrayEquals(expected, actual);
+                mapped.readBlock(i, actual, 0);
+                Assert.assertArrayEquals(expected, actual);
+            }
+            mapped.close();
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void failedCompactionKeepsImage() throws IOException {
+        System.out.println("\n\n\n============================    disk image: a save failing midway leaves the previous image");
+        DiskGeometry geometry = DiskGeometry.ofSize(16 << 20, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            ArrayBlockDevice device = new ArrayBlockDevice(geometry);
+            byte[] block = new byte[512];
+            block[0] = 1;
+            device.writeBlock(0, block, 0);
+            DiskImage.save(device, geometry, image);
+            block[0] = 2;
+            device.writeBlock(1, block, 0);
+            BitSet changed = new BitSet();
+            changed.set(1);
+            DiskImage.append(device, geometry, image, changed);
+            long imageLength = image.length();
+
+            // the device fails after the first transfer, as a disk error or a crash would
+            ArrayBlockDevice failing = new ArrayBlockDevice(geometry) {
+                private int transfers;
+
+                @Override
+                public void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+                    if (transfers++ > 0) throw new IllegalStateException("device failed");
+                    super.readBlocks(firstBlock, count, dst);
+                }
+            };
+            IllegalStateException exception = null;
+            try {
+                DiskImage.save(failing, geometry, image);
+            } catch (IllegalStateException e) {
+                exception = e;
+            }
+            Assert.assertNotNull(exception);
+            Assert.assertEquals(imageLength, image.length());
+            File[] temporary = image.getParentFile().listFiles((dir, name) -> name.startsWith(image.getName() + "."));
+            Assert.assertEquals(0, temporary.length);
+
+            MappedBlockDevice mapped = DiskImage.map(image, geometry);
+            mapped.readBlock(0, block, 0);
+            Assert.assertEquals(1, block[0]);
+            mapped.readBlock(1, block, 0);
+            Assert.assertEquals(2, block[0]);
+            mapped.close();
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void headerlessImage() throws IOException {
+        System.out.println("\n\n\n============================    disk image of an older version without header");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        File image = File.createTempFile("disk", ".img");
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+                file.setLength(geometry.getDiskSizeInBytes());
+                file.seek(5L * 64 + 3);
+                file.write(42);
+            }
+            Assert.assertNull(DiskImage.readGeometry(image));
+
+            MappedBlockDevice device = DiskImage.map(image, geometry);
+            byte[] block = new byte[64];
+            device.readBlock(5, block, 0);
+            Assert.assertEquals(42, block[3]);
+            device.close();
+            Assert.assertEquals(geometry.getDiskSizeInBytes(), image.length());
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void convertSerializedImage() throws IOException {
+        System.out.println("\n\n\n============================    serialized LDisk converted to a disk image");
+        File serialized = new File("save10");
+        File image = File.createTempFile("disk", ".img");
+        try {
+            Assert.assertTrue(DiskImage.isSerialized(serialized));
+            DiskImage.convert(serialized, image);
+            Assert.assertFalse(DiskImage.isSerialized(image));
+            Assert.assertEquals(DiskGeometry.DEFAULT, DiskImage.readGeometry(image));
+
+            ArrayBlockDevice expected = new ArrayBlockDevice(DiskImage.readSerialized(serialized));
+            ArrayBlockDevice actual = new ArrayBlockDevice(DiskGeometry.DEFAULT);
+            DiskImage.load(image, actual, DiskGeometry.DEFAULT);
+            byte[] expectedBlock = new byte[64];
+            byte[] actualBlock = new byte[64];
+            for (int i = 0; i < DiskGeometry.DEFAULT.getNumberOfBlocks(); i++) {
+                expected.readBlock(i, expectedBlock, 0);
+                actual.readBlock(i, actualBlock, 0);
+                Assert.assertArrayEquals(expectedBlock, actualBlock);
+            }
+        } finally {
+            image.delete();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package disk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MirroredBlockDeviceTest {
+    private static final DiskGeometry GEOMETRY = DiskGeometry.DEFAULT;
+
+    private static MirroredBlockDevice mirror(BlockDevice[] members, MirroredBlockDevice.ReadBalancing readBalancing) {
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new ArrayBlockDevice(GEOMETRY);
+        }
+        return new MirroredBlockDevice(members, GEOMETRY, readBalancing);
+    }
+
+    @Test
+    public void writesGoToAllMembers() {
+        System.out.println("\n\n\n============================    every member gets every write");
+        BlockDevice[] members = new BlockDevice[3];
+        MirroredBlockDevice volume = mirror(members, MirroredBlockDevice.ReadBalancing.QUEUE_DEPTH);
+        byte[] bytes = new byte[GEOMETRY.getBlockLengthInBytes()];
+        bytes[0] = 42;
+        volume.writeBlock(17, bytes, 0);
+
+        byte[] onMember = new byte[bytes.length];
+        for (BlockDevice member : members) {
+            member.readBlock(17, onMember, 0);
+            Assert.assertEquals(42, onMember[0]);
+        }
+    }
+
+    @Test
+    public void readsGoToNearestHead() {
+        System.out.println("\n\n\n============================    reads go to the member with the nearest head");
+        BlockDevice[] members = new BlockDevice[2];
+        MirroredBlockDevice volume = mirror(members, MirroredBlockDevice.ReadBalancing.NEAREST_CYLINDER);
+        byte[] block = new byte[GEOMETRY.getBlockLengthInBytes()];
+        int lastBlock = GEOMETRY.getNumberOfBlocks() - 1;
+
+        // both heads at cylinder 0: member 0 moves to the last cylinder, member 1 stays
+        volume.readBlock(lastBlock, block, 0);
+        volume.readBlock(0, block, 0);
+        volume.readBlock(lastBlock - 1, block, 0);
+        volume.readBlock(1, block, 0);
+
+        Assert.assertEquals(2, volume.getReads(0));
+        Assert.assertEquals(2, volume.getReads(1));
+    }
+
+    @Test
+    public void resyncCopiesOnlyDirtyBlocks() {
+        System.out.println("\n\n\n============================    resync copies only blocks written while detached");
+        BlockDevice[] members = new BlockDevice[2];
+        MirroredBlockDevice volume = mirror(members, MirroredBlockDevice.ReadBalancing.QUEUE_DEPTH);
+        byte[] bytes = new byte[3 * GEOMETRY.getBlockLengthInBytes()];
+        bytes[0] = 1;
+        bytes[GEOMETRY.getBlockLengthInBytes()] = 2;
+
+        volume.detach(1);
+        Assert.assertFalse(volume.isAttached(1));
+        volume.writeBlocks(5, 2, bytes, 0);
+        volume.writeBlock(40, bytes, 0);
+        Assert.assertEquals(3, volume.getNumberOfDirtyBlocks(1));
+
+        // reads avoid the stale member
+        byte[] block = new byte[GEOMETRY.getBlockLengthInBytes()];
+        volume.readBlock(6, block, 0);
+        Assert.assertEquals(2, block[0]);
+        Assert.assertEquals(0, volume.getReads(1));
+        members[1].readBlock(6, block, 0);
+        Assert.assertEquals(0, block[0]);
+
+        Assert.assertEquals(3, volume.resync(1));
+        Assert.assertTrue(volume.isAttached(1));
+        members[1].readBlock(6, block, 0);
+        Assert.assertEquals(2, block[0]);
+        members[1].readBlock(40, block, 0);
+        Assert.assertEquals(1, block[0]);
+
+        try {
+            volume.detach(0);
+            volume.detach(1);
+            Assert.fail("the last member was detached");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(volume.isAttached(1));
+        }
+    }
+}
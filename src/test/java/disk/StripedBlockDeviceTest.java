@@ -0,0 +1,79 @@
+package disk;
+
+import filesystem.FileSystem;
+import iosystem.IOSystem;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class StripedBlockDeviceTest {
+
+    @Test
+    public void stripeMapping() {
+        System.out.println("\n\n\n============================    blocks are striped in units across members");
+        BlockDevice[] members = {new ArrayBlockDevice(64, 64), new ArrayBlockDevice(64, 64), new ArrayBlockDevice(70, 64)};
+        StripedBlockDevice volume = new StripedBlockDevice(members, 4);
+
+        Assert.assertEquals(3 * 64, volume.getNumberOfBlocks());
+        Assert.assertEquals(0, volume.getMember(3));
+        Assert.assertEquals(1, volume.getMember(4));
+        Assert.assertEquals(2, volume.getMember(11));
+        Assert.assertEquals(0, volume.getMember(12));
+        Assert.assertEquals(4, volume.getMemberBlock(12));
+        Assert.assertEquals(7, volume.getMemberBlock(23));
+    }
+
+    @Test
+    public void rangeSpansMembers() {
+        System.out.println("\n\n\n============================    range transfer fans out to all members");
+        int blockLength = 64;
+        BlockDevice[] members = {new ArrayBlockDevice(64, blockLength), new ArrayBlockDevice(64, blockLength),
+                new ArrayBlockDevice(64, blockLength)};
+        StripedBlockDevice volume = new StripedBlockDevice(members, 4);
+
+        // blocks 2 .. 41: starts and ends in the middle of a stripe unit
+        int count = 40;
+        ByteBuffer src = ByteBuffer.allocateDirect(count * blockLength + 8);
+        for (int i = 0; i < count; i++) {
+            src.put(8 + i * blockLength, (byte) (i + 2));
+        }
+        src.position(8);
+        volume.writeBlocks(2, count, src);
+        Assert.assertEquals(8, src.position());
+
+        byte[] block = new byte[blockLength];
+        for (int i = 2; i < 2 + count; i++) {
+            members[volume.getMember(i)].readBlock(volume.getMemberBlock(i), block, 0);
+            Assert.assertEquals((byte) i, block[0]);
+        }
+
+        byte[] dst = new byte[count * blockLength];
+        volume.readBlocks(2, count, dst, 0);
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals((byte) (i + 2), dst[i * blockLength]);
+        }
+    }
+
+    @Test
+    public void fileSystemOnStripedVolume() {
+        System.out.println("\n\n\n============================    file system on a striped volume");
+        int blockLength = 64;
+        BlockDevice[] members = {new ArrayBlockDevice(32, blockLength), new ArrayBlockDevice(32, blockLength)};
+        StripedBlockDevice volume = new StripedBlockDevice(members, 2);
+        DiskGeometry geometry = DiskGeometry.ofSize((long) volume.getNumberOfBlocks() * blockLength, blockLength);
+        FileSystem fileSystem = new FileSystem(new IOSystem(volume, geometry));
+
+        byte[] bytes = new byte[3 * blockLength];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        Assert.assertEquals(FileSystem.STATUS_SUCCESS, fileSystem.create("fil1"));
+        int index = fileSystem.open("fil1");
+        Assert.assertEquals(bytes.length, fileSystem.write(index, bytes, bytes.length));
+        fileSystem.lseek(index, 0);
+        ByteBuffer readBytes = ByteBuffer.allocate(bytes.length);
+        Assert.assertEquals(bytes.length, fileSystem.read(index, readBytes, bytes.length));
+        Assert.assertArrayEquals(bytes, readBytes.array());
+    }
+}
@@ -0,0 +1,96 @@
+package filesystem;
+
+import disk.DiskGeometry;
+import iosystem.IOSystem;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+
+public class BlockAllocatorTest {
+
+    private static BitSet bitmap(int... usedBlocks) {
+        BitSet bitmap = new BitSet(64);
+        bitmap.set(0, 8);
+        for (int block : usedBlocks) bitmap.set(block);
+        return bitmap;
+    }
+
+    @Test
+    public void policies() {
+        System.out.println("\n\n\n============================    first-fit, next-fit and goal-directed choices");
+        BitSet bitmap = bitmap(8, 9, 20, 21);
+
+        Assert.assertEquals(10, new FirstFitAllocator().allocate(bitmap, 8, 64, 20));
+
+        BlockAllocator nextFit = new NextFitAllocator();
+        Assert.assertEquals(11, nextFit.allocate(bitmap, 8, 64, -1));
+        Assert.assertEquals(12, nextFit.allocate(bitmap, 8, 64, -1));
+        bitmap.set(13, 64);
+        bitmap.clear(11);
+        Assert.assertEquals(11, nextFit.allocate(bitmap, 8, 64, -1));
+        Assert.assertEquals(-1, nextFit.allocate(bitmap, 8, 64, -1));
+
+        // goal-directed: right after the goal, then in the goal's cylinder of 16 blocks
+        BlockAllocator goalDirected = new GoalDirectedAllocator(16);
+        bitmap = bitmap(8, 9, 20, 21, 33);
+        Assert.assertEquals(22, goalDirected.allocate(bitmap, 8, 64, 21));
+        Assert.assertEquals(34, goalDirected.allocate(bitmap, 8, 64, 33));
+        bitmap.set(35, 48);
+        Assert.assertEquals(32, goalDirected.allocate(bitmap, 8, 64, 33));
+        // new file: middle of the largest free run 48 .. 63, which follows a used block
+        Assert.assertEquals(56, goalDirected.allocate(bitmap, 8, 64, -1));
+    }
+
+    @Test
+    public void runsAndStatistics() {
+        System.out.println("\n\n\n============================    contiguous runs and fragmentation");
+        BitSet bitmap = bitmap(9, 10, 20);
+        BlockAllocator allocator = new GoalDirectedAllocator(16);
+
+        BlockAllocator.BlockRun run = allocator.allocateRun(bitmap, 8, 64, 10, 5);
+        Assert.assertEquals(11, run.first);
+        Assert.assertEquals(5, run.length);
+        // 4 blocks after the goal are too few, the first run long enough is taken
+        run = allocator.allocateRun(bitmap, 8, 64, 15, 43);
+        Assert.assertEquals(21, run.first);
+        Assert.assertEquals(43, run.length);
+
+        BlockAllocator.Statistics statistics = allocator.getStatistics(bitmap, 8, 64);
+        Assert.assertEquals(2, statistics.getAllocations());
+        Assert.assertEquals(48, statistics.getAllocatedBlocks());
+        // free: 8, 16 .. 19
+        Assert.assertEquals(5, statistics.getFreeBlocks());
+        Assert.assertEquals(2, statistics.getFreeRuns());
+        Assert.assertEquals(4, statistics.getLargestFreeRun());
+        Assert.assertEquals(0.2, statistics.getFreeSpaceFragmentation(), 1e-9);
+    }
+
+    @Test
+    public void interleavedFilesStayContiguous() {
+        System.out.println("\n\n\n============================    two files growing in turns");
+        int[] extents = new int[2];
+        for (int policy = 0; policy < 2; policy++) {
+            FileSystem fileSystem = new FileSystem(new IOSystem(DiskGeometry.DEFAULT));
+            DiskGeometry geometry = DiskGeometry.DEFAULT;
+            fileSystem.setAllocator(policy == 0 ? new FirstFitAllocator()
+                    : new GoalDirectedAllocator(geometry.getNumOfBlocksInOneCylinder()));
+            fileSystem.create("fil1");
+            fileSystem.create("fil2");
+            int first = fileSystem.open("fil1");
+            int second = fileSystem.open("fil2");
+            byte[] block = new byte[geometry.getBlockLengthInBytes()];
+            // blocks are allocated on flush, one at a time here
+            for (int i = 0; i < 3; i++) {
+                fileSystem.write(first, block, block.length);
+                fileSystem.flush(first);
+                fileSystem.write(second, block, block.length);
+                fileSystem.flush(second);
+            }
+            extents[policy] = fileSystem.getNumberOfExtents("fil1") + fileSystem.getNumberOfExtents("fil2");
+        }
+
+        Assert.assertEquals(6, extents[0]);
+        Assert.assertEquals(2, extents[1]);
+    }
+}
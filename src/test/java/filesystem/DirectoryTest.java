@@ -0,0 +1,81 @@
+package filesystem;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class DirectoryTest {
+    @Test
+    public void removeMovesLastEntry() throws Exception {
+        System.out.println("\n\n\n============================    remove moves the last entry into the free slot");
+        Directory directory = new Directory(15);
+        directory.addEntry("fil1", 1);
+        directory.addEntry("fil2", 2);
+        directory.addEntry("fil3", 3);
+
+        Assert.assertEquals(1, directory.removeEntry("fil1"));
+        Assert.assertEquals(-1, directory.removeEntry("fil1"));
+        Assert.assertEquals(2, directory.size());
+        Assert.assertEquals("fil3", directory.get(0).file_name);
+        Assert.assertEquals("fil2", directory.get(1).file_name);
+        Assert.assertEquals(3, directory.getFDIndex("fil3"));
+        Assert.assertEquals(-1, directory.getFDIndex("fil1"));
+    }
+
+    @Test
+    public void capacity() throws Exception {
+        System.out.println("\n\n\n============================    directory is full");
+        Directory directory = new Directory(2);
+        directory.addEntry("fil1", 1);
+        directory.addEntry("fil2", 2);
+        try {
+            directory.addEntry("fil3", 3);
+            Assert.fail("directory should be full");
+        } catch (Exception e) {
+            Assert.assertEquals("Directory is full", e.getMessage());
+        }
+    }
+
+    @Test
+    public void manyEntries() throws Exception {
+        System.out.println("\n\n\n============================    100 000 entries added and removed at random");
+        Directory directory = new Directory(100_000);
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 300_000; i++) {
+            String name = name(random.nextInt(150_000));
+            if (expected.containsKey(name)) {
+                Assert.assertEquals((int) expected.remove(name), directory.removeEntry(name));
+            } else if (expected.size() < directory.getCapacity()) {
+                directory.addEntry(name, i);
+                expected.put(name, i);
+            }
+        }
+
+        Assert.assertEquals(expected.size(), directory.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals((int) entry.getValue(), directory.getFDIndex(entry.getKey()));
+        }
+        int slots = 0;
+        for (Directory.DirEntry dirEntry : directory) {
+            Assert.assertEquals((int) expected.get(dirEntry.file_name), dirEntry.FDIndex);
+            slots++;
+        }
+        Assert.assertEquals(expected.size(), slots);
+    }
+
+    /**
+     * @return 4-char name, one char per 6 bits of i.
+     */
+    private static String name(int i) {
+        char[] name = new char[Directory.FILE_NAME_LENGTH];
+        for (int k = 0; k < name.length; k++) {
+            name[k] = (char) ('0' + (i >> (6 * k) & 63));
+        }
+        return new String(name);
+    }
+}
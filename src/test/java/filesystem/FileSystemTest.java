@@ -1,12 +1,22 @@
 package filesystem;
 
+import disk.DiskGeometry;
+import disk.DiskImage;
 import disk.LDisk;
 import iosystem.IOSystem;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class FileSystemTest {
@@ -62,22 +72,28 @@ public class FileSystemTest {
     }
 
     @Test
-    public void createWithNameLengthNot4() {
-        System.out.println("\n\n\n============================    create file with name length != 4");
+    public void createWithInvalidName() {
+        System.out.println("\n\n\n============================    create file with invalid name");
 
         int actualResult = 0;
+        int actualLongName = 0;
         try {
             LDisk lDisk = new LDisk();
             IOSystem ioSystem = new IOSystem(lDisk);
 
             FileSystem fileSystem = new FileSystem(ioSystem);
 
-            actualResult = fileSystem.create("file4");
-
+            // names are no longer limited to 4 chars
+            actualLongName = fileSystem.create("file4");
+            actualResult = fileSystem.create("fil1//fil2");
+            Assert.assertEquals(-3, fileSystem.create(""));
+            Assert.assertEquals(-3, fileSystem.create(".."));
+            Assert.assertEquals(-3, fileSystem.create(new String(new char[256]).replace('\0', 'a')));
         } catch (Exception e) {
             e.printStackTrace();
         }
 
+        Assert.assertEquals(1, actualLongName);
         Assert.assertEquals(-3, actualResult);
     }
 
@@ -315,7 +331,7 @@ public class FileSystemTest {
 
     @Test
     public void writeMoreToFile() {
-        System.out.println("\n\n\n============================    try to write more than 192 bytes to file");
+        System.out.println("\n\n\n============================    write more than 192 bytes (3 direct blocks) to file");
         int actualWritten = 0;
         try {
             LDisk lDisk = new LDisk();
@@ -336,7 +352,7 @@ public class FileSystemTest {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        Assert.assertEquals(192, actualWritten);
+        Assert.assertEquals(200, actualWritten);
 
     }
 
@@ -402,4 +418,968 @@ public class FileSystemTest {
         }
         Assert.assertNull(exception);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void saveAndRestoreImage() {
+        System.out.println("\n\n\n============================    save disk image, restore it, write and save again");
+        int actualRead = 0;
+        byte[] actualBytes = new byte[0];
+        File image = null;
+        try {
+            image = File.createTempFile("disk", ".img");
+
+            IOSystem ioSystem = new IOSystem(new LDisk());
+            FileSystem fileSystem = new FileSystem(ioSystem);
+
+            byte[] memArea = new byte[100];
+            for (int i = 0; i < memArea.length; i++) {
+                memArea[i] = (byte) i;
+            }
+            fileSystem.create("fil1");
+            int oftindex = fileSystem.open("fil1");
+            fileSystem.write(oftindex, memArea, 100);
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            // restored disk is mapped from the image, saving to the same file only forces the mapping
+            IOSystem restoredIOSystem = new IOSystem(new LDisk());
+            FileSystem restored = new FileSystem(restoredIOSystem, image.getPath());
+            restored.create("fil2");
+            restored.saveFileSystemToFile(image.getPath());
+            restoredIOSystem.getDevice().close();
+
+            FileSystem restoredAgain = new FileSystem(new IOSystem(new LDisk()), image.getPath());
+            oftindex = restoredAgain.open("fil1");
+            ByteBuffer readBuffer = ByteBuffer.allocate(100);
+            actualRead = restoredAgain.read(oftindex, readBuffer, 100);
+            actualBytes = readBuffer.array();
+            Assert.assertNotEquals(FileSystem.STATUS_ERROR, restoredAgain.open("fil2"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (image != null) deleteImage(image);
+        }
+
+        Assert.assertEquals(100, actualRead);
+        for (int i = 0; i < actualBytes.length; i++) {
+            Assert.assertEquals((byte) i, actualBytes[i]);
+        }
+    }
+
+    @Test
+    public void restoreSerializedDisk() {
+        System.out.println("\n\n\n============================    restore disk saved as serialized LDisk");
+        FileSystem fileSystem = new FileSystem(new IOSystem(new LDisk()), "save10");
+        fileSystem.directory();
+
+        int oftindex = fileSystem.open("fil1");
+        ByteBuffer readBuffer = ByteBuffer.allocate(200);
+        Assert.assertEquals(192, fileSystem.read(oftindex, readBuffer, 200));
+    }
+
+    @Test
+    public void configurableGeometry() {
+        System.out.println("\n\n\n============================    4 KiB blocks, 1 MiB disk, 100 file descriptors");
+        int actualWritten = 0;
+        int actualRead = 0;
+        int actualCreated = 0;
+        File image = null;
+        try {
+            image = File.createTempFile("disk", ".img");
+            DiskGeometry geometry = DiskGeometry.ofSize(1 << 20, 4096);
+
+            FileSystem fileSystem = new FileSystem(new IOSystem(geometry), 100);
+            for (int i = 0; i < 99; i++) {
+                if (fileSystem.create(String.format("f%03d", i)) == FileSystem.STATUS_SUCCESS) actualCreated++;
+            }
+
+            byte[] memArea = new byte[3 * 4096];
+            Arrays.fill(memArea, (byte) 'a');
+            int oftindex = fileSystem.open("f098");
+            actualWritten = fileSystem.write(oftindex, memArea, memArea.length);
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath(), 100);
+            oftindex = restored.open("f098");
+            ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+            actualRead = restored.read(oftindex, readBuffer, memArea.length);
+            Assert.assertArrayEquals(memArea, readBuffer.array());
+            Assert.assertEquals(FileSystem.STATUS_ERROR, restored.create("f099"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (image != null) deleteImage(image);
+        }
+
+        Assert.assertEquals(99, actualCreated);
+        Assert.assertEquals(3 * 4096, actualWritten);
+        Assert.assertEquals(3 * 4096, actualRead);
+    }
+
+    @Test
+    public void indirectBlocks() {
+        System.out.println("\n\n\n============================    file mapped through single and double indirect blocks");
+        int actualWritten = 0;
+        int actualRead = 0;
+        byte[] memArea = new byte[40 * 64];
+        ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+        File image = null;
+        try {
+            image = File.createTempFile("disk", ".img");
+            for (int i = 0; i < memArea.length; i++) {
+                memArea[i] = (byte) (i / 64 + i);
+            }
+
+            IOSystem ioSystem = new IOSystem(new LDisk());
+            FileSystem fileSystem = new FileSystem(ioSystem);
+            fileSystem.create("fil1");
+            int oftindex = fileSystem.open("fil1");
+            actualWritten = fileSystem.write(oftindex, memArea, memArea.length);
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            FileSystem restored = new FileSystem(new IOSystem(new LDisk()), image.getPath());
+            oftindex = restored.open("fil1");
+            actualRead = restored.read(oftindex, readBuffer, memArea.length);
+
+            // blocks of a destroyed file, index blocks included, can be used again
+            restored.destroy("fil1");
+            restored.create("fil2");
+            oftindex = restored.open("fil2");
+            Assert.assertEquals(memArea.length, restored.write(oftindex, memArea, memArea.length));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (image != null) deleteImage(image);
+        }
+
+        Assert.assertEquals(memArea.length, actualWritten);
+        Assert.assertEquals(memArea.length, actualRead);
+        Assert.assertArrayEquals(memArea, readBuffer.array());
+    }
+
+    @Test
+    public void writeUntilDiskIsFull() {
+        System.out.println("\n\n\n============================    write stops when the disk is full");
+        FileSystem fileSystem = new FileSystem(new IOSystem(new LDisk()));
+        fileSystem.create("fil1");
+        int oftindex = fileSystem.open("fil1");
+
+        // 55 free blocks: 1 single indirect + 1 double indirect + 3 blocks under it leave 50 data blocks
+        byte[] memArea = new byte[64 * 64];
+        Assert.assertEquals(50 * 64, fileSystem.write(oftindex, memArea, memArea.length));
+        Assert.assertEquals(FileSystem.STATUS_ERROR, fileSystem.write(oftindex, memArea, 1));
+    }
+
+    @Test
+    public void readToDirectBuffer() {
+        System.out.println("\n\n\n============================    read 150 bytes into a direct buffer at position 7");
+        int actualRead = 0;
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(200);
+        try {
+            LDisk lDisk = new LDisk();
+            IOSystem ioSystem = new IOSystem(lDisk);
+
+            FileSystem fileSystem = new FileSystem(ioSystem);
+
+            byte[] memArea = new byte[192];
+            for (int i = 0; i < memArea.length; i++) {
+                memArea[i] = (byte) i;
+            }
+            fileSystem.create("fil1");
+            int oftindex = fileSystem.open("fil1");
+            fileSystem.write(oftindex, memArea, 192);
+
+            fileSystem.lseek(oftindex, 20);
+            readBuffer.position(7);
+            actualRead = fileSystem.read(oftindex, readBuffer, 150);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        Assert.assertEquals(150, actualRead);
+        Assert.assertEquals(7, readBuffer.position());
+        for (int i = 0; i < 150; i++) {
+            Assert.assertEquals((byte) (20 + i), readBuffer.get(7 + i));
+        }
+    }
+
+    @Test
+    public void nestedDirectories() {
+        System.out.println("\n\n\n============================    nested directories, saved and restored");
+        int actualRead = 0;
+        byte[] memArea = "stored three directories deep".getBytes();
+        ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+        File image = null;
+        try {
+            image = File.createTempFile("disk", ".img");
+            FileSystem fileSystem = new FileSystem(new IOSystem(new LDisk()));
+            Assert.assertEquals(FileSystem.STATUS_SUCCESS, fileSystem.mkdir("home"));
+            Assert.assertEquals(FileSystem.STATUS_SUCCESS, fileSystem.mkdir("home/user"));
+            Assert.assertEquals(FileSystem.STATUS_SUCCESS, fileSystem.create("/home/user/notes.txt"));
+            Assert.assertEquals(FileSystem.STATUS_ERROR, fileSystem.create("home/nobody/notes.txt"));
+            Assert.assertEquals(FileSystem.STATUS_ERROR, fileSystem.open("home/user"));
+            int oftindex = fileSystem.open("home/user/notes.txt");
+            fileSystem.write(oftindex, memArea, memArea.length);
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            FileSystem restored = new FileSystem(new IOSystem(new LDisk()), image.getPath());
+            oftindex = restored.open("home/user/notes.txt");
+            actualRead = restored.read(oftindex, readBuffer, memArea.length);
+            restored.close(oftindex);
+
+            // only empty directories are destroyed
+            Assert.assertEquals(FileSystem.STATUS_ERROR, restored.destroy("home/user"));
+            Assert.assertEquals(FileSystem.STATUS_SUCCESS, restored.destroy("home/user/notes.txt"));
+            Assert.assertEquals(FileSystem.STATUS_SUCCESS, restored.destroy("home/user"));
+            Assert.assertEquals(FileSystem.STATUS_ERROR, restored.open("home/user/notes.txt"));
+            Assert.assertEquals(FileSystem.STATUS_SUCCESS, restored.directory("home"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (image != null) deleteImage(image);
+        }
+
+        Assert.assertEquals(memArea.length, actualRead);
+        Assert.assertArrayEquals(memArea, readBuffer.array());
+    }
+
+    @Test
+    public void dentryCache() {
+        System.out.println("\n\n\n============================    dentry cache with negative entries");
+        FileSystem fileSystem = new FileSystem(new IOSystem(new LDisk()));
+        fileSystem.setDentryCacheCapacity(4);
+        fileSystem.mkdir("a");
+        fileSystem.mkdir("a/b");
+        fileSystem.create("a/b/c");
+        DentryCache cache = fileSystem.getDentryCache();
+
+        int oftindex = fileSystem.open("a/b/c");
+        fileSystem.close(oftindex);
+        long misses = cache.getMisses();
+        fileSystem.close(fileSystem.open("a/b/c"));
+        Assert.assertEquals(misses, cache.getMisses());
+        Assert.assertTrue(cache.getHits() > 0);
+
+        // a missing path is remembered until it is created
+        Assert.assertEquals(FileSystem.STATUS_ERROR, fileSystem.open("a/b/d"));
+        Assert.assertEquals(FileSystem.STATUS_ERROR, fileSystem.open("a/b/d"));
+        Assert.assertEquals(1, cache.getNegativeHits());
+        fileSystem.create("a/b/d");
+        Assert.assertNotEquals(FileSystem.STATUS_ERROR, fileSystem.open("a/b/d"));
+
+        for (int i = 0; i < 8; i++) fileSystem.open("x" + i);
+        Assert.assertEquals(4, cache.size());
+        Assert.assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void thousandsOfOpenFiles() {
+        System.out.println("\n\n\n============================    open 2000 files at the same time");
+        FileSystem fileSystem = new FileSystem(new IOSystem(DiskGeometry.ofSize(1 << 20, 4096)), 2001);
+        for (int i = 0; i < 2000; i++) {
+            fileSystem.create("f" + i);
+        }
+
+        // 3 files by default
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i + 1, fileSystem.open("f" + i));
+        }
+        Assert.assertEquals(FileSystem.STATUS_ERROR, fileSystem.open("f3"));
+
+        fileSystem.setMaxNumberOfOpenFiles(2000);
+        int[] handles = new int[2000];
+        for (int i = 0; i < 2000; i++) {
+            handles[i] = fileSystem.open("f" + i);
+            Assert.assertNotEquals(FileSystem.STATUS_ERROR, handles[i]);
+        }
+        Assert.assertEquals(2000, fileSystem.OFT.getNumberOfOpenFiles());
+        Assert.assertEquals(handles[1999], fileSystem.open("f1999"));
+
+        // released handles are handed out again
+        Assert.assertEquals(FileSystem.STATUS_SUCCESS, fileSystem.close(handles[500]));
+        Assert.assertEquals(FileSystem.STATUS_SUCCESS, fileSystem.destroy("f1000"));
+        Assert.assertEquals(handles[1000], fileSystem.open("f500"));
+        Assert.assertNull(fileSystem.OFT.get(handles[500]));
+    }
+
+    @Test
+    public void adaptiveReadAhead() {
+        System.out.println("\n\n\n============================    read-ahead window for sequential, strided and random reads");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        IOSystem ioSystem = new IOSystem(geometry);
+        FileSystem fileSystem = new FileSystem(ioSystem);
+        fileSystem.create("fil1");
+        int oftindex = fileSystem.open("fil1");
+        byte[] memArea = new byte[200 * 512];
+        for (int i = 0; i < memArea.length; i++) memArea[i] = (byte) (i / 512);
+        Assert.assertEquals(memArea.length, fileSystem.write(oftindex, memArea, memArea.length));
+        fileSystem.close(oftindex);
+
+        // sequential: small reads, the window grows to its maximum and almost every block is fetched ahead
+        ioSystem.getStatistics().reset();
+        oftindex = fileSystem.open("fil1");
+        ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+        for (int i = 0; i < memArea.length / 100; i++) {
+            readBuffer.position(i * 100);
+            Assert.assertEquals(100, fileSystem.read(oftindex, readBuffer, 100));
+        }
+        Assert.assertArrayEquals(Arrays.copyOf(memArea, memArea.length / 100 * 100),
+                Arrays.copyOf(readBuffer.array(), memArea.length / 100 * 100));
+        Assert.assertEquals(ReadAhead.MAX_WINDOW, fileSystem.OFT.get(oftindex).readAhead.getWindow());
+        Assert.assertTrue(ioSystem.getStatistics().getReadAheadHitRate() > 0.95);
+        fileSystem.close(oftindex);
+
+        // strided: one byte of every 3rd block
+        ioSystem.getStatistics().reset();
+        oftindex = fileSystem.open("fil1");
+        ByteBuffer one = ByteBuffer.allocate(1);
+        for (int block = 0; block < 200; block += 3) {
+            fileSystem.lseek(oftindex, block * 512);
+            fileSystem.read(oftindex, one, 1);
+            Assert.assertEquals((byte) block, one.get(0));
+        }
+        Assert.assertTrue(fileSystem.OFT.get(oftindex).readAhead.getWindow() > 1);
+        Assert.assertTrue(ioSystem.getStatistics().getReadAheadHitRate() > 0.9);
+        fileSystem.close(oftindex);
+
+        // random: falls back to single blocks on demand
+        ioSystem.getStatistics().reset();
+        oftindex = fileSystem.open("fil1");
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < 50; i++) {
+            int block = random.nextInt(200);
+            fileSystem.lseek(oftindex, block * 512 + 1);
+            fileSystem.read(oftindex, one, 1);
+            Assert.assertEquals((byte) block, one.get(0));
+        }
+        Assert.assertTrue(ioSystem.getStatistics().getReadAheadBlocks() < 10);
+        Assert.assertTrue(ioSystem.getStatistics().getReadAheadHitRate() < 0.2);
+
+        // a block written back is not served from a stale copy fetched ahead
+        fileSystem.lseek(oftindex, 0);
+        fileSystem.read(oftindex, one, 1);
+        fileSystem.read(oftindex, ByteBuffer.allocate(600), 600);
+        fileSystem.lseek(oftindex, 2 * 512);
+        fileSystem.write(oftindex, new byte[]{99}, 1);
+        fileSystem.lseek(oftindex, 0);
+        fileSystem.read(oftindex, ByteBuffer.allocate(3 * 512), 2 * 512);
+        fileSystem.read(oftindex, one, 1);
+        Assert.assertEquals(99, one.get(0));
+    }
+
+    @Test
+    public void delayedAllocation() {
+        System.out.println("\n\n\n============================    two files written in turns are allocated at close, contiguously");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        byte[][] memAreas = new byte[2][40 * 512];
+        for (int i = 0; i < 40 * 512; i++) {
+            memAreas[0][i] = (byte) i;
+            memAreas[1][i] = (byte) (i / 512);
+        }
+        ByteBuffer[] readBuffers = {ByteBuffer.allocate(40 * 512), ByteBuffer.allocate(40 * 512)};
+        File image = null;
+        try {
+            image = File.createTempFile("disk", ".img");
+            IOSystem ioSystem = new IOSystem(geometry);
+            FileSystem fileSystem = new FileSystem(ioSystem);
+            fileSystem.create("fil1");
+            fileSystem.create("fil2");
+            int[] handles = {fileSystem.open("fil1"), fileSystem.open("fil2")};
+            for (int position = 0; position < 40 * 512; position += 100) {
+                for (int file = 0; file < 2; file++) {
+                    int count = Math.min(100, 40 * 512 - position);
+                    Assert.assertEquals(count, fileSystem.write(handles[file],
+                            Arrays.copyOfRange(memAreas[file], position, position + count), count));
+                }
+            }
+            // nothing is allocated or written before the flush
+            Assert.assertEquals(0, fileSystem.getNumberOfExtents("fil1"));
+            Assert.assertEquals(0, fileSystem.getAllocationStatistics().getAllocations());
+            Assert.assertEquals(0, ioSystem.getStatistics().getDataBlocksWritten());
+
+            fileSystem.close(handles[0]);
+            fileSystem.close(handles[1]);
+            Assert.assertEquals(1, fileSystem.getNumberOfExtents("fil1"));
+            Assert.assertEquals(1, fileSystem.getNumberOfExtents("fil2"));
+            // a run of data blocks and an index block for each file
+            Assert.assertEquals(4, fileSystem.getAllocationStatistics().getAllocations());
+
+            // past MAX_DIRTY_BLOCKS the handle flushes, and the file goes on where it stopped
+            fileSystem.create("fil3");
+            int oftindex = fileSystem.open("fil3");
+            byte[] large = new byte[(OpenFileTable.MAX_DIRTY_BLOCKS + 10) * 512];
+            Assert.assertEquals(large.length, fileSystem.write(oftindex, large, large.length));
+            Assert.assertTrue(fileSystem.getNumberOfExtents("fil3") > 0);
+            fileSystem.close(oftindex);
+            Assert.assertEquals(1, fileSystem.getNumberOfExtents("fil3"));
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath());
+            for (int file = 0; file < 2; file++) {
+                oftindex = restored.open(file == 0 ? "fil1" : "fil2");
+                Assert.assertEquals(40 * 512, restored.read(oftindex, readBuffers[file], 40 * 512));
+                restored.close(oftindex);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (image != null) deleteImage(image);
+        }
+
+        Assert.assertArrayEquals(memAreas[0], readBuffers[0].array());
+        Assert.assertArrayEquals(memAreas[1], readBuffers[1].array());
+    }
+
+    @Test
+    public void readFlushesOnlyCoveredBlocks() {
+        System.out.println("\n\n\n============================    read writes the blocks modified through the handle only if it covers them");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        IOSystem ioSystem = new IOSystem(geometry);
+        FileSystem fileSystem = new FileSystem(ioSystem);
+        fileSystem.create("fil1");
+        int oftindex = fileSystem.open("fil1");
+        byte[] memArea = new byte[8 * 512];
+        for (int i = 0; i < memArea.length; i++) {
+            memArea[i] = (byte) (i / 512);
+        }
+        Assert.assertEquals(memArea.length, fileSystem.write(oftindex, memArea, memArea.length));
+        fileSystem.close(oftindex);
+
+        oftindex = fileSystem.open("fil1");
+        byte[] changed = new byte[512];
+        Arrays.fill(changed, (byte) 99);
+        fileSystem.lseek(oftindex, 6 * 512);
+        Assert.assertEquals(512, fileSystem.write(oftindex, changed, 512));
+        fileSystem.lseek(oftindex, 3 * 512);
+        Assert.assertEquals(512, fileSystem.write(oftindex, changed, 512));
+        long written = ioSystem.getStatistics().getDataBlocksWritten();
+
+        // blocks #0 and #1 are not modified, nothing is written
+        fileSystem.lseek(oftindex, 0);
+        ByteBuffer readBuffer = ByteBuffer.allocate(8 * 512);
+        Assert.assertEquals(2 * 512, fileSystem.read(oftindex, readBuffer, 2 * 512));
+        Assert.assertEquals(written, ioSystem.getStatistics().getDataBlocksWritten());
+
+        // blocks #3 and #6 are read as whole blocks, so they are written first
+        readBuffer.position(2 * 512);
+        Assert.assertEquals(6 * 512, fileSystem.read(oftindex, readBuffer, 6 * 512));
+        Assert.assertTrue(ioSystem.getStatistics().getDataBlocksWritten() > written);
+        System.arraycopy(changed, 0, memArea, 3 * 512, 512);
+        System.arraycopy(changed, 0, memArea, 6 * 512, 512);
+        Assert.assertArrayEquals(memArea, readBuffer.array());
+        fileSystem.close(oftindex);
+    }
+
+    @Test
+    public void closeKeepsWriteBackCache() throws Exception {
+        System.out.println("\n\n\n============================    closing a file leaves the blocks of the cache to the save");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        IOSystem ioSystem = new IOSystem(geometry);
+        FileSystem fileSystem = new FileSystem(ioSystem);
+        byte[] memArea = new byte[3 * 512];
+        Arrays.fill(memArea, (byte) 5);
+        fileSystem.create("fil1");
+        fileSystem.create("fil2");
+        int oftindex = fileSystem.open("fil1");
+        Assert.assertEquals(memArea.length, fileSystem.write(oftindex, memArea, memArea.length));
+        fileSystem.close(oftindex);
+        int dirty = ioSystem.getCache().getNumberOfDirtyBlocks();
+        Assert.assertTrue(dirty >= 3);
+
+        // another file is closed without writing the blocks of the first one
+        oftindex = fileSystem.open("fil2");
+        fileSystem.close(oftindex);
+        Assert.assertEquals(dirty, ioSystem.getCache().getNumberOfDirtyBlocks());
+
+        File image = File.createTempFile("disk", ".img");
+        try {
+            fileSystem.saveFileSystemToFile(image.getPath());
+            fileSystem.close();
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath());
+            oftindex = restored.open("fil1");
+            ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+            Assert.assertEquals(memArea.length, restored.read(oftindex, readBuffer, memArea.length));
+            Assert.assertArrayEquals(memArea, readBuffer.array());
+            restored.close();
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    @Test
+    public void concurrentFiles() throws Exception {
+        System.out.println("\n\n\n============================    8 threads create, write, read and destroy their own files");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        FileSystem fileSystem = new FileSystem(new IOSystem(geometry));
+        fileSystem.setMaxNumberOfOpenFiles(8);
+        int freeBlocks = fileSystem.getAllocationStatistics().getFreeBlocks();
+
+        Thread[] threads = new Thread[8];
+        boolean[] correct = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                byte[] memArea = new byte[20 * 512 + 100];
+                ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+                correct[thread] = true;
+                for (int round = 0; round < 20; round++) {
+                    String name = "t" + thread;
+                    Arrays.fill(memArea, (byte) (thread * 20 + round));
+                    fileSystem.create(name);
+                    int oftindex = fileSystem.open(name);
+                    // small pieces, so other threads get the bitmap lock in between
+                    for (int position = 0; position < memArea.length; position += 300) {
+                        int count = Math.min(300, memArea.length - position);
+                        fileSystem.write(oftindex, Arrays.copyOfRange(memArea, position, position + count), count);
+                    }
+                    fileSystem.close(oftindex);
+
+                    oftindex = fileSystem.open(name);
+                    readBuffer.clear();
+                    fileSystem.read(oftindex, readBuffer, memArea.length);
+                    fileSystem.close(oftindex);
+                    correct[thread] &= Arrays.equals(memArea, readBuffer.array())
+                            && fileSystem.getNumberOfExtents(name) >= 1
+                            && fileSystem.destroy(name) == FileSystem.STATUS_SUCCESS;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (boolean threadCorrect : correct) {
+            Assert.assertTrue(threadCorrect);
+        }
+        // no block was lost or allocated twice
+        Assert.assertEquals(freeBlocks, fileSystem.getAllocationStatistics().getFreeBlocks());
+    }
+
+    @Test
+    public void positionalReadWrite() throws Exception {
+        System.out.println("\n\n\n============================    pread / pwrite leave the cursor alone, threads pread one handle");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        FileSystem fileSystem = new FileSystem(new IOSystem(geometry));
+        fileSystem.create("fil1");
+        int oftindex = fileSystem.open("fil1");
+
+        // pwrite grows an empty file; unaligned pieces are patched into their blocks
+        byte[] memArea = new byte[100 * 512];
+        for (int i = 0; i < memArea.length; i++) memArea[i] = (byte) (i * 7);
+        Assert.assertEquals(memArea.length - 300, fileSystem.pwrite(oftindex, ByteBuffer.wrap(memArea, 0, memArea.length - 300), 0));
+        Assert.assertEquals(300, fileSystem.pwrite(oftindex, ByteBuffer.wrap(memArea, memArea.length - 300, 300), memArea.length - 300));
+        Assert.assertEquals(FileSystem.STATUS_ERROR, fileSystem.pwrite(oftindex, ByteBuffer.wrap(memArea), memArea.length + 1));
+
+        // the cursor is still at 0, and what write() leaves in the handle is seen by pread
+        byte[] head = {1, 2, 3};
+        Assert.assertEquals(3, fileSystem.write(oftindex, head, 3));
+        System.arraycopy(head, 0, memArea, 0, 3);
+        ByteBuffer readBuffer = ByteBuffer.allocate(10);
+        Assert.assertEquals(10, fileSystem.pread(oftindex, readBuffer, 0));
+        Assert.assertArrayEquals(Arrays.copyOf(memArea, 10), readBuffer.array());
+
+        // threads read different parts of the file through one handle
+        Thread[] threads = new Thread[4];
+        boolean[] correct = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                java.util.Random random = new java.util.Random(thread);
+                ByteBuffer part = ByteBuffer.allocateDirect(1500);
+                correct[thread] = true;
+                for (int i = 0; i < 200; i++) {
+                    int offset = random.nextInt(memArea.length - part.capacity());
+                    part.clear();
+                    correct[thread] &= fileSystem.pread(oftindex, part, offset) == part.capacity();
+                    for (int j = 0; j < part.capacity(); j++) {
+                        correct[thread] &= part.get(j) == memArea[offset + j];
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean threadCorrect : correct) {
+            Assert.assertTrue(threadCorrect);
+        }
+
+        // the block in RWBuffer is refreshed by pwrite, read() goes on from the cursor
+        Assert.assertEquals(1, fileSystem.pwrite(oftindex, ByteBuffer.wrap(new byte[]{99}), 3));
+        ByteBuffer one = ByteBuffer.allocate(1);
+        Assert.assertEquals(1, fileSystem.read(oftindex, one, 1));
+        Assert.assertEquals(99, one.get(0));
+        readBuffer = ByteBuffer.allocate(memArea.length);
+        Assert.assertEquals(memArea.length - 100, fileSystem.pread(oftindex, (ByteBuffer) readBuffer.position(100), 100));
+        Assert.assertArrayEquals(Arrays.copyOfRange(memArea, 100, memArea.length),
+                Arrays.copyOfRange(readBuffer.array(), 100, memArea.length));
+    }
+
+    @Test
+    public void incrementalCheckpoint() throws Exception {
+        System.out.println("\n\n\n============================    saving again to the same image appends only changed blocks");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            IOSystem ioSystem = new IOSystem(geometry);
+            FileSystem fileSystem = new FileSystem(ioSystem);
+            byte[] memArea = new byte[4 * 512];
+            for (int i = 0; i < 20; i++) {
+                Arrays.fill(memArea, (byte) i);
+                fileSystem.create("f" + i);
+                int oftindex = fileSystem.open("f" + i);
+                fileSystem.write(oftindex, memArea, memArea.length);
+                fileSystem.close(oftindex);
+            }
+            fileSystem.saveFileSystemToFile(image.getPath());
+            long imageLength = image.length();
+            Assert.assertEquals(0, ioSystem.getNumberOfDirtyBlocks());
+
+            // one block of one file is overwritten: only that block is appended, metadata did not change
+            int oftindex = fileSystem.open("f7");
+            fileSystem.lseek(oftindex, 512);
+            fileSystem.write(oftindex, new byte[512], 512);
+            fileSystem.saveFileSystemToFile(image.getPath());
+            Assert.assertEquals(imageLength + DiskImage.DELTA_HEADER_LENGTH + 512, image.length());
+
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath());
+            Assert.assertEquals(imageLength, image.length());
+            oftindex = restored.open("f7");
+            ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+            Assert.assertEquals(memArea.length, restored.read(oftindex, readBuffer, memArea.length));
+            Arrays.fill(memArea, (byte) 7);
+            Arrays.fill(memArea, 512, 1024, (byte) 0);
+            Assert.assertArrayEquals(memArea, readBuffer.array());
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    @Test
+    public void metadataJournal() throws Exception {
+        System.out.println("\n\n\n============================    changes after a save are journaled and replayed on restore");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        File image = File.createTempFile("disk", ".img");
+        File journal = new File(image.getPath() + FileSystem.JOURNAL_SUFFIX);
+        try {
+            IOSystem ioSystem = new IOSystem(geometry);
+            ioSystem.mount(image.getPath());
+            FileSystem fileSystem = new FileSystem(ioSystem, 100);
+            fileSystem.setMaxNumberOfOpenFiles(9);
+            fileSystem.create("old");
+            fileSystem.saveFileSystemToFile(image.getPath());
+            Assert.assertFalse(journal.exists());
+
+            // threads create and write files at once, their records share flushes of the journal
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    byte[] memArea = new byte[3 * 512 + 10];
+                    for (int i = 0; i < 4; i++) {
+                        Arrays.fill(memArea, (byte) (thread * 4 + i));
+                        fileSystem.create("t" + thread + "_" + i);
+                        int oftindex = fileSystem.open("t" + thread + "_" + i);
+                        fileSystem.write(oftindex, memArea, memArea.length);
+                        fileSystem.close(oftindex);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            fileSystem.mkdir("d");
+            fileSystem.create("d/x");
+            fileSystem.destroy("old");
+            fileSystem.destroy("t0_0");
+            System.out.println("journal flushes: " + fileSystem.getJournal().getNumberOfBatches());
+            Assert.assertTrue(journal.length() > 0);
+
+            // a record cut short by a crash is dropped
+            try (java.io.FileOutputStream tail = new java.io.FileOutputStream(journal, true)) {
+                tail.write(new byte[]{0, 0, 0, 40, MetadataJournal.CREATE, 1});
+            }
+
+            // crash: the image was not saved again, so everything comes from the journal
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath(), 100);
+            Assert.assertEquals(fileSystem.getAllocationStatistics().getFreeBlocks(),
+                    restored.getAllocationStatistics().getFreeBlocks());
+            Assert.assertEquals(FileSystem.STATUS_ERROR, restored.open("old"));
+            Assert.assertEquals(FileSystem.STATUS_ERROR, restored.open("t0_0"));
+            Assert.assertNotEquals(FileSystem.STATUS_ERROR, restored.close(restored.open("d/x")));
+            byte[] memArea = new byte[3 * 512 + 10];
+            for (int thread = 0; thread < threads.length; thread++) {
+                for (int i = thread == 0 ? 1 : 0; i < 4; i++) {
+                    int oftindex = restored.open("t" + thread + "_" + i);
+                    ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+                    restored.read(oftindex, readBuffer, memArea.length);
+                    restored.close(oftindex);
+                    Arrays.fill(memArea, (byte) (thread * 4 + i));
+                    Assert.assertArrayEquals(memArea, readBuffer.array());
+                }
+            }
+
+            // the next save holds the changes, the journal starts empty
+            restored.saveFileSystemToFile(image.getPath());
+            Assert.assertFalse(journal.exists());
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    @Test
+    public void closeStopsJournal() throws Exception {
+        System.out.println("\n\n\n============================    closing the file system stops its journal");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            IOSystem ioSystem = new IOSystem(geometry);
+            ioSystem.mount(image.getPath());
+            FileSystem fileSystem = new FileSystem(ioSystem);
+            fileSystem.saveFileSystemToFile(image.getPath());
+            Set<Thread> before = new HashSet<>(Thread.getAllStackTraces().keySet());
+            fileSystem.create("f");
+            int oftindex = fileSystem.open("f");
+            fileSystem.write(oftindex, new byte[]{1, 2, 3}, 3);
+
+            List<Thread> committers = new ArrayList<>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (!before.contains(thread) && thread.getName().equals("metadata journal")) committers.add(thread);
+            }
+            Assert.assertEquals(1, committers.size());
+
+            // the open file is closed, its records are durable before the committer ends
+            fileSystem.close();
+            Assert.assertFalse(committers.get(0).isAlive());
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath());
+            oftindex = restored.open("f");
+            ByteBuffer readBuffer = ByteBuffer.allocate(3);
+            Assert.assertEquals(3, restored.read(oftindex, readBuffer, 3));
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, readBuffer.array());
+            restored.close();
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    @Test
+    public void journaledDestroyBeforeBlockReuse() throws Exception {
+        System.out.println("\n\n\n============================    blocks of a destroyed file are reused only after its removal is journaled");
+        DiskGeometry geometry = new DiskGeometry(8, 2, 8, 512);
+        File image = File.createTempFile("disk", ".img");
+        File journal = new File(image.getPath() + FileSystem.JOURNAL_SUFFIX);
+        try {
+            // data blocks reach a mapped image as they are written, the journal holds the metadata
+            IOSystem ioSystem = new IOSystem(geometry);
+            ioSystem.mount(image.getPath());
+            FileSystem fileSystem = new FileSystem(ioSystem, 64);
+            fileSystem.setMaxNumberOfOpenFiles(5);
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            // threads destroy files while the others create and write files, the small disk has them reuse blocks;
+            // every 25th file is kept
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    byte[] memArea = new byte[2 * 512];
+                    for (int i = 0; i < 200; i++) {
+                        Arrays.fill(memArea, (byte) i);
+                        fileSystem.create("t" + thread + "_" + i);
+                        int oftindex = fileSystem.open("t" + thread + "_" + i);
+                        fileSystem.write(oftindex, memArea, memArea.length);
+                        fileSystem.close(oftindex);
+                        if (i % 25 != 0) fileSystem.destroy("t" + thread + "_" + i);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // at every record of the journal (where a crash may cut it), no block belongs to two files
+            Map<Integer, Integer> owners = new HashMap<>();
+            MetadataJournal.replay(journal, new MetadataJournal.Target() {
+                @Override
+                public void create(int parentFDIndex, String name, int FDIndex, boolean isDirectory) {
+                }
+
+                @Override
+                public void remove(int parentFDIndex, String name, int FDIndex) {
+                    owners.values().removeIf(owner -> owner == FDIndex);
+                }
+
+                @Override
+                public void blocks(int FDIndex, int firstBlock, int[] blocks, int firstIndexBlock, int[] indexBlocks) {
+                    for (int block : blocks) {
+                        Integer owner = owners.put(block, FDIndex);
+                        Assert.assertTrue("block " + block + " of file #" + owner + " given to file #" + FDIndex,
+                                owner == null || owner == FDIndex);
+                    }
+                }
+            });
+
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath(), 64);
+            Assert.assertEquals(fileSystem.getAllocationStatistics().getFreeBlocks(),
+                    restored.getAllocationStatistics().getFreeBlocks());
+            byte[] memArea = new byte[2 * 512];
+            for (int thread = 0; thread < threads.length; thread++) {
+                for (int i = 0; i < 200; i += 25) {
+                    int oftindex = restored.open("t" + thread + "_" + i);
+                    ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+                    restored.read(oftindex, readBuffer, memArea.length);
+                    restored.close(oftindex);
+                    Arrays.fill(memArea, (byte) i);
+                    Assert.assertArrayEquals(memArea, readBuffer.array());
+                }
+            }
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    @Test
+    public void superblockAndLazyMount() throws Exception {
+        System.out.println("\n\n\n============================    superblock gives the layout, descriptors are read on first use");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            FileSystem fileSystem = new FileSystem(new IOSystem(geometry), 4096);
+            for (int i = 0; i < 1000; i++) {
+                fileSystem.create("f" + i);
+            }
+            for (int i : new int[]{5, 999}) {
+                int oftindex = fileSystem.open("f" + i);
+                fileSystem.write(oftindex, new byte[]{(byte) i, 1, 2}, 3);
+                fileSystem.close(oftindex);
+            }
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            // the number of descriptors comes from the superblock; 128 blocks of them and the root are not read
+            IOSystem ioSystem = new IOSystem(geometry);
+            FileSystem restored = new FileSystem(ioSystem, image.getPath());
+            Assert.assertTrue(ioSystem.getStatistics().getMetadataBlocksRead() < 8);
+            Assert.assertEquals(fileSystem.getAllocationStatistics().getFreeBlocks(),
+                    restored.getAllocationStatistics().getFreeBlocks());
+            int oftindex = restored.open("f999");
+            ByteBuffer readBuffer = ByteBuffer.allocate(3);
+            Assert.assertEquals(3, restored.read(oftindex, readBuffer, 3));
+            Assert.assertArrayEquals(new byte[]{(byte) 999, 1, 2}, readBuffer.array());
+            restored.close(oftindex);
+
+            // descriptors never read are kept by the next save
+            Assert.assertEquals(FileSystem.STATUS_SUCCESS, restored.create("new"));
+            restored.saveFileSystemToFile(image.getPath());
+            FileSystem again = new FileSystem(new IOSystem(geometry), image.getPath());
+            Assert.assertNotEquals(FileSystem.STATUS_ERROR, again.open("new"));
+            oftindex = again.open("f5");
+            readBuffer = ByteBuffer.allocate(3);
+            Assert.assertEquals(3, again.read(oftindex, readBuffer, 3));
+            Assert.assertArrayEquals(new byte[]{5, 1, 2}, readBuffer.array());
+            for (int i = 0; i < 4096 - 1002; i++) {
+                Assert.assertEquals(FileSystem.STATUS_SUCCESS, again.create("g" + i));
+            }
+            Assert.assertEquals(FileSystem.STATUS_ERROR, again.create("full"));
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    @Test
+    public void journalReplayKeepsMountLazy() throws Exception {
+        System.out.println("\n\n\n============================    a replayed journal reads only the descriptors it changes");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            // data written after the save reaches the image, as its journal records do
+            IOSystem mounted = new IOSystem(geometry);
+            mounted.mount(image.getPath());
+            FileSystem fileSystem = new FileSystem(mounted, 4096);
+            for (int i = 0; i < 1000; i++) {
+                fileSystem.create("f" + i);
+            }
+            int oftindex = fileSystem.open("f5");
+            fileSystem.write(oftindex, new byte[2 * 512], 2 * 512);
+            fileSystem.close(oftindex);
+            fileSystem.saveFileSystemToFile(image.getPath());
+
+            // journaled only: a new file with blocks, and a file with blocks destroyed
+            byte[] memArea = new byte[3 * 512];
+            Arrays.fill(memArea, (byte) 3);
+            fileSystem.create("new");
+            oftindex = fileSystem.open("new");
+            fileSystem.write(oftindex, memArea, memArea.length);
+            fileSystem.close(oftindex);
+            fileSystem.destroy("f5");
+
+            IOSystem ioSystem = new IOSystem(geometry);
+            FileSystem restored = new FileSystem(ioSystem, image.getPath());
+            System.out.println("metadata blocks read: " + ioSystem.getStatistics().getMetadataBlocksRead());
+            // far fewer than the 128 blocks of descriptors
+            Assert.assertTrue(ioSystem.getStatistics().getMetadataBlocksRead() < 64);
+            Assert.assertEquals(fileSystem.getAllocationStatistics().getFreeBlocks(),
+                    restored.getAllocationStatistics().getFreeBlocks());
+            oftindex = restored.open("new");
+            ByteBuffer readBuffer = ByteBuffer.allocate(memArea.length);
+            Assert.assertEquals(memArea.length, restored.read(oftindex, readBuffer, memArea.length));
+            Assert.assertArrayEquals(memArea, readBuffer.array());
+            restored.close(oftindex);
+
+            // the free descriptors are counted from the replayed records
+            for (int i = 0; i < 4096 - 1001; i++) {
+                Assert.assertEquals(FileSystem.STATUS_SUCCESS, restored.create("g" + i));
+            }
+            Assert.assertEquals(FileSystem.STATUS_ERROR, restored.create("full"));
+            restored.close();
+            fileSystem.close();
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    @Test
+    public void superblockFreeBlocksCheckedOnMount() throws Exception {
+        System.out.println("\n\n\n============================    a superblock that disagrees with the bitmap is not mounted");
+        DiskGeometry geometry = new DiskGeometry(64, 2, 8, 512);
+        File image = File.createTempFile("disk", ".img");
+        try {
+            FileSystem fileSystem = new FileSystem(new IOSystem(geometry));
+            fileSystem.create("fil1");
+            int oftindex = fileSystem.open("fil1");
+            fileSystem.write(oftindex, new byte[3 * 512], 3 * 512);
+            fileSystem.close(oftindex);
+            fileSystem.saveFileSystemToFile(image.getPath());
+            fileSystem.close();
+
+            FileSystem restored = new FileSystem(new IOSystem(geometry), image.getPath());
+            Assert.assertEquals(fileSystem.getAllocationStatistics().getFreeBlocks(),
+                    restored.getAllocationStatistics().getFreeBlocks());
+            restored.close();
+
+            // free blocks of the superblock, block #0 of the image
+            try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+                file.seek(DiskImage.HEADER_LENGTH + 48);
+                file.writeInt(fileSystem.getAllocationStatistics().getFreeBlocks() + 3);
+            }
+            try {
+                new FileSystem(new IOSystem(geometry), image.getPath());
+                Assert.fail("mounted a superblock that does not match the bitmap");
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getMessage().contains("free blocks"));
+            }
+        } finally {
+            deleteImage(image);
+        }
+    }
+
+    /**
+     * Deletes a disk image and the journal left next to it.
+     */
+    private static void deleteImage(File image) {
+        image.delete();
+        new File(image.getPath() + FileSystem.JOURNAL_SUFFIX).delete();
+    }
+}
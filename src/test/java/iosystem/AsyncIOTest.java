@@ -0,0 +1,142 @@
+package iosystem;
+
+import disk.ArrayBlockDevice;
+import disk.DiskGeometry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+public class AsyncIOTest {
+
+    /**
+     * Device whose first read waits until the test has queued its requests.
+     */
+    private static class GatedDevice extends ArrayBlockDevice {
+        final CountDownLatch gate = new CountDownLatch(1);
+        int reads;
+        int writes;
+
+        GatedDevice(DiskGeometry geometry) {
+            super(geometry);
+        }
+
+        @Override
+        public void readBlock(int blockNumber, byte[] dst, int offset) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reads++;
+            super.readBlock(blockNumber, dst, offset);
+        }
+
+        @Override
+        public void writeBlock(int blockNumber, byte[] src, int offset) {
+            writes++;
+            super.writeBlock(blockNumber, src, offset);
+        }
+    }
+
+    @Test
+    public void requestsForQueuedBlockAreMerged() {
+        System.out.println("\n\n\n============================    requests for a queued block are merged");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        GatedDevice device = new GatedDevice(geometry);
+        IOSystem ioSystem = new IOSystem(device, geometry, 0);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        byte[] bytes = new byte[blockLength];
+        bytes[0] = 7;
+        device.writeBlock(20, bytes, 0);
+        device.writes = 0;
+
+        // the I/O thread is stuck on block 10 while the rest is queued
+        CompletableFuture<Void> blocker = ioSystem.submitRead(10, ByteBuffer.allocate(blockLength));
+        ByteBuffer first = ByteBuffer.allocate(blockLength);
+        ByteBuffer second = ByteBuffer.allocate(blockLength);
+        ByteBuffer afterWrite = ByteBuffer.allocate(blockLength);
+        CompletableFuture<Void> firstRead = ioSystem.submitRead(20, first);
+        CompletableFuture<Void> secondRead = ioSystem.submitRead(20, second);
+
+        bytes[0] = 8;
+        CompletableFuture<Void> firstWrite = ioSystem.submitWrite(20, ByteBuffer.wrap(bytes));
+        bytes[0] = 9;
+        CompletableFuture<Void> secondWrite = ioSystem.submitWrite(20, ByteBuffer.wrap(bytes));
+        CompletableFuture<Void> readAfterWrite = ioSystem.submitRead(20, afterWrite);
+
+        // served from the queued write without touching the device
+        Assert.assertTrue(readAfterWrite.isDone());
+        Assert.assertEquals(9, afterWrite.get(0));
+
+        device.gate.countDown();
+        CompletableFuture.allOf(blocker, firstRead, secondRead, firstWrite, secondWrite).join();
+
+        Assert.assertEquals(7, first.get(0));
+        Assert.assertEquals(7, second.get(0));
+        Assert.assertEquals(2, device.reads);
+        Assert.assertEquals(1, device.writes);
+        Assert.assertEquals(6, ioSystem.getAsyncRequests());
+        Assert.assertEquals(4, ioSystem.getMergedAsyncRequests());
+
+        byte[] onDevice = new byte[blockLength];
+        ioSystem.read_block(20, onDevice, 0);
+        Assert.assertEquals(9, onDevice[0]);
+    }
+
+    @Test
+    public void writeIsNotMergedPastVectoredRead() {
+        System.out.println("\n\n\n============================    a vectored read queued before a write sees the old contents");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        GatedDevice device = new GatedDevice(geometry);
+        IOSystem ioSystem = new IOSystem(device, geometry, 0);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        byte[] bytes = new byte[blockLength];
+        bytes[0] = 7;
+        device.writeBlock(20, bytes, 0);
+
+        CompletableFuture<Void> blocker = ioSystem.submitRead(10, ByteBuffer.allocate(blockLength));
+        ByteBuffer read = ByteBuffer.allocate(blockLength);
+        ByteBuffer vectoredRead = ByteBuffer.allocate(blockLength);
+        CompletableFuture<Void> firstRead = ioSystem.submitRead(20, read);
+        CompletableFuture<Void> secondRead = ioSystem.submitReadBlocks(new int[]{20}, new ByteBuffer[]{vectoredRead});
+        bytes[0] = 8;
+        CompletableFuture<Void> write = ioSystem.submitWrite(20, ByteBuffer.wrap(bytes));
+
+        device.gate.countDown();
+        CompletableFuture.allOf(blocker, firstRead, secondRead, write).join();
+
+        Assert.assertEquals(7, read.get(0));
+        Assert.assertEquals(7, vectoredRead.get(0));
+        Assert.assertEquals(0, ioSystem.getMergedAsyncRequests());
+        byte[] onDevice = new byte[blockLength];
+        ioSystem.read_block(20, onDevice, 0);
+        Assert.assertEquals(8, onDevice[0]);
+    }
+
+    @Test
+    public void flushWaitsForQueuedWrites() {
+        System.out.println("\n\n\n============================    flushCache() waits for queued writes");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        ArrayBlockDevice device = new ArrayBlockDevice(geometry);
+        IOSystem ioSystem = new IOSystem(device, geometry);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        ByteBuffer block = ByteBuffer.allocate(blockLength);
+        for (int i = 0; i < geometry.getNumberOfBlocks(); i++) {
+            block.put(0, (byte) i);
+            ioSystem.submitWrite(i, block);
+        }
+        ioSystem.flushCache();
+
+        byte[] onDevice = new byte[blockLength];
+        for (int i = 0; i < geometry.getNumberOfBlocks(); i++) {
+            device.readBlock(i, onDevice, 0);
+            Assert.assertEquals((byte) i, onDevice[0]);
+        }
+    }
+}
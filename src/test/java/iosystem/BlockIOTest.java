@@ -0,0 +1,86 @@
+package iosystem;
+
+import disk.DiskGeometry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class BlockIOTest {
+
+    @Test
+    public void scatterGather() {
+        System.out.println("\n\n\n============================    write blocks 10, 11, 3, read them back");
+        IOSystem ioSystem = new IOSystem(DiskGeometry.DEFAULT);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        ByteBuffer src = ByteBuffer.allocate(3 * blockLength);
+        for (int i = 0; i < src.capacity(); i++) {
+            src.put(i, (byte) (i / blockLength + 1));
+        }
+        ByteBuffer[] srcBlocks = new ByteBuffer[3];
+        for (int i = 0; i < 3; i++) {
+            srcBlocks[i] = (ByteBuffer) src.duplicate().position(i * blockLength);
+        }
+        ioSystem.writeBlocks(new int[]{10, 11, 3}, srcBlocks);
+
+        ByteBuffer dst = ByteBuffer.allocate(2 * blockLength);
+        ioSystem.readBlockRange(10, 2, dst);
+        Assert.assertEquals(0, dst.position());
+        Assert.assertEquals(1, dst.get(0));
+        Assert.assertEquals(2, dst.get(2 * blockLength - 1));
+
+        ByteBuffer block = ByteBuffer.allocate(blockLength);
+        ioSystem.readBlocks(new int[]{3}, new ByteBuffer[]{block});
+        Assert.assertEquals(3, block.get(blockLength - 1));
+    }
+
+    @Test
+    public void invalidBlockIsRejectedBeforeCopying() {
+        System.out.println("\n\n\n============================    vectored write with one invalid block number");
+        IOSystem ioSystem = new IOSystem(DiskGeometry.DEFAULT);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        byte[] ones = new byte[blockLength];
+        Arrays.fill(ones, (byte) 1);
+        Exception exception = null;
+        try {
+            ioSystem.writeBlocks(new int[]{20, 64}, new ByteBuffer[]{ByteBuffer.wrap(ones), ByteBuffer.wrap(ones)});
+        } catch (Exception e) {
+            exception = e;
+        }
+        Assert.assertNotNull(exception);
+
+        ByteBuffer block = ByteBuffer.allocate(blockLength);
+        ioSystem.read_block(20, block);
+        Assert.assertEquals(0, block.get(0));
+    }
+
+    @Test
+    public void directBufferAtOffset() {
+        System.out.println("\n\n\n============================    read and write blocks through a direct buffer at position 10");
+        IOSystem ioSystem = new IOSystem(DiskGeometry.DEFAULT);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        ByteBuffer src = ByteBuffer.allocateDirect(blockLength + 10);
+        for (int i = 0; i < src.capacity(); i++) {
+            src.put(i, (byte) i);
+        }
+        src.position(10);
+        ioSystem.write_block(30, src);
+        Assert.assertEquals(10, src.position());
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(blockLength + 10);
+        dst.position(10);
+        ioSystem.read_block(30, dst);
+        Assert.assertEquals(10, dst.position());
+        for (int i = 10; i < dst.capacity(); i++) {
+            Assert.assertEquals((byte) i, dst.get(i));
+        }
+
+        byte[] array = new byte[blockLength + 5];
+        ioSystem.read_block(30, array, 5);
+        Assert.assertEquals(10, array[5]);
+    }
+}
@@ -0,0 +1,193 @@
+package iosystem;
+
+import disk.ArrayBlockDevice;
+import disk.DiskGeometry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BufferCacheTest {
+
+    @Test
+    public void hitsAndMisses() {
+        System.out.println("\n\n\n============================    read the same blocks twice through a cache of 4 blocks");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        IOSystem ioSystem = new IOSystem(new ArrayBlockDevice(geometry), geometry, 4);
+        ByteBuffer block = ByteBuffer.allocate(ioSystem.getBlockLengthInBytes());
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 4; i++) {
+                ioSystem.read_block(i, block);
+            }
+        }
+
+        BufferCache cache = ioSystem.getCache();
+        Assert.assertEquals(4, cache.getMisses());
+        Assert.assertEquals(4, cache.getHits());
+        Assert.assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void writeBackOnEvictionAndFlush() {
+        System.out.println("\n\n\n============================    dirty blocks reach the device only when evicted or flushed");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        ArrayBlockDevice device = new ArrayBlockDevice(geometry);
+        IOSystem ioSystem = new IOSystem(device, geometry, 2);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        byte[] bytes = new byte[blockLength];
+        byte[] onDevice = new byte[blockLength];
+        for (int i = 0; i < 3; i++) {
+            bytes[0] = (byte) (i + 1);
+            ioSystem.write_block(10 + i, bytes);
+        }
+
+        // third write evicted one of the first two blocks
+        BufferCache cache = ioSystem.getCache();
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(1, cache.getWriteBacks());
+        device.readBlock(12, onDevice, 0);
+        Assert.assertEquals(0, onDevice[0]);
+
+        ioSystem.flushCache();
+        device.readBlock(12, onDevice, 0);
+        Assert.assertEquals(3, onDevice[0]);
+        Assert.assertEquals(0, cache.getNumberOfDirtyBlocks());
+
+        // evicted block is read back from the device
+        ByteBuffer block = ByteBuffer.allocate(blockLength);
+        for (int i = 0; i < 3; i++) {
+            ioSystem.read_block(10 + i, block);
+            Assert.assertEquals(i + 1, block.get(0));
+        }
+    }
+
+    @Test
+    public void rangeReadMixesCachedAndMissingBlocks() {
+        System.out.println("\n\n\n============================    range read over cached and missing blocks");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        ArrayBlockDevice device = new ArrayBlockDevice(geometry);
+        IOSystem ioSystem = new IOSystem(device, geometry, 8);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        byte[] bytes = new byte[blockLength];
+        for (int i = 0; i < 6; i++) {
+            bytes[0] = (byte) (i + 1);
+            device.writeBlock(20 + i, bytes, 0);
+        }
+        bytes[0] = 42;
+        ioSystem.write_block(22, bytes);
+
+        ByteBuffer blocks = ByteBuffer.allocate(6 * blockLength);
+        ioSystem.readBlockRange(20, 6, blocks);
+        Assert.assertEquals(1, blocks.get(0));
+        Assert.assertEquals(42, blocks.get(2 * blockLength));
+        Assert.assertEquals(6, blocks.get(5 * blockLength));
+    }
+
+    @Test
+    public void flushCoalescesAdjacentBlocks() {
+        System.out.println("\n\n\n============================    flush writes adjacent dirty blocks with one request");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        List<Integer> requests = new ArrayList<>();
+        ArrayBlockDevice device = new ArrayBlockDevice(geometry) {
+            @Override
+            public void writeBlock(int blockNumber, byte[] src, int offset) {
+                requests.add(1);
+                super.writeBlock(blockNumber, src, offset);
+            }
+
+            @Override
+            public void writeBlocks(int firstBlock, int count, byte[] src, int offset) {
+                requests.add(count);
+                super.writeBlocks(firstBlock, count, src, offset);
+            }
+        };
+        IOSystem ioSystem = new IOSystem(device, geometry, 8);
+        byte[] bytes = new byte[geometry.getBlockLengthInBytes()];
+        for (int block : new int[]{5, 3, 7, 4}) {
+            bytes[0] = (byte) block;
+            ioSystem.write_block(block, bytes);
+        }
+        ioSystem.flushCache();
+
+        Assert.assertEquals(Arrays.asList(3, 1), requests);
+        byte[] onDevice = new byte[geometry.getBlockLengthInBytes()];
+        for (int block : new int[]{3, 4, 5, 7}) {
+            device.readBlock(block, onDevice, 0);
+            Assert.assertEquals(block, onDevice[0]);
+        }
+    }
+
+    @Test
+    public void concurrentMissesAndWriteBacks() throws Exception {
+        System.out.println("\n\n\n============================    misses of different blocks reach the device at the same time");
+        DiskGeometry geometry = DiskGeometry.DEFAULT;
+        // every read waits until another read is in the device as well, which the cache lock would prevent
+        CountDownLatch overlapping = new CountDownLatch(2);
+        AtomicBoolean overlapped = new AtomicBoolean(true);
+        ArrayBlockDevice device = new ArrayBlockDevice(geometry) {
+            @Override
+            public void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+                overlapping.countDown();
+                try {
+                    if (!overlapping.await(5, TimeUnit.SECONDS)) overlapped.set(false);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.readBlocks(firstBlock, count, dst);
+            }
+        };
+        IOSystem ioSystem = new IOSystem(device, geometry, 4);
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            int block = t;
+            threads[t] = new Thread(() -> ioSystem.read_block(block, ByteBuffer.allocate(geometry.getBlockLengthInBytes())));
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(overlapped.get());
+
+        // threads write and read back their own blocks through a cache much smaller than them
+        Thread[] writers = new Thread[4];
+        AtomicBoolean consistent = new AtomicBoolean(true);
+        for (int t = 0; t < writers.length; t++) {
+            int thread = t;
+            writers[t] = new Thread(() -> {
+                byte[] bytes = new byte[geometry.getBlockLengthInBytes()];
+                ByteBuffer block = ByteBuffer.allocate(geometry.getBlockLengthInBytes());
+                for (int round = 1; round <= 50; round++) {
+                    for (int i = thread; i < geometry.getNumberOfBlocks(); i += writers.length) {
+                        bytes[0] = (byte) round;
+                        bytes[1] = (byte) i;
+                        ioSystem.write_block(i, bytes);
+                    }
+                    for (int i = thread; i < geometry.getNumberOfBlocks(); i += writers.length) {
+                        ioSystem.read_block(i, block);
+                        if (block.get(0) != (byte) round || block.get(1) != (byte) i) consistent.set(false);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Assert.assertTrue(consistent.get());
+        ioSystem.flushCache();
+        byte[] onDevice = new byte[geometry.getBlockLengthInBytes()];
+        for (int i = 0; i < geometry.getNumberOfBlocks(); i++) {
+            device.readBlock(i, onDevice, 0);
+            Assert.assertEquals(50, onDevice[0]);
+        }
+    }
+}
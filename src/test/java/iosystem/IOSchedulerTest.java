@@ -0,0 +1,120 @@
+package iosystem;
+
+import disk.ArrayBlockDevice;
+import disk.DiskGeometry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IOSchedulerTest {
+    private static final DiskGeometry GEOMETRY = new DiskGeometry(100, 2, 8, 64);
+
+    /**
+     * Device that remembers the cylinders in the order they were read.
+     */
+    private static class RecordingDevice extends ArrayBlockDevice {
+        final List<Integer> cylinders = new ArrayList<>();
+
+        RecordingDevice() {
+            super(GEOMETRY);
+        }
+
+        @Override
+        public void readBlocks(int firstBlock, int count, ByteBuffer dst) {
+            cylinders.add(GEOMETRY.getCylinder(firstBlock));
+            super.readBlocks(firstBlock, count, dst);
+        }
+    }
+
+    /**
+     * Puts the head on cylinder 40 moving up, then queues requests for cylinders 45, 10, 90, 30.
+     */
+    private static List<Integer> serve(SchedulingPolicy policy, long[] cylindersTraveled) {
+        RecordingDevice device = new RecordingDevice();
+        IOScheduler scheduler = new IOScheduler(device, GEOMETRY, policy, SeekCostModel.DEFAULT);
+        ByteBuffer block = ByteBuffer.allocate(GEOMETRY.getBlockLengthInBytes());
+        int blocksInCylinder = GEOMETRY.getNumOfBlocksInOneCylinder();
+
+        scheduler.readBlocks(40 * blocksInCylinder, 1, block);
+        scheduler.resetStatistics();
+        device.cylinders.clear();
+
+        for (int cylinder : new int[]{45, 10, 90, 30}) {
+            scheduler.submit(IORequest.read(cylinder * blocksInCylinder, 1, block));
+        }
+        scheduler.dispatch();
+
+        IOScheduler.Statistics statistics = scheduler.getStatistics();
+        Assert.assertEquals(4, statistics.getRequests());
+        cylindersTraveled[0] = statistics.getCylindersTraveled();
+        return device.cylinders;
+    }
+
+    @Test
+    public void orderOfService() {
+        System.out.println("\n\n\n============================    order of service for each policy");
+        long[] traveled = new long[1];
+
+        Assert.assertEquals(Arrays.asList(45, 10, 90, 30), serve(SchedulingPolicy.FIFO, traveled));
+        Assert.assertEquals(180, traveled[0]);
+
+        Assert.assertEquals(Arrays.asList(45, 30, 10, 90), serve(SchedulingPolicy.SSTF, traveled));
+        Assert.assertEquals(120, traveled[0]);
+
+        // SCAN goes on to the last cylinder before sweeping back
+        Assert.assertEquals(Arrays.asList(45, 90, 30, 10), serve(SchedulingPolicy.SCAN, traveled));
+        Assert.assertEquals(5 + 45 + 9 + 69 + 20, traveled[0]);
+
+        Assert.assertEquals(Arrays.asList(45, 90, 10, 30), serve(SchedulingPolicy.C_LOOK, traveled));
+        Assert.assertEquals(150, traveled[0]);
+    }
+
+    @Test
+    public void costModel() {
+        System.out.println("\n\n\n============================    seek, rotational latency and transfer time");
+        SeekCostModel model = new SeekCostModel(1000, 20, 8000);
+        Assert.assertEquals(0, model.getSeekTime(0));
+        Assert.assertEquals(1200, model.getSeekTime(10));
+        Assert.assertEquals(1000, model.getSectorTime(8));
+        Assert.assertEquals(3000, model.getRotationalLatency(0, 3, 8));
+        Assert.assertEquals(7500, model.getRotationalLatency(3500, 3, 8));
+
+        // adjacent sectors are transferred without waiting for another rotation
+        IOScheduler scheduler = new IOScheduler(new ArrayBlockDevice(GEOMETRY), GEOMETRY, SchedulingPolicy.FIFO, model);
+        ByteBuffer blocks = ByteBuffer.allocate(4 * GEOMETRY.getBlockLengthInBytes());
+        scheduler.readBlocks(0, 4, blocks);
+        IOScheduler.Statistics statistics = scheduler.getStatistics();
+        Assert.assertEquals(0, statistics.getSeekTime());
+        Assert.assertEquals(0, statistics.getRotationalLatency());
+        Assert.assertEquals(4000, statistics.getTransferTime());
+        Assert.assertEquals(1000.0, statistics.getThroughput(), 0.001);
+    }
+
+    @Test
+    public void scheduledIOSystem() {
+        System.out.println("\n\n\n============================    blocks written through the scheduler are read back");
+        IOSystem ioSystem = new IOSystem(new ArrayBlockDevice(GEOMETRY), GEOMETRY, 0);
+        ioSystem.setScheduler(SchedulingPolicy.C_LOOK, SeekCostModel.DEFAULT);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+
+        int[] blockNumbers = {1500, 20, 800, 21};
+        ByteBuffer[] src = new ByteBuffer[blockNumbers.length];
+        ByteBuffer[] dst = new ByteBuffer[blockNumbers.length];
+        for (int i = 0; i < blockNumbers.length; i++) {
+            src[i] = ByteBuffer.allocate(blockLength);
+            src[i].put(0, (byte) (i + 1));
+            dst[i] = ByteBuffer.allocate(blockLength);
+        }
+        ioSystem.writeBlocks(blockNumbers, src);
+        ioSystem.readBlocks(blockNumbers, dst);
+
+        for (int i = 0; i < blockNumbers.length; i++) {
+            Assert.assertEquals(i + 1, dst[i].get(0));
+        }
+        Assert.assertEquals(8, ioSystem.getScheduler().getStatistics().getRequests());
+    }
+}
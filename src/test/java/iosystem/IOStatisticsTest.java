@@ -0,0 +1,74 @@
+package iosystem;
+
+import disk.DiskGeometry;
+import filesystem.FileSystem;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+public class IOStatisticsTest {
+
+    @Test
+    public void countersAndHeatMap() {
+        System.out.println("\n\n\n============================    blocks, metadata / data split and heat map");
+        IOSystem ioSystem = new IOSystem(DiskGeometry.DEFAULT);
+        int blockLength = ioSystem.getBlockLengthInBytes();
+        ByteBuffer blocks = ByteBuffer.allocate(4 * blockLength);
+
+        ioSystem.readBlockRange(6, 4, blocks);
+        ioSystem.write_block(20, new byte[blockLength]);
+        ioSystem.write_block(20, blocks);
+        ioSystem.readBlocks(new int[]{1, 20}, new ByteBuffer[]{blocks, ByteBuffer.allocate(blockLength)});
+
+        IOStatistics.Snapshot snapshot = ioSystem.getStatistics().snapshot();
+        Assert.assertEquals(2, snapshot.getReadCalls());
+        Assert.assertEquals(2, snapshot.getWriteCalls());
+        Assert.assertEquals(6, snapshot.getBlocksRead());
+        Assert.assertEquals(3, snapshot.getMetadataBlocksRead());
+        Assert.assertEquals(3, snapshot.getDataBlocksRead());
+        Assert.assertEquals(2, snapshot.getDataBlocksWritten());
+        Assert.assertEquals(2 * blockLength, snapshot.getBytesWritten());
+        Assert.assertEquals(3, snapshot.getAccesses(20));
+        Assert.assertEquals(1, snapshot.getAccesses(9));
+        Assert.assertEquals(0, snapshot.getAccesses(10));
+
+        long calls = 0;
+        for (long count : snapshot.getReadLatencyHistogram()) calls += count;
+        Assert.assertEquals(2, calls);
+
+        ioSystem.getStatistics().reset();
+        Assert.assertEquals(0, ioSystem.getStatistics().getBlocksRead());
+        Assert.assertEquals(6, snapshot.getBlocksRead());
+    }
+
+    @Test
+    public void fileSystemMetadataBoundary() {
+        System.out.println("\n\n\n============================    metadata boundary follows the file system layout");
+        IOSystem ioSystem = new IOSystem(DiskGeometry.ofSize(1 << 20, 256));
+        new FileSystem(ioSystem, 100);
+        Assert.assertTrue(ioSystem.getStatistics().getFirstDataBlock() > IOStatistics.DEFAULT_FIRST_DATA_BLOCK);
+    }
+
+    @Test
+    public void publishedThroughJmx() throws Exception {
+        System.out.println("\n\n\n============================    statistics MBean");
+        IOSystem ioSystem = new IOSystem(DiskGeometry.DEFAULT);
+        ioSystem.read_block(10, new byte[ioSystem.getBlockLengthInBytes()], 0);
+
+        ObjectName name = ioSystem.registerMBean("test disk");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(1L, server.getAttribute(name, "BlocksRead"));
+            Assert.assertEquals(1L, server.getAttribute(name, "DataBlocksRead"));
+            Assert.assertEquals(64, ((long[]) server.getAttribute(name, "HeatMap")).length);
+            server.invoke(name, "reset", null, null);
+            Assert.assertEquals(0L, server.getAttribute(name, "BlocksRead"));
+        } finally {
+            ioSystem.unregisterMBean("test disk");
+        }
+    }
+}